@@ -25,7 +25,11 @@ import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.spi.FilterAttachable;
 import com.commercehub.dropwizard.redis.JedisPoolConfigFactory;
 import com.commercehub.logging.logback.AsyncAppender;
+import com.commercehub.logging.logback.redis.BatchCompression;
+import com.commercehub.logging.logback.redis.ConnectionMode;
 import com.commercehub.logging.logback.redis.RedisAppender;
+import com.commercehub.logging.logback.redis.Transport;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import io.dropwizard.logging.AppenderFactory;
@@ -33,6 +37,8 @@ import io.dropwizard.logging.async.AsyncAppenderFactory;
 import io.dropwizard.logging.filter.LevelFilterFactory;
 import io.dropwizard.logging.layout.LayoutFactory;
 import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.dropwizard.validation.ValidationMethod;
 import org.hibernate.validator.constraints.NotBlank;
 
 import javax.validation.Valid;
@@ -76,6 +82,48 @@ public class LogstashAppenderFactory implements AppenderFactory {
     @Max(65535L)
     private int discardingThreshold = AsyncAppender.DISCARDING_THRESHOLD_UNDEFINED;
 
+    @NotNull
+    private Size maxQueueBytes = Size.bytes(AsyncAppender.DEFAULT_MAX_QUEUE_BYTES);
+
+    private boolean priorityLanes;
+
+    @NotNull
+    private BatchCompression compression = BatchCompression.NONE;
+
+    @Min(1L)
+    private int batchSize = RedisAppender.DEFAULT_BATCH_SIZE;
+
+    @NotNull
+    private Size maxBatchBytes = Size.bytes(RedisAppender.DEFAULT_MAX_BATCH_BYTES);
+
+    @NotNull
+    private Duration maxLinger = Duration.milliseconds(RedisAppender.DEFAULT_MAX_LINGER);
+
+    @NotNull
+    private Duration initialBackoff = Duration.milliseconds(RedisAppender.DEFAULT_INITIAL_BACKOFF);
+
+    @NotNull
+    private Duration maxBackoff = Duration.milliseconds(RedisAppender.DEFAULT_MAX_BACKOFF);
+
+    private String spillDirectory;
+
+    @NotNull
+    private Size spillMaxBytes = Size.bytes(RedisAppender.DEFAULT_SPILL_MAX_BYTES);
+
+    @Min(1L)
+    private int spillReplayRate = RedisAppender.DEFAULT_SPILL_REPLAY_RATE;
+
+    private boolean sharedEngine = false;
+
+    @NotNull
+    private ConnectionMode connectionMode = ConnectionMode.POOLED;
+
+    @NotNull
+    private Transport transport = Transport.JEDIS;
+
+    @NotNull
+    private Duration probeInterval = Duration.milliseconds(RedisAppender.DEFAULT_PROBE_INTERVAL);
+
     @Valid
     @NotNull
     private JedisPoolConfigFactory pool = new JedisPoolConfigFactory();
@@ -100,6 +148,19 @@ public class LogstashAppenderFactory implements AppenderFactory {
         appender.setPassword(password);
         appender.setDatabase(database);
         appender.setKey(key);
+        appender.setCompression(compression);
+        appender.setBatchSize(batchSize);
+        appender.setMaxBatchBytes(maxBatchBytes.toBytes());
+        appender.setMaxLinger(maxLinger.toMilliseconds());
+        appender.setInitialBackoff(initialBackoff.toMilliseconds());
+        appender.setMaxBackoff(maxBackoff.toMilliseconds());
+        appender.setSpillDirectory(spillDirectory);
+        appender.setSpillMaxBytes(spillMaxBytes.toBytes());
+        appender.setSpillReplayRate(spillReplayRate);
+        appender.setSharedEngine(sharedEngine);
+        appender.setConnectionMode(connectionMode);
+        appender.setTransport(transport);
+        appender.setProbeInterval(probeInterval.toMilliseconds());
         appender.setLayout(this.layout.build());
         addThresholdFilter(appender);
         appender.start();
@@ -119,6 +180,8 @@ public class LogstashAppenderFactory implements AppenderFactory {
         asyncAppender.setName(LOGSTASH_APPENDER_NAME);
         asyncAppender.setQueueSize(queueSize);
         asyncAppender.setDiscardingThreshold(discardingThreshold);
+        asyncAppender.setMaxQueueBytes(maxQueueBytes.toBytes());
+        asyncAppender.setPriorityLanes(priorityLanes);
         asyncAppender.addAppender(appender);
         asyncAppender.start();
         return asyncAppender;
@@ -214,6 +277,166 @@ public class LogstashAppenderFactory implements AppenderFactory {
         this.discardingThreshold = discardingThreshold;
     }
 
+    @JsonProperty
+    public Size getMaxQueueBytes() {
+        return maxQueueBytes;
+    }
+
+    @JsonProperty
+    public void setMaxQueueBytes(Size maxQueueBytes) {
+        this.maxQueueBytes = maxQueueBytes;
+    }
+
+    @JsonProperty
+    public boolean isPriorityLanes() {
+        return priorityLanes;
+    }
+
+    @JsonProperty
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    @JsonProperty
+    public BatchCompression getCompression() {
+        return compression;
+    }
+
+    @JsonProperty
+    public void setCompression(BatchCompression compression) {
+        this.compression = compression;
+    }
+
+    @JsonProperty
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @JsonProperty
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @JsonProperty
+    public Size getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    @JsonProperty
+    public void setMaxBatchBytes(Size maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    @JsonProperty
+    public Duration getMaxLinger() {
+        return maxLinger;
+    }
+
+    @JsonProperty
+    public void setMaxLinger(Duration maxLinger) {
+        this.maxLinger = maxLinger;
+    }
+
+    @JsonProperty
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    @JsonProperty
+    public void setInitialBackoff(Duration initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    @JsonProperty
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    @JsonProperty
+    public void setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    @JsonProperty
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    @JsonProperty
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    @JsonProperty
+    public Size getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    @JsonProperty
+    public void setSpillMaxBytes(Size spillMaxBytes) {
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
+    @JsonProperty
+    public int getSpillReplayRate() {
+        return spillReplayRate;
+    }
+
+    @JsonProperty
+    public void setSpillReplayRate(int spillReplayRate) {
+        this.spillReplayRate = spillReplayRate;
+    }
+
+    @JsonProperty
+    public boolean isSharedEngine() {
+        return sharedEngine;
+    }
+
+    @JsonProperty
+    public void setSharedEngine(boolean sharedEngine) {
+        this.sharedEngine = sharedEngine;
+    }
+
+    @JsonProperty
+    public ConnectionMode getConnectionMode() {
+        return connectionMode;
+    }
+
+    @JsonProperty
+    public void setConnectionMode(ConnectionMode connectionMode) {
+        this.connectionMode = connectionMode;
+    }
+
+    @JsonProperty
+    public Transport getTransport() {
+        return transport;
+    }
+
+    @JsonProperty
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * A shared engine always pushes through the engine's pool, so it can't honor a dedicated connection or the nio
+     * transport.
+     */
+    @JsonIgnore
+    @ValidationMethod(message = "sharedEngine can't be combined with a dedicated connectionMode or the nio transport")
+    public boolean isSharedEngineCompatible() {
+        return !sharedEngine || (connectionMode != ConnectionMode.DEDICATED && transport != Transport.NIO);
+    }
+
+    @JsonProperty
+    public Duration getProbeInterval() {
+        return probeInterval;
+    }
+
+    @JsonProperty
+    public void setProbeInterval(Duration probeInterval) {
+        this.probeInterval = probeInterval;
+    }
+
     @JsonProperty
     public JedisPoolConfigFactory getPool() {
         return pool;
@@ -17,7 +17,12 @@
 package com.commercehub.dropwizard.logging;
 
 import com.commercehub.logging.logback.LogstashEventLayout;
+import com.commercehub.logging.logback.WireFormat;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -27,6 +32,23 @@ public class LogstashEventLayoutFactory {
     private String host;
     private String userFields;
 
+    @Min(0L)
+    private int stackTraceCacheSize = LogstashEventLayout.DEFAULT_STACK_TRACE_CACHE_SIZE;
+
+    @NotNull
+    private Duration stackTraceDeduplicationWindow = Duration.milliseconds(0);
+
+    @Min(-1L)
+    private int maxStackTraceFrames = LogstashEventLayout.UNLIMITED;
+
+    @Min(-1L)
+    private int maxStackTraceCauseDepth = LogstashEventLayout.UNLIMITED;
+
+    private String stackTraceExcludedPackages;
+
+    @NotNull
+    private WireFormat wireFormat = WireFormat.JSON;
+
     public LogstashEventLayout build() {
         LogstashEventLayout layout = new LogstashEventLayout();
         if (host != null && !host.trim().isEmpty()) {
@@ -39,6 +61,12 @@ public class LogstashEventLayoutFactory {
             }
         }
         layout.setUserFields(userFields);
+        layout.setStackTraceCacheSize(stackTraceCacheSize);
+        layout.setStackTraceDeduplicationWindow(stackTraceDeduplicationWindow.toMilliseconds());
+        layout.setMaxStackTraceFrames(maxStackTraceFrames);
+        layout.setMaxStackTraceCauseDepth(maxStackTraceCauseDepth);
+        layout.setStackTraceExcludedPackages(stackTraceExcludedPackages);
+        layout.setWireFormat(wireFormat);
         return layout;
     }
 
@@ -62,4 +90,64 @@ public class LogstashEventLayoutFactory {
         this.userFields = userFields;
     }
 
+    @JsonProperty
+    public int getStackTraceCacheSize() {
+        return stackTraceCacheSize;
+    }
+
+    @JsonProperty
+    public void setStackTraceCacheSize(int stackTraceCacheSize) {
+        this.stackTraceCacheSize = stackTraceCacheSize;
+    }
+
+    @JsonProperty
+    public Duration getStackTraceDeduplicationWindow() {
+        return stackTraceDeduplicationWindow;
+    }
+
+    @JsonProperty
+    public void setStackTraceDeduplicationWindow(Duration stackTraceDeduplicationWindow) {
+        this.stackTraceDeduplicationWindow = stackTraceDeduplicationWindow;
+    }
+
+    @JsonProperty
+    public int getMaxStackTraceFrames() {
+        return maxStackTraceFrames;
+    }
+
+    @JsonProperty
+    public void setMaxStackTraceFrames(int maxStackTraceFrames) {
+        this.maxStackTraceFrames = maxStackTraceFrames;
+    }
+
+    @JsonProperty
+    public int getMaxStackTraceCauseDepth() {
+        return maxStackTraceCauseDepth;
+    }
+
+    @JsonProperty
+    public void setMaxStackTraceCauseDepth(int maxStackTraceCauseDepth) {
+        this.maxStackTraceCauseDepth = maxStackTraceCauseDepth;
+    }
+
+    @JsonProperty
+    public String getStackTraceExcludedPackages() {
+        return stackTraceExcludedPackages;
+    }
+
+    @JsonProperty
+    public void setStackTraceExcludedPackages(String stackTraceExcludedPackages) {
+        this.stackTraceExcludedPackages = stackTraceExcludedPackages;
+    }
+
+    @JsonProperty
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    @JsonProperty
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
 }
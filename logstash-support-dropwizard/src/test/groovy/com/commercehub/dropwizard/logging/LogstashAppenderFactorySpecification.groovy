@@ -24,11 +24,20 @@ import ch.qos.logback.core.filter.Filter
 import com.commercehub.dropwizard.redis.JedisPoolConfigFactory
 import com.commercehub.logging.logback.AsyncAppender
 import com.commercehub.logging.logback.LogstashEventLayout
+import com.commercehub.logging.logback.redis.BatchCompression
+import com.commercehub.logging.logback.redis.ConnectionMode
 import com.commercehub.logging.logback.redis.RedisAppender
+import com.commercehub.logging.logback.redis.Transport
 import io.dropwizard.util.Duration
+import io.dropwizard.util.Size
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
 import org.slf4j.LoggerFactory
 import redis.clients.jedis.JedisPoolConfig
 import spock.lang.Specification
+import spock.lang.Unroll
+
+import javax.validation.Validation
 
 class LogstashAppenderFactorySpecification extends Specification {
 
@@ -39,12 +48,18 @@ class LogstashAppenderFactorySpecification extends Specification {
     def logstashEventLayoutFactory = Mock(LogstashEventLayoutFactory)
     def appenderFactory = new LogstashAppenderFactory()
 
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
     def setup() {
         jedisPoolConfigFactory.build() >> jedisPoolConfig
         logstashEventLayoutFactory.build() >> logstashEventLayout
     }
 
     def "builds a LogstashAppender with properties specified"() {
+        given:
+            def spillDirectory = temporaryFolder.newFolder('spill')
+
         when:
             appenderFactory.host = 'foo.acme.com'
             appenderFactory.port = 6380
@@ -55,6 +70,20 @@ class LogstashAppenderFactorySpecification extends Specification {
             appenderFactory.threshold = Level.DEBUG
             appenderFactory.queueSize = 128
             appenderFactory.discardingThreshold = 20
+            appenderFactory.maxQueueBytes = Size.megabytes(4)
+            appenderFactory.priorityLanes = true
+            appenderFactory.compression = BatchCompression.GZIP
+            appenderFactory.batchSize = 50
+            appenderFactory.maxBatchBytes = Size.kilobytes(512)
+            appenderFactory.maxLinger = Duration.milliseconds(20)
+            appenderFactory.initialBackoff = Duration.milliseconds(250)
+            appenderFactory.maxBackoff = Duration.minutes(1)
+            appenderFactory.spillDirectory = spillDirectory.path
+            appenderFactory.spillMaxBytes = Size.megabytes(64)
+            appenderFactory.spillReplayRate = 5
+            appenderFactory.connectionMode = ConnectionMode.DEDICATED
+            appenderFactory.transport = Transport.NIO
+            appenderFactory.probeInterval = Duration.seconds(10)
             appenderFactory.pool = jedisPoolConfigFactory
             appenderFactory.layout = logstashEventLayoutFactory
 
@@ -76,6 +105,8 @@ class LogstashAppenderFactorySpecification extends Specification {
             asyncAppender.name == 'logstash-appender'
             asyncAppender.queueSize == 128
             asyncAppender.discardingThreshold == 20
+            asyncAppender.maxQueueBytes == 4 * 1024 * 1024
+            asyncAppender.priorityLanes
 
             redisAppender.name == 'redis-appender'
             redisAppender.host == 'foo.acme.com'
@@ -84,6 +115,19 @@ class LogstashAppenderFactorySpecification extends Specification {
             redisAppender.password == 'somepassword'
             redisAppender.database == 1
             redisAppender.key == 'somekey'
+            redisAppender.compression == BatchCompression.GZIP
+            redisAppender.batchSize == 50
+            redisAppender.maxBatchBytes == 512 * 1024
+            redisAppender.maxLinger == 20
+            redisAppender.initialBackoff == 250
+            redisAppender.maxBackoff == 60000
+            redisAppender.spillDirectory == spillDirectory.path
+            redisAppender.spillMaxBytes == 64 * 1024 * 1024
+            redisAppender.spillReplayRate == 5
+            !redisAppender.sharedEngine
+            redisAppender.connectionMode == ConnectionMode.DEDICATED
+            redisAppender.transport == Transport.NIO
+            redisAppender.probeInterval == 10000
             redisAppender.poolConfig.is(jedisPoolConfig)
             redisAppender.layout.is(logstashEventLayout)
 
@@ -92,4 +136,39 @@ class LogstashAppenderFactorySpecification extends Specification {
             filters.find { it instanceof ThresholdFilter && it.level == Level.DEBUG }
     }
 
+    def "builds a RedisAppender on a shared engine"() {
+        when:
+            appenderFactory.key = 'somekey'
+            appenderFactory.sharedEngine = true
+            def appender = (AsyncAppender) appenderFactory.build(rootLogger.loggerContext, null, null, null, null)
+            def redisAppender = (RedisAppender) appender.getAppender('redis-appender')
+
+        then:
+            redisAppender.sharedEngine
+            redisAppender.connectionMode == ConnectionMode.POOLED
+            redisAppender.transport == Transport.JEDIS
+    }
+
+    @Unroll
+    def "validates a shared engine with #connectionMode connection mode and #transport transport as #valid"() {
+        given:
+            def validator = Validation.buildDefaultValidatorFactory().validator
+
+        when:
+            appenderFactory.key = 'somekey'
+            appenderFactory.sharedEngine = sharedEngine
+            appenderFactory.connectionMode = connectionMode
+            appenderFactory.transport = transport
+
+        then:
+            validator.validate(appenderFactory).empty == valid
+
+        where:
+            sharedEngine | connectionMode           | transport       | valid
+            true         | ConnectionMode.POOLED    | Transport.JEDIS | true
+            true         | ConnectionMode.DEDICATED | Transport.JEDIS | false
+            true         | ConnectionMode.POOLED    | Transport.NIO   | false
+            false        | ConnectionMode.DEDICATED | Transport.NIO   | true
+    }
+
 }
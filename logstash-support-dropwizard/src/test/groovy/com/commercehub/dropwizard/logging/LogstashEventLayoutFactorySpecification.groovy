@@ -16,6 +16,9 @@
 
 package com.commercehub.dropwizard.logging
 
+import com.commercehub.logging.logback.LogstashEventLayout
+import com.commercehub.logging.logback.WireFormat
+import io.dropwizard.util.Duration
 import spock.lang.Specification
 
 class LogstashEventLayoutFactorySpecification extends Specification {
@@ -26,6 +29,12 @@ class LogstashEventLayoutFactorySpecification extends Specification {
         given:
             layoutFactory.host = 'foo.acme.com'
             layoutFactory.userFields = 'foo:bar,moo:goo'
+            layoutFactory.stackTraceCacheSize = 16
+            layoutFactory.stackTraceDeduplicationWindow = Duration.seconds(30)
+            layoutFactory.maxStackTraceFrames = 40
+            layoutFactory.maxStackTraceCauseDepth = 3
+            layoutFactory.stackTraceExcludedPackages = 'sun.reflect.,java.lang.reflect.'
+            layoutFactory.wireFormat = WireFormat.MSGPACK
 
         when:
             def layout = layoutFactory.build()
@@ -33,6 +42,12 @@ class LogstashEventLayoutFactorySpecification extends Specification {
         then:
             layout.host == 'foo.acme.com'
             layout.userFieldsMap == [foo: 'bar', moo: 'goo']
+            layout.stackTraceCacheSize == 16
+            layout.stackTraceDeduplicationWindow == 30000
+            layout.maxStackTraceFrames == 40
+            layout.maxStackTraceCauseDepth == 3
+            layout.stackTraceExcludedPackages == 'sun.reflect.,java.lang.reflect.'
+            layout.wireFormat == WireFormat.MSGPACK
     }
 
     def "builds a LogstashEventLayout with properties not specified"() {
@@ -42,6 +57,12 @@ class LogstashEventLayoutFactorySpecification extends Specification {
         then:
             layout.host == InetAddress.getLocalHost().getHostName()
             layout.userFieldsMap == [:]
+            layout.stackTraceCacheSize == LogstashEventLayout.DEFAULT_STACK_TRACE_CACHE_SIZE
+            layout.stackTraceDeduplicationWindow == 0
+            layout.maxStackTraceFrames == LogstashEventLayout.UNLIMITED
+            layout.maxStackTraceCauseDepth == LogstashEventLayout.UNLIMITED
+            layout.stackTraceExcludedPackages == null
+            layout.wireFormat == WireFormat.JSON
     }
 
 }
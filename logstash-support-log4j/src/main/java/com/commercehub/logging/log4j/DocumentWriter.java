@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A minimal streaming writer of the documents {@link LogstashEventLayout} produces, which encodes straight into a
+ * reusable, growable buffer. Subclasses implement a {@link WireFormat}.
+ * <p/>
+ * Instances are not thread-safe; {@link #reset()} makes an instance ready for the next document without giving up
+ * its buffer.
+ */
+abstract class DocumentWriter {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    /**
+     * A buffer that grew beyond this while writing an unusually large document is dropped on {@link #reset()}, so a
+     * long-lived writer doesn't hold on to it.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    byte[] buffer;
+    int size;
+
+    DocumentWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    void reset() {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[DEFAULT_INITIAL_CAPACITY];
+        }
+        size = 0;
+    }
+
+    abstract void beginObject();
+
+    abstract void endObject();
+
+    abstract void name(String name);
+
+    abstract void value(String value);
+
+    abstract void value(long value);
+
+    abstract void value(long timeStamp, TimestampFormatter timestampFormatter);
+
+    /**
+     * Writes a value that was already encoded by a writer of the same kind, taken with {@link #copyOf(int)}.
+     */
+    void encodedValue(byte[] value) {
+        writeBytes(value, 0, value.length);
+    }
+
+    /**
+     * Writes numbers and booleans as such, and anything else as its string representation.
+     */
+    abstract void value(Object value);
+
+    void value(Map<?, ?> map) {
+        if (map == null) {
+            value((String) null);
+            return;
+        }
+        beginObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            name(String.valueOf(entry.getKey()));
+            value(entry.getValue());
+        }
+        endObject();
+    }
+
+    /**
+     * Starts a string value whose content is then written in parts with the {@code append} methods and finished with
+     * {@link #endString()}, so that long text such as a stack trace never has to be built as a single {@link String}.
+     */
+    abstract void beginString();
+
+    abstract void append(String part);
+
+    abstract void append(char c);
+
+    void append(int value) {
+        append(Integer.toString(value));
+    }
+
+    abstract void endString();
+
+    /**
+     * Splices in object members that were written by a writer of the same kind and taken with {@link #toMembers()}.
+     */
+    abstract void members(byte[] members);
+
+    /**
+     * @return the members written so far, which must not be enclosed in an object, in the form
+     * {@link #members(byte[])} takes
+     */
+    abstract byte[] toMembers();
+
+    void field(String name, String value) {
+        name(name);
+        value(value);
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] copyOf(int start) {
+        return Arrays.copyOfRange(buffer, start, size);
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * @return the document as JSON text
+     */
+    @Override
+    public abstract String toString();
+
+    final void writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    final void write(int b) {
+        ensureCapacity(size + 1);
+        buffer[size++] = (byte) b;
+    }
+
+    final void ensureCapacity(int minCapacity) {
+        if (minCapacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, minCapacity));
+        }
+    }
+
+}
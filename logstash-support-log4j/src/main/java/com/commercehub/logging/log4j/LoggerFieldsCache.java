@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache of the {@code logger_full}, {@code level} and {@code logger_simple} members of events, serialized once
+ * per logger name and level so that writing them is a single copy. Once the cache holds the maximum number of logger
+ * names, the members of any other logger are serialized on every event.
+ * <p/>
+ * This class is thread-safe. The members of a logger are kept in an immutable map per logger name that is replaced
+ * when a level is added, so lookups never lock; when two threads add the same logger at once one of them simply
+ * serializes its members again later.
+ */
+final class LoggerFieldsCache {
+
+    private final int maxSize;
+    private final WireFormat wireFormat;
+    private final Set<String> omittedFields;
+    private final ConcurrentMap<String, Map<String, byte[]>> members = new ConcurrentHashMap<>();
+
+    /**
+     * @param omittedFields the names of the fields to leave out, because user fields take their place
+     */
+    LoggerFieldsCache(int maxSize, WireFormat wireFormat, Set<String> omittedFields) {
+        this.maxSize = maxSize;
+        this.wireFormat = wireFormat;
+        this.omittedFields = omittedFields;
+    }
+
+    /**
+     * @return the serialized members, in the form {@link DocumentWriter#members(byte[])} takes
+     */
+    byte[] get(String loggerName, String level) {
+        if (loggerName == null) {
+            return compile(null, level);
+        }
+        Map<String, byte[]> membersByLevel = members.get(loggerName);
+        if (membersByLevel != null) {
+            byte[] cached = membersByLevel.get(level);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        byte[] compiled = compile(loggerName, level);
+        if (membersByLevel != null || members.size() < maxSize) {
+            Map<String, byte[]> updated = membersByLevel == null
+                    ? new HashMap<String, byte[]>() : new HashMap<>(membersByLevel);
+            updated.put(level, compiled);
+            members.put(loggerName, updated);
+        }
+        return compiled;
+    }
+
+    private byte[] compile(String loggerName, String level) {
+        DocumentWriter writer = wireFormat.newWriter(128);
+        writeField(writer, "logger_full", loggerName);
+        writeField(writer, "level", level);
+        if (loggerName != null) {
+            writeField(writer, "logger_simple", loggerName.substring(loggerName.lastIndexOf('.') + 1));
+        }
+        return writer.toMembers();
+    }
+
+    private void writeField(DocumentWriter writer, String name, String value) {
+        if (!omittedFields.contains(name)) {
+            writer.field(name, value);
+        }
+    }
+
+}
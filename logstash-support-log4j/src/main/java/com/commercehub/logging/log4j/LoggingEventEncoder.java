@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Implemented by layouts that can serialize a logging event straight to UTF-8 bytes. Appenders that send bytes over
+ * the wire should prefer {@link #encode(LoggingEvent)} over {@link org.apache.log4j.Layout#format(LoggingEvent)}, which
+ * would need an intermediate String that then has to be encoded again.
+ */
+public interface LoggingEventEncoder {
+
+    /**
+     * @return the UTF-8 encoded event; the returned array is owned by the caller
+     */
+    byte[] encode(LoggingEvent loggingEvent);
+
+}
@@ -16,113 +16,245 @@
 
 package com.commercehub.logging.log4j;
 
-import net.minidev.json.JSONObject;
+import org.apache.log4j.Category;
 import org.apache.log4j.Layout;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggerRepository;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.ThrowableInformation;
+import org.apache.log4j.spi.ThrowableRendererSupport;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Set;
 
 /**
- * This class is intentionally not thread-safe. Don't share an instance of this Layout across multiple Appenders. Don't
- * share instances of the Appenders that use this Layout across multiple Loggers.
+ * This class is thread-safe, so an instance can be shared across multiple Appenders and events can be formatted on
+ * many threads at once. Each thread encodes into its own reusable buffer, and the state shared between threads is
+ * either immutable and republished on configuration changes or, for the stack trace cache, synchronized.
  */
-public class LogstashEventLayout extends Layout {
+public class LogstashEventLayout extends Layout implements LoggingEventEncoder {
 
     private static final int version = 1;
-    private final SimpleDateFormat simpleDateFormat;
+    private static final int LOGGER_FIELDS_CACHE_SIZE = 4096;
+    private static final int DEFAULT_STACK_TRACE_CACHE_SIZE = 256;
+    private static final Set<String> EVENT_FIELD_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "@timestamp", "logger_full", "level", "message", "mdc", "thread", "logger_simple", "exception")));
+
+    private final TimestampFormatter timestampFormatter = new TimestampFormatter();
+    private final ThreadLocal<DocumentWriter[]> documentWriters = new ThreadLocal<DocumentWriter[]>() {
+        @Override
+        protected DocumentWriter[] initialValue() {
+            return new DocumentWriter[WireFormat.values().length];
+        }
+    };
+    private volatile WireFormat wireFormat = WireFormat.JSON;
     private String userFields;
-    private Map<String, String> userFieldsMap = new HashMap<>();
-    private boolean userFieldsNeedToBeParsed = false;
+    private volatile Map<String, String> userFieldsMap = new HashMap<>();
+    private volatile Set<String> shadowedEventFields = Collections.emptySet();
+    private volatile LoggerFieldsCache loggerFieldsCache;
     private String host;
+    private volatile byte[] staticFields;
+    private int stackTraceCacheSize = DEFAULT_STACK_TRACE_CACHE_SIZE;
+    private int maxStackTraceFrames = StackTraceWriter.UNLIMITED;
+    private int maxStackTraceCauseDepth = StackTraceWriter.UNLIMITED;
+    private String stackTraceExcludedPackages;
+    private volatile StackTraceWriter stackTraceWriter;
+    private volatile StackTraceCache stackTraceCache;
+    private volatile long stackTraceDeduplicationWindow;
 
     public LogstashEventLayout() {
-        simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
         try {
             host = InetAddress.getLocalHost().getHostName();
         } catch (UnknownHostException e) {
             host = "unknown";
         }
+        compileStaticFields();
+        compileLoggerFieldsCache();
+        compileStackTraceWriter();
     }
 
+    /**
+     * @return the event as JSON text, whatever the wire format
+     */
     @Override
     public String format(LoggingEvent loggingEvent) {
-        JSONObject jsonObject = new JSONObject();
+        return writeEvent(loggingEvent).toString();
+    }
 
-        jsonObject.put("@version", version);
-        jsonObject.put("@timestamp", simpleDateFormat.format(new Date(loggingEvent.getTimeStamp())));
-        jsonObject.put("logger_full", loggingEvent.getLoggerName());
-        jsonObject.put("level", loggingEvent.getLevel().toString());
-        jsonObject.put("message", loggingEvent.getRenderedMessage());
-        jsonObject.put("mdc", loggingEvent.getProperties());
-        jsonObject.put("thread", loggingEvent.getThreadName());
-        jsonObject.put("host", host);
+    /**
+     * @return the event in the configured wire format
+     */
+    @Override
+    public byte[] encode(LoggingEvent loggingEvent) {
+        return writeEvent(loggingEvent).toByteArray();
+    }
 
-        handleLoggerSimpleName(loggingEvent, jsonObject);
+    private DocumentWriter writeEvent(LoggingEvent loggingEvent) {
+        WireFormat wireFormat = this.wireFormat;
+        DocumentWriter[] writers = documentWriters.get();
+        DocumentWriter writer = writers[wireFormat.ordinal()];
+        if (writer == null) {
+            writer = wireFormat.newWriter(DocumentWriter.DEFAULT_INITIAL_CAPACITY);
+            writers[wireFormat.ordinal()] = writer;
+        }
+        writer.reset();
+        writer.beginObject();
+        writer.members(staticFields);
 
-        handleThrowableInformation(loggingEvent, jsonObject);
+        if (isWritten("@timestamp")) {
+            writer.name("@timestamp");
+            writer.value(loggingEvent.getTimeStamp(), timestampFormatter);
+        }
+        writer.members(loggerFieldsCache.get(loggingEvent.getLoggerName(), loggingEvent.getLevel().toString()));
+        writeField(writer, "message", loggingEvent.getRenderedMessage());
+        if (isWritten("mdc")) {
+            writer.name("mdc");
+            writer.value(loggingEvent.getProperties());
+        }
+        writeField(writer, "thread", loggingEvent.getThreadName());
 
-        jsonObject.putAll(getUserFieldsMap());
+        handleThrowableInformation(loggingEvent, writer);
 
-        return jsonObject.toString();
+        writer.endObject();
+        return writer;
     }
 
-    private void handleLoggerSimpleName(LoggingEvent loggingEvent, JSONObject jsonObject) {
-        String loggerName = loggingEvent.getLoggerName();
-        if (loggerName != null) {
-            jsonObject.put("logger_simple", loggerName.substring(loggerName.lastIndexOf('.') + 1));
+    private void writeField(DocumentWriter writer, String name, String value) {
+        if (isWritten(name)) {
+            writer.field(name, value);
         }
     }
 
-    private void handleThrowableInformation(LoggingEvent loggingEvent, JSONObject jsonObject) {
+    /**
+     * User fields take precedence over the event fields of the same name, as they did when the event was built as a
+     * map, so such event fields are left out rather than written twice.
+     */
+    private boolean isWritten(String eventFieldName) {
+        return shadowedEventFields.isEmpty() || !shadowedEventFields.contains(eventFieldName);
+    }
+
+    private void handleThrowableInformation(LoggingEvent loggingEvent, DocumentWriter writer) {
         ThrowableInformation throwableInformation = loggingEvent.getThrowableInformation();
-        if (throwableInformation != null) {
+        if (throwableInformation != null && isWritten("exception")) {
             //noinspection ThrowableResultOfMethodCallIgnored
             Throwable throwable = throwableInformation.getThrowable();
             if (throwable != null) {
-                Map<String, String> exceptionMap = new HashMap<>();
+                writer.name("exception");
+                writer.beginObject();
                 String canonicalName = throwable.getClass().getCanonicalName();
                 if (canonicalName != null) {
-                    exceptionMap.put("class", canonicalName);
+                    writer.field("class", canonicalName);
                 }
 
                 String message = throwable.getMessage();
                 if (message != null) {
-                    exceptionMap.put("message", message);
+                    writer.field("message", message);
                 }
 
-                String[] throwableStrReps = throwableInformation.getThrowableStrRep();
-                if (throwableStrReps != null) {
-                    StringBuilder stringBuilder = new StringBuilder();
-                    for (String throwableStrRep : throwableStrReps) {
-                        stringBuilder.append(throwableStrRep);
-                        stringBuilder.append("\n");
-                    }
-                    exceptionMap.put("stacktrace", stringBuilder.toString());
+                long fingerprint = StackTraceCache.fingerprint(throwable);
+                StackTraceCache.Entry stackTraceCacheEntry = stackTraceCache.get(fingerprint);
+                writer.field("fingerprint", stackTraceCacheEntry.getFingerprint());
+
+                long window = stackTraceDeduplicationWindow;
+                if (window <= 0 || stackTraceCacheEntry.isFullStackTraceDue(loggingEvent.getTimeStamp(), window)) {
+                    writeStackTrace(writer, stackTraceCacheEntry, loggingEvent, throwableInformation);
                 }
+                writer.endObject();
+            }
+        }
+    }
+
+    private void writeStackTrace(DocumentWriter writer, StackTraceCache.Entry stackTraceCacheEntry,
+                                 LoggingEvent loggingEvent, ThrowableInformation throwableInformation) {
+        long messagesHash = StackTraceCache.messagesHash(throwableInformation.getThrowable());
+        byte[] stackTrace = stackTraceCacheEntry.getStackTrace(messagesHash);
+        if (stackTrace != null) {
+            writer.name("stacktrace");
+            writer.encodedValue(stackTrace);
+            return;
+        }
 
-                jsonObject.put("exception", exceptionMap);
+        if (hasThrowableRenderer(loggingEvent)) {
+            String[] throwableStrReps = throwableInformation.getThrowableStrRep();
+            if (throwableStrReps != null) {
+                StringBuilder stringBuilder = new StringBuilder();
+                for (String throwableStrRep : throwableStrReps) {
+                    stringBuilder.append(throwableStrRep);
+                    stringBuilder.append("\n");
+                }
+                writer.name("stacktrace");
+                int start = writer.size();
+                writer.value(stringBuilder.toString());
+                stackTraceCacheEntry.setStackTrace(messagesHash, writer.copyOf(start));
             }
+        } else {
+            writer.name("stacktrace");
+            int start = writer.size();
+            stackTraceWriter.write(writer, throwableInformation.getThrowable());
+            stackTraceCacheEntry.setStackTrace(messagesHash, writer.copyOf(start));
         }
     }
 
-    public Map<String, String> getUserFieldsMap() {
-        if (userFieldsNeedToBeParsed) {
-            userFieldsMap = new HashMap<>();
-            parseUserFields();
+    /**
+     * A throwable renderer configured on the logger repository takes over rendering stack traces, in which case the
+     * stack trace limits of this layout don't apply.
+     */
+    private static boolean hasThrowableRenderer(LoggingEvent loggingEvent) {
+        Category logger = loggingEvent.getLogger();
+        if (logger == null) {
+            return false;
         }
+        LoggerRepository repository = logger.getLoggerRepository();
+        return repository instanceof ThrowableRendererSupport
+                && ((ThrowableRendererSupport) repository).getThrowableRenderer() != null;
+    }
 
+    public Map<String, String> getUserFieldsMap() {
         return userFieldsMap;
     }
 
+    /**
+     * Serializes the fields that are the same for every event ({@code @version}, {@code host} and the user fields)
+     * once, so they can be copied into each event as pre-escaped bytes. Must be called whenever one of them changes.
+     */
+    private void compileStaticFields() {
+        Map<String, Object> staticFields = new LinkedHashMap<>();
+        staticFields.put("@version", version);
+        staticFields.put("host", host);
+        staticFields.putAll(userFieldsMap);
+
+        DocumentWriter writer = wireFormat.newWriter(DocumentWriter.DEFAULT_INITIAL_CAPACITY);
+        for (Map.Entry<String, Object> staticField : staticFields.entrySet()) {
+            writer.name(staticField.getKey());
+            writer.value(staticField.getValue());
+        }
+        this.staticFields = writer.toMembers();
+    }
+
+    private void compileLoggerFieldsCache() {
+        loggerFieldsCache = new LoggerFieldsCache(LOGGER_FIELDS_CACHE_SIZE, wireFormat, shadowedEventFields);
+    }
+
+    /**
+     * Must be called whenever one of the stack trace settings changes; rendered stack traces that were cached with the
+     * previous settings are dropped.
+     */
+    private void compileStackTraceWriter() {
+        stackTraceWriter = new StackTraceWriter(maxStackTraceFrames, maxStackTraceCauseDepth,
+                stackTraceExcludedPackages);
+        stackTraceCache = new StackTraceCache(stackTraceCacheSize);
+    }
+
     private void parseUserFields() {
+        Map<String, String> userFieldsMap = new HashMap<>();
         String userFields = this.userFields;
         if (userFields != null) {
             String[] userFieldPairs = userFields.split(",");
@@ -135,6 +267,7 @@ public class LogstashEventLayout extends Layout {
                 }
             }
         }
+        this.userFieldsMap = userFieldsMap;
     }
 
     @Override
@@ -149,11 +282,83 @@ public class LogstashEventLayout extends Layout {
     @SuppressWarnings("UnusedDeclaration")
     public void setUserFields(String userFields) {
         this.userFields = userFields;
-        userFieldsNeedToBeParsed = true;
+        parseUserFields();
+        Set<String> shadowedEventFields = new HashSet<>(userFieldsMap.keySet());
+        shadowedEventFields.retainAll(EVENT_FIELD_NAMES);
+        this.shadowedEventFields = shadowedEventFields;
+        compileStaticFields();
+        compileLoggerFieldsCache();
     }
 
     @SuppressWarnings("UnusedDeclaration")
     public void setHost(String host) {
         this.host = host;
+        compileStaticFields();
+    }
+
+    /**
+     * Sets how many distinct stack traces are kept in rendered form, so that an exception that is logged over and
+     * over again is only rendered once. Zero disables the cache.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setStackTraceCacheSize(int stackTraceCacheSize) {
+        this.stackTraceCacheSize = stackTraceCacheSize;
+        compileStackTraceWriter();
+    }
+
+    /**
+     * When positive, only the first event within this many milliseconds that carries a given exception fingerprint
+     * includes the stack trace; the others carry the class, message and fingerprint of the exception only.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setStackTraceDeduplicationWindow(long millis) {
+        this.stackTraceDeduplicationWindow = millis;
+    }
+
+    /**
+     * Sets how many frames are written per exception, cause and suppressed exception; the rest are summarized as
+     * {@code ... N frames truncated}. Negative (the default) means no limit.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMaxStackTraceFrames(int maxStackTraceFrames) {
+        this.maxStackTraceFrames = maxStackTraceFrames;
+        compileStackTraceWriter();
+    }
+
+    /**
+     * Sets how many levels of causes and suppressed exceptions are written below the logged exception; deeper ones
+     * are written as {@code Caused by: ...}. Negative (the default) means no limit.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMaxStackTraceCauseDepth(int maxStackTraceCauseDepth) {
+        this.maxStackTraceCauseDepth = maxStackTraceCauseDepth;
+        compileStackTraceWriter();
+    }
+
+    /**
+     * Sets comma-separated class name prefixes, such as {@code sun.reflect.,org.springframework.aop.}, of stack frames
+     * to leave out; each run of left out frames is summarized as {@code ... N frames filtered}.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setStackTraceExcludedPackages(String stackTraceExcludedPackages) {
+        this.stackTraceExcludedPackages = stackTraceExcludedPackages;
+        compileStackTraceWriter();
+    }
+
+    /**
+     * Sets the encoding of the events that are sent as bytes, {@code json} (the default) or {@code msgpack}; see
+     * {@link WireFormat}. Events formatted as text are always JSON. Set it before the layout is in use.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setWireFormat(String wireFormat) {
+        try {
+            this.wireFormat = WireFormat.valueOf(wireFormat.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LogLog.error("Unknown wire format [" + wireFormat + "], keeping " + this.wireFormat, e);
+            return;
+        }
+        compileStaticFields();
+        compileLoggerFieldsCache();
+        compileStackTraceWriter();
     }
 }
\ No newline at end of file
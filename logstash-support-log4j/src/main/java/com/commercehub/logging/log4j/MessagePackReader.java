@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a MessagePack document such as {@link MessagePackWriter} produces into plain Java objects: maps (keeping the
+ * order of their entries), lists, strings, longs, doubles, booleans and null. Binary and extension types aren't
+ * supported, since events never contain them.
+ */
+final class MessagePackReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] bytes;
+    private int position;
+
+    private MessagePackReader(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    static Object read(byte[] bytes) {
+        MessagePackReader reader = new MessagePackReader(bytes);
+        Object value = reader.readValue();
+        if (reader.position != bytes.length) {
+            throw new IllegalArgumentException("Unexpected data after the document at offset " + reader.position);
+        }
+        return value;
+    }
+
+    private Object readValue() {
+        int type = readUnsignedByte();
+        if (type <= 0x7F) {
+            return (long) type;
+        } else if (type <= 0x8F) {
+            return readMap(type & 0x0F);
+        } else if (type <= 0x9F) {
+            return readArray(type & 0x0F);
+        } else if (type <= 0xBF) {
+            return readString(type & 0x1F);
+        } else if (type >= 0xE0) {
+            return (long) (byte) type;
+        }
+        switch (type) {
+            case 0xC0:
+                return null;
+            case 0xC2:
+                return false;
+            case 0xC3:
+                return true;
+            case 0xCA:
+                return (double) Float.intBitsToFloat((int) readBigEndian(4));
+            case 0xCB:
+                return Double.longBitsToDouble(readBigEndian(8));
+            case 0xCC:
+                return readBigEndian(1);
+            case 0xCD:
+                return readBigEndian(2);
+            case 0xCE:
+                return readBigEndian(4);
+            case 0xCF:
+                return readBigEndian(8);
+            case 0xD0:
+                return (long) (byte) readBigEndian(1);
+            case 0xD1:
+                return (long) (short) readBigEndian(2);
+            case 0xD2:
+                return (long) (int) readBigEndian(4);
+            case 0xD3:
+                return readBigEndian(8);
+            case 0xD9:
+                return readString((int) readBigEndian(1));
+            case 0xDA:
+                return readString((int) readBigEndian(2));
+            case 0xDB:
+                return readString(readLength());
+            case 0xDC:
+                return readArray((int) readBigEndian(2));
+            case 0xDD:
+                return readArray(readLength());
+            case 0xDE:
+                return readMap((int) readBigEndian(2));
+            case 0xDF:
+                return readMap(readLength());
+            default:
+                throw new IllegalArgumentException("Unsupported type 0x" + Integer.toHexString(type) + " at offset "
+                        + (position - 1));
+        }
+    }
+
+    private Map<String, Object> readMap(int entries) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            Object key = readValue();
+            map.put(String.valueOf(key), readValue());
+        }
+        return map;
+    }
+
+    private List<Object> readArray(int elements) {
+        List<Object> list = new ArrayList<>();
+        for (int i = 0; i < elements; i++) {
+            list.add(readValue());
+        }
+        return list;
+    }
+
+    private String readString(int length) {
+        require(length);
+        String s = new String(bytes, position, length, UTF_8);
+        position += length;
+        return s;
+    }
+
+    private int readLength() {
+        long length = readBigEndian(4);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Length " + length + " is too large at offset " + (position - 4));
+        }
+        return (int) length;
+    }
+
+    private int readUnsignedByte() {
+        require(1);
+        return bytes[position++] & 0xFF;
+    }
+
+    private long readBigEndian(int length) {
+        require(length);
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (bytes[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    private void require(int length) {
+        if (length < 0 || position + length > bytes.length) {
+            throw new IllegalArgumentException("Truncated document at offset " + position);
+        }
+    }
+
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A {@link DocumentWriter} of <a href="https://github.com/msgpack/msgpack/blob/master/spec.md">MessagePack</a>.
+ * <p/>
+ * The number of entries of a map and the length of a string streamed with {@link #beginString()} aren't known up
+ * front, so the widest header is reserved and filled in at the end, then the content is moved back over the unused part
+ * of the header if a narrower one suffices. That way every document uses the smallest headers, as required for maps and
+ * strings by the specification, at the cost of a copy of the content that is usually short.
+ */
+final class MessagePackWriter extends DocumentWriter {
+
+    private static final int NIL = 0xC0;
+    private static final int FALSE = 0xC2;
+    private static final int TRUE = 0xC3;
+    private static final int FLOAT64 = 0xCB;
+    private static final int UINT8 = 0xCC;
+    private static final int UINT16 = 0xCD;
+    private static final int UINT32 = 0xCE;
+    private static final int UINT64 = 0xCF;
+    private static final int INT8 = 0xD0;
+    private static final int INT16 = 0xD1;
+    private static final int INT32 = 0xD2;
+    private static final int INT64 = 0xD3;
+    private static final int FIXSTR = 0xA0;
+    private static final int STR8 = 0xD9;
+    private static final int STR16 = 0xDA;
+    private static final int STR32 = 0xDB;
+    private static final int FIXMAP = 0x80;
+    private static final int MAP16 = 0xDE;
+    private static final int MAP32 = 0xDF;
+
+    private static final int MAX_HEADER_LENGTH = 5;
+
+    private int[] objectStarts = new int[4];
+    private int[] objectSizes = new int[4];
+    private int depth;
+    private int topLevelSize;
+    private int stringStart;
+
+    MessagePackWriter() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    MessagePackWriter(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        depth = 0;
+        topLevelSize = 0;
+    }
+
+    @Override
+    void beginObject() {
+        if (depth == objectStarts.length) {
+            objectStarts = Arrays.copyOf(objectStarts, depth << 1);
+            objectSizes = Arrays.copyOf(objectSizes, depth << 1);
+        }
+        objectStarts[depth] = size;
+        objectSizes[depth] = 0;
+        depth++;
+        reserveHeader();
+    }
+
+    @Override
+    void endObject() {
+        depth--;
+        int start = objectStarts[depth];
+        int entries = objectSizes[depth];
+        if (entries <= 15) {
+            compactHeader(start, 1);
+            buffer[start] = (byte) (FIXMAP | entries);
+        } else if (entries <= 0xFFFF) {
+            compactHeader(start, 3);
+            buffer[start] = (byte) MAP16;
+            putShort(start + 1, entries);
+        } else {
+            buffer[start] = (byte) MAP32;
+            putInt(start + 1, entries);
+        }
+    }
+
+    @Override
+    void name(String name) {
+        addEntries(1);
+        writeString(name);
+    }
+
+    @Override
+    void value(String value) {
+        if (value == null) {
+            write(NIL);
+        } else {
+            writeString(value);
+        }
+    }
+
+    @Override
+    void value(long value) {
+        ensureCapacity(size + 9);
+        if (value >= 0) {
+            if (value < 0x80) {
+                buffer[size++] = (byte) value;
+            } else if (value <= 0xFF) {
+                buffer[size++] = (byte) UINT8;
+                buffer[size++] = (byte) value;
+            } else if (value <= 0xFFFF) {
+                buffer[size++] = (byte) UINT16;
+                putShort(size, (int) value);
+                size += 2;
+            } else if (value <= 0xFFFFFFFFL) {
+                buffer[size++] = (byte) UINT32;
+                putInt(size, (int) value);
+                size += 4;
+            } else {
+                buffer[size++] = (byte) UINT64;
+                putLong(size, value);
+                size += 8;
+            }
+        } else {
+            if (value >= -32) {
+                buffer[size++] = (byte) value;
+            } else if (value >= Byte.MIN_VALUE) {
+                buffer[size++] = (byte) INT8;
+                buffer[size++] = (byte) value;
+            } else if (value >= Short.MIN_VALUE) {
+                buffer[size++] = (byte) INT16;
+                putShort(size, (int) value);
+                size += 2;
+            } else if (value >= Integer.MIN_VALUE) {
+                buffer[size++] = (byte) INT32;
+                putInt(size, (int) value);
+                size += 4;
+            } else {
+                buffer[size++] = (byte) INT64;
+                putLong(size, value);
+                size += 8;
+            }
+        }
+    }
+
+    @Override
+    void value(long timeStamp, TimestampFormatter timestampFormatter) {
+        ensureCapacity(size + 1 + TimestampFormatter.MAX_LENGTH);
+        int start = size++;
+        size = timestampFormatter.format(timeStamp, buffer, size);
+        // only a year with an absurd number of digits makes a timestamp longer than a fixstr holds
+        int length = size - start - 1;
+        if (length <= 31) {
+            buffer[start] = (byte) (FIXSTR | length);
+        } else {
+            ensureCapacity(size + 1);
+            System.arraycopy(buffer, start + 1, buffer, start + 2, length);
+            buffer[start] = (byte) STR8;
+            buffer[start + 1] = (byte) length;
+            size++;
+        }
+    }
+
+    @Override
+    void value(Object value) {
+        if (value == null || value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Map) {
+            value((Map<?, ?>) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            ensureCapacity(size + 9);
+            buffer[size++] = (byte) FLOAT64;
+            putLong(size, Double.doubleToLongBits(((Number) value).doubleValue()));
+            size += 8;
+        } else if (value instanceof Boolean) {
+            write((Boolean) value ? TRUE : FALSE);
+        } else {
+            value(String.valueOf(value));
+        }
+    }
+
+    @Override
+    void beginString() {
+        stringStart = size;
+        reserveHeader();
+    }
+
+    @Override
+    void append(String part) {
+        writeUtf8(part);
+    }
+
+    @Override
+    void append(char c) {
+        if (c < 0x80) {
+            write(c);
+        } else {
+            writeUtf8(String.valueOf(c));
+        }
+    }
+
+    @Override
+    void endString() {
+        int start = stringStart;
+        int length = size - start - MAX_HEADER_LENGTH;
+        writeStringHeader(start, length);
+    }
+
+    /**
+     * Splices in members that are preceded by their number, as two bytes, the way {@link #toMembers()} writes them.
+     */
+    @Override
+    void members(byte[] members) {
+        int entries = ((members[0] & 0xFF) << 8) | (members[1] & 0xFF);
+        if (entries == 0) {
+            return;
+        }
+        addEntries(entries);
+        writeBytes(members, 2, members.length - 2);
+    }
+
+    @Override
+    byte[] toMembers() {
+        byte[] members = new byte[size + 2];
+        members[0] = (byte) (topLevelSize >>> 8);
+        members[1] = (byte) topLevelSize;
+        System.arraycopy(buffer, 0, members, 2, size);
+        return members;
+    }
+
+    @Override
+    public String toString() {
+        JsonWriter jsonWriter = new JsonWriter(size * 2);
+        Object document = MessagePackReader.read(toByteArray());
+        if (document instanceof Map) {
+            jsonWriter.value((Map<?, ?>) document);
+        } else {
+            jsonWriter.value(document);
+        }
+        return jsonWriter.toString();
+    }
+
+    private void addEntries(int entries) {
+        if (depth == 0) {
+            topLevelSize += entries;
+        } else {
+            objectSizes[depth - 1] += entries;
+        }
+    }
+
+    private void writeString(String s) {
+        int length = utf8Length(s);
+        int start = size;
+        ensureCapacity(size + MAX_HEADER_LENGTH + length);
+        size += headerLength(length);
+        writeUtf8(s);
+        writeStringHeader(start, length);
+    }
+
+    /**
+     * Writes the header of a string of {@code length} bytes that starts at {@code start}, followed by its content, which
+     * must follow a header of either {@link #headerLength(int)} or {@link #MAX_HEADER_LENGTH} bytes.
+     */
+    private void writeStringHeader(int start, int length) {
+        int headerLength = headerLength(length);
+        if (size - start - length != headerLength) {
+            compactHeader(start, headerLength);
+        }
+        if (headerLength == 1) {
+            buffer[start] = (byte) (FIXSTR | length);
+        } else if (headerLength == 2) {
+            buffer[start] = (byte) STR8;
+            buffer[start + 1] = (byte) length;
+        } else if (headerLength == 3) {
+            buffer[start] = (byte) STR16;
+            putShort(start + 1, length);
+        } else {
+            buffer[start] = (byte) STR32;
+            putInt(start + 1, length);
+        }
+    }
+
+    private static int headerLength(int stringLength) {
+        if (stringLength <= 31) {
+            return 1;
+        } else if (stringLength <= 0xFF) {
+            return 2;
+        } else if (stringLength <= 0xFFFF) {
+            return 3;
+        }
+        return MAX_HEADER_LENGTH;
+    }
+
+    private void reserveHeader() {
+        ensureCapacity(size + MAX_HEADER_LENGTH);
+        size += MAX_HEADER_LENGTH;
+    }
+
+    /**
+     * Moves the content following a header reserved at {@code start} with {@link #reserveHeader()} back, so that it
+     * follows a header of {@code headerLength} bytes instead.
+     */
+    private void compactHeader(int start, int headerLength) {
+        int contentStart = start + MAX_HEADER_LENGTH;
+        System.arraycopy(buffer, contentStart, buffer, start + headerLength, size - contentStart);
+        size -= MAX_HEADER_LENGTH - headerLength;
+    }
+
+    private static int utf8Length(String s) {
+        int length = s.length();
+        int utf8Length = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    utf8Length += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // 4 bytes for the pair
+                    utf8Length += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    utf8Length += 2;
+                }
+            }
+        }
+        return utf8Length;
+    }
+
+    private void writeUtf8(String s) {
+        int length = s.length();
+        ensureCapacity(size + length * 3);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate; replace it the same way String.getBytes(UTF_8) would
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void putShort(int offset, int value) {
+        buffer[offset] = (byte) (value >>> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    private void putInt(int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private void putLong(int offset, long value) {
+        putInt(offset, (int) (value >>> 32));
+        putInt(offset + 4, (int) value);
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded LRU cache of rendered stack traces, keyed by a fingerprint of the exception classes and stack frames of a
+ * throwable and its causes. Messages are not part of the fingerprint, so the same failure with different messages
+ * shares a fingerprint; the cached rendering is only reused when the messages are the same too.
+ */
+final class StackTraceCache {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Bounds how far causes and suppressed exceptions are followed; cycles are cut short by remembering the ones seen.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * Mixed in where a throwable already seen comes up again, as StackTraceWriter writes a circular reference.
+     */
+    private static final int CIRCULAR_REFERENCE = 0x5eed;
+
+    private final int maxSize;
+    private final Map<Long, Entry> entries;
+
+    StackTraceCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LruMap(maxSize);
+    }
+
+    /**
+     * @return the cached entry for the fingerprint, or a new one (which is cached unless the cache is disabled)
+     */
+    Entry get(long fingerprint) {
+        if (maxSize <= 0) {
+            return new Entry(fingerprint);
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(fingerprint);
+            if (entry == null) {
+                entry = new Entry(fingerprint);
+                entries.put(fingerprint, entry);
+            }
+            return entry;
+        }
+    }
+
+    static long fingerprint(Throwable throwable) {
+        return fingerprint(FNV_OFFSET_BASIS, throwable, 0, newDejaVu());
+    }
+
+    private static long fingerprint(long hash, Throwable throwable, int depth, Set<Throwable> dejaVu) {
+        if (throwable == null || depth > MAX_DEPTH) {
+            return hash;
+        }
+        if (!dejaVu.add(throwable)) {
+            return mix(hash, CIRCULAR_REFERENCE);
+        }
+        hash = mix(hash, throwable.getClass().getName().hashCode());
+        for (StackTraceElement element : throwable.getStackTrace()) {
+            hash = mix(hash, element.getClassName().hashCode());
+            hash = mix(hash, element.getMethodName().hashCode());
+            hash = mix(hash, element.getLineNumber());
+        }
+        for (Throwable suppressed : throwable.getSuppressed()) {
+            hash = fingerprint(hash, suppressed, depth + 1, dejaVu);
+        }
+        return fingerprint(hash, throwable.getCause(), depth + 1, dejaVu);
+    }
+
+    static long messagesHash(Throwable throwable) {
+        return messagesHash(FNV_OFFSET_BASIS, throwable, 0, newDejaVu());
+    }
+
+    private static long messagesHash(long hash, Throwable throwable, int depth, Set<Throwable> dejaVu) {
+        if (throwable == null || depth > MAX_DEPTH) {
+            return hash;
+        }
+        if (!dejaVu.add(throwable)) {
+            return mix(hash, CIRCULAR_REFERENCE);
+        }
+        String message = throwable.getLocalizedMessage();
+        hash = mix(hash, message == null ? 0 : message.hashCode());
+        for (Throwable suppressed : throwable.getSuppressed()) {
+            hash = messagesHash(hash, suppressed, depth + 1, dejaVu);
+        }
+        return messagesHash(hash, throwable.getCause(), depth + 1, dejaVu);
+    }
+
+    private static Set<Throwable> newDejaVu() {
+        return Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    private static final class LruMap extends LinkedHashMap<Long, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > maxSize;
+        }
+
+    }
+
+    static final class Entry {
+
+        private final String fingerprint;
+        private long messagesHash;
+        private byte[] stackTrace;
+        private boolean fullStackTraceWritten;
+        private long fullStackTraceTimeStamp;
+
+        Entry(long fingerprint) {
+            String hex = Long.toHexString(fingerprint);
+            this.fingerprint = "0000000000000000".substring(hex.length()) + hex;
+        }
+
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return the stack trace rendered for the same messages as JSON string bytes, or null if there is none
+         */
+        synchronized byte[] getStackTrace(long messagesHash) {
+            return stackTrace != null && this.messagesHash == messagesHash ? stackTrace : null;
+        }
+
+        synchronized void setStackTrace(long messagesHash, byte[] stackTrace) {
+            this.messagesHash = messagesHash;
+            this.stackTrace = stackTrace;
+        }
+
+        /**
+         * @return whether an event at {@code timeStamp} should carry the full stack trace because none was written
+         * within the preceding {@code window} milliseconds; if so that event starts a new window
+         */
+        synchronized boolean isFullStackTraceDue(long timeStamp, long window) {
+            if (fullStackTraceWritten && timeStamp - fullStackTraceTimeStamp < window
+                    && timeStamp >= fullStackTraceTimeStamp) {
+                return false;
+            }
+            fullStackTraceWritten = true;
+            fullStackTraceTimeStamp = timeStamp;
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the stack trace of a throwable as a string value straight into a {@link DocumentWriter}, in the format of
+ * {@link Throwable#printStackTrace()}, so that the text is never built in full as a {@link String}. The number of
+ * frames written per throwable and the depth of nested causes and suppressed exceptions can be limited, and frames of
+ * excluded packages can be collapsed; with none of that configured the text is the same as log4j renders by default.
+ * <p/>
+ * Instances are immutable and thread-safe.
+ */
+final class StackTraceWriter {
+
+    static final int UNLIMITED = -1;
+
+    private static final String CAUSE_CAPTION = "Caused by: ";
+    private static final String SUPPRESSED_CAPTION = "Suppressed: ";
+
+    private final int maxFrames;
+    private final int maxDepth;
+    private final String[] excludedPackages;
+
+    /**
+     * @param maxFrames the most frames written per throwable, or {@link #UNLIMITED}
+     * @param maxDepth the most levels of nested causes and suppressed exceptions written, or {@link #UNLIMITED}
+     * @param excludedPackages comma-separated class name prefixes of frames to leave out, or null
+     */
+    StackTraceWriter(int maxFrames, int maxDepth, String excludedPackages) {
+        this.maxFrames = maxFrames;
+        this.maxDepth = maxDepth;
+        this.excludedPackages = parseExcludedPackages(excludedPackages);
+    }
+
+    void write(DocumentWriter writer, Throwable throwable) {
+        Set<Throwable> dejaVu = Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+        dejaVu.add(throwable);
+
+        writer.beginString();
+        writer.append(throwable.toString());
+        writer.append('\n');
+        StackTraceElement[] trace = throwable.getStackTrace();
+        writeFrames(writer, "", trace, trace.length);
+        writeNested(writer, throwable, trace, "", 0, dejaVu);
+        writer.endString();
+    }
+
+    private void writeNested(DocumentWriter writer, Throwable throwable, StackTraceElement[] trace, String prefix,
+                             int depth, Set<Throwable> dejaVu) {
+        for (Throwable suppressed : throwable.getSuppressed()) {
+            writeEnclosed(writer, suppressed, trace, SUPPRESSED_CAPTION, prefix + "\t", depth + 1, dejaVu);
+        }
+        Throwable cause = throwable.getCause();
+        if (cause != null) {
+            writeEnclosed(writer, cause, trace, CAUSE_CAPTION, prefix, depth + 1, dejaVu);
+        }
+    }
+
+    private void writeEnclosed(DocumentWriter writer, Throwable throwable, StackTraceElement[] enclosingTrace,
+                               String caption, String prefix, int depth, Set<Throwable> dejaVu) {
+        writer.append(prefix);
+        writer.append(caption);
+        if (!dejaVu.add(throwable)) {
+            writer.append("[CIRCULAR REFERENCE: ");
+            writer.append(throwable.toString());
+            writer.append("]\n");
+            return;
+        }
+        if (maxDepth != UNLIMITED && depth > maxDepth) {
+            writer.append("...\n");
+            return;
+        }
+        writer.append(throwable.toString());
+        writer.append('\n');
+
+        StackTraceElement[] trace = throwable.getStackTrace();
+        int m = trace.length - 1;
+        int n = enclosingTrace.length - 1;
+        while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+            m--;
+            n--;
+        }
+        writeFrames(writer, prefix, trace, m + 1);
+        int framesInCommon = trace.length - 1 - m;
+        if (framesInCommon != 0) {
+            writeOmitted(writer, prefix, framesInCommon, " more");
+        }
+
+        writeNested(writer, throwable, trace, prefix, depth, dejaVu);
+    }
+
+    private void writeFrames(DocumentWriter writer, String prefix, StackTraceElement[] trace, int count) {
+        int written = 0;
+        int excluded = 0;
+        for (int i = 0; i < count; i++) {
+            StackTraceElement element = trace[i];
+            if (isExcluded(element)) {
+                excluded++;
+                continue;
+            }
+            if (excluded > 0) {
+                writeOmitted(writer, prefix, excluded, " frames filtered");
+                excluded = 0;
+            }
+            if (maxFrames != UNLIMITED && written == maxFrames) {
+                writeOmitted(writer, prefix, count - i, " frames truncated");
+                return;
+            }
+            writeFrame(writer, prefix, element);
+            written++;
+        }
+        if (excluded > 0) {
+            writeOmitted(writer, prefix, excluded, " frames filtered");
+        }
+    }
+
+    /**
+     * Writes the frame the way {@link StackTraceElement#toString()} formats it, without creating that string.
+     */
+    private static void writeFrame(DocumentWriter writer, String prefix, StackTraceElement element) {
+        writer.append(prefix);
+        writer.append("\tat ");
+        writer.append(element.getClassName());
+        writer.append('.');
+        writer.append(element.getMethodName());
+        String fileName = element.getFileName();
+        if (element.isNativeMethod()) {
+            writer.append("(Native Method)");
+        } else if (fileName == null) {
+            writer.append("(Unknown Source)");
+        } else {
+            writer.append('(');
+            writer.append(fileName);
+            if (element.getLineNumber() >= 0) {
+                writer.append(':');
+                writer.append(element.getLineNumber());
+            }
+            writer.append(')');
+        }
+        writer.append('\n');
+    }
+
+    private static void writeOmitted(DocumentWriter writer, String prefix, int count, String what) {
+        writer.append(prefix);
+        writer.append("\t... ");
+        writer.append(count);
+        writer.append(what);
+        writer.append('\n');
+    }
+
+    private boolean isExcluded(StackTraceElement element) {
+        if (excludedPackages.length == 0) {
+            return false;
+        }
+        String className = element.getClassName();
+        for (String excludedPackage : excludedPackages) {
+            if (className.startsWith(excludedPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] parseExcludedPackages(String excludedPackages) {
+        List<String> parsed = new ArrayList<>();
+        if (excludedPackages != null) {
+            for (String excludedPackage : excludedPackages.split(",")) {
+                excludedPackage = excludedPackage.trim();
+                if (!excludedPackage.isEmpty()) {
+                    parsed.add(excludedPackage);
+                }
+            }
+        }
+        return parsed.toArray(new String[parsed.size()]);
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Expands the list elements pushed by an appender configured with a {@link BatchCompression} back into the events
+ * they hold, for consumers that pop them from Redis themselves.
+ */
+public final class BatchEnvelopeReader {
+
+    private BatchEnvelopeReader() {
+    }
+
+    /**
+     * @return whether the list element is a batch envelope rather than a single event
+     */
+    public static boolean isEnvelope(byte[] element) {
+        return element.length >= BatchEnvelopeWriter.HEADER_LENGTH
+                && element[0] == BatchEnvelopeWriter.MAGIC[0] && element[1] == BatchEnvelopeWriter.MAGIC[1];
+    }
+
+    /**
+     * @return the encoded events of a batch envelope, in the order they were logged; any other list element is
+     * returned as the single event it is
+     * @throws IOException if the envelope is truncated, corrupt or uses an unknown codec
+     */
+    public static List<byte[]> read(byte[] element) throws IOException {
+        if (!isEnvelope(element)) {
+            return Collections.singletonList(element);
+        }
+        BatchCompression compression = BatchCompression.forId(element[BatchEnvelopeWriter.MAGIC.length] & 0xFF);
+        int count = ((element[3] & 0xFF) << 24) | ((element[4] & 0xFF) << 16)
+                | ((element[5] & 0xFF) << 8) | (element[6] & 0xFF);
+        if (count < 0) {
+            throw new IOException("Invalid batch envelope record count " + count);
+        }
+
+        InputStream compressed = new ByteArrayInputStream(element, BatchEnvelopeWriter.HEADER_LENGTH,
+                element.length - BatchEnvelopeWriter.HEADER_LENGTH);
+        try (DataInputStream in = new DataInputStream(compression.decompress(compressed))) {
+            List<byte[]> records = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid batch envelope record length " + length);
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                records.add(record);
+            }
+            if (in.read() != -1) {
+                throw new IOException("Batch envelope holds more than " + count + " records");
+            }
+            return records;
+        }
+    }
+
+}
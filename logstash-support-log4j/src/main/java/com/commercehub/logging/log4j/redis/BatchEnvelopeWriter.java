@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Packs a batch of encoded events into one compressed envelope:
+ * <pre>
+ *   magic (0xEB 0x1E) | codec id (1 byte) | record count (4 bytes) | compressed records
+ * </pre>
+ * where each record is its length (4 bytes) followed by its bytes, and all integers are big-endian. The magic is not
+ * valid UTF-8 and does not start a MessagePack map, so an envelope can't be mistaken for a single event.
+ * <p>
+ * The deflater and buffers are reused from batch to batch, so instances are not thread-safe.
+ */
+final class BatchEnvelopeWriter {
+
+    static final byte[] MAGIC = {(byte) 0xEB, 0x1E};
+    static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+
+    private static final int INITIAL_CAPACITY = 8192;
+    private static final byte[] GZIP_HEADER = {0x1F, (byte) 0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xFF};
+
+    private final BatchCompression compression;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+
+    private byte[] input = new byte[INITIAL_CAPACITY];
+    private byte[] output = new byte[INITIAL_CAPACITY];
+
+    BatchEnvelopeWriter(BatchCompression compression) {
+        if (compression != BatchCompression.GZIP) {
+            throw new IllegalArgumentException("Unsupported batch compression " + compression);
+        }
+        this.compression = compression;
+    }
+
+    /**
+     * @return an envelope holding the first {@code count} records
+     */
+    byte[] write(byte[][] records, int count) {
+        int inputSize = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] record = records[i];
+            input = ensureCapacity(input, inputSize + 4 + record.length);
+            putInt(input, inputSize, record.length);
+            System.arraycopy(record, 0, input, inputSize + 4, record.length);
+            inputSize += 4 + record.length;
+        }
+
+        System.arraycopy(MAGIC, 0, output, 0, MAGIC.length);
+        output[MAGIC.length] = (byte) compression.getId();
+        putInt(output, MAGIC.length + 1, count);
+        System.arraycopy(GZIP_HEADER, 0, output, HEADER_LENGTH, GZIP_HEADER.length);
+        int outputSize = HEADER_LENGTH + GZIP_HEADER.length;
+
+        deflater.reset();
+        deflater.setInput(input, 0, inputSize);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (outputSize == output.length) {
+                output = ensureCapacity(output, outputSize + 1);
+            }
+            outputSize += deflater.deflate(output, outputSize, output.length - outputSize);
+        }
+
+        crc.reset();
+        crc.update(input, 0, inputSize);
+        output = ensureCapacity(output, outputSize + 8);
+        putIntLittleEndian(output, outputSize, (int) crc.getValue());
+        putIntLittleEndian(output, outputSize + 4, inputSize);
+        outputSize += 8;
+
+        return Arrays.copyOf(output, outputSize);
+    }
+
+    /**
+     * Releases the native resources of the deflater; the writer can't be used afterwards.
+     */
+    void close() {
+        deflater.end();
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int capacity) {
+        if (capacity <= buffer.length) {
+            return buffer;
+        }
+        return Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static void putIntLittleEndian(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+
+}
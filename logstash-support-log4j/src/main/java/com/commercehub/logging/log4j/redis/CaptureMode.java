@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+/**
+ * How much of an event {@link PooledRedisAppender} captures on the logging thread before queueing it.
+ */
+public enum CaptureMode {
+
+    /**
+     * Everything is captured on the logging thread, including the rendered message; the stack trace is only rendered
+     * there if the logger repository has a throwable renderer, and is otherwise written from the throwable when the
+     * event is encoded.
+     */
+    EAGER,
+
+    /**
+     * Only what is bound to the logging thread is captured there: its name, the NDC and a copy of the MDC. The
+     * message and the stack trace are rendered when the event is encoded, so a message object or exception that is
+     * changed after it was logged is sent as it is then, and the byte budget goes by a rougher estimate of their size.
+     */
+    DEFERRED
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Encodes events on a number of worker threads ahead of the sender. Each worker has its own input queue, and every
+ * producer thread always feeds the same one, so the events of a producer come out in the order it logged them even
+ * though workers run in parallel. Encoded events from all workers meet in a single output queue for the sender.
+ */
+final class EncodingStage {
+
+    private static final long OUTPUT_FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * What the stage needs from its appender.
+     */
+    interface Callback {
+
+        byte[] encode(LoggingEvent event) throws Exception;
+
+        /**
+         * Called on the worker thread once an event was encoded, before it is handed to the sender.
+         */
+        void encoded(LoggingEvent event, byte[] encoded);
+
+        void encodingFailed(LoggingEvent event, Exception e);
+
+        /**
+         * Called on the worker thread if the stage was stopped while an encoded event still waited for room in the
+         * output queue.
+         */
+        void encodedDropped(LoggingEvent event, byte[] encoded);
+
+        /**
+         * Called on the worker thread whenever it added to the output queue.
+         */
+        void outputAvailable();
+
+    }
+
+    private final Worker[] workers;
+    private final RingBuffer<byte[]> output;
+    private final Callback callback;
+
+    EncodingStage(int threads, int queueSize, Callback callback, ThreadFactory threadFactory) {
+        this.callback = callback;
+        this.output = new RingBuffer<>(queueSize);
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(new RingBuffer<LoggingEvent>(queueSize));
+            workers[i].thread = threadFactory.newThread(workers[i]);
+        }
+    }
+
+    void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    void stop() {
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+    }
+
+    /**
+     * @return the queue the producer's events go to; it's always the same for a given thread
+     */
+    RingBuffer<LoggingEvent> queueFor(Thread producer) {
+        return workerFor(producer).input;
+    }
+
+    /**
+     * Wakes the worker of the producer's queue after the producer added to it.
+     */
+    void signal(Thread producer) {
+        Worker worker = workerFor(producer);
+        if (!worker.signalled.get() && worker.signalled.compareAndSet(false, true)) {
+            LockSupport.unpark(worker.thread);
+        }
+    }
+
+    private Worker workerFor(Thread producer) {
+        return workers[(int) (producer.getId() % workers.length)];
+    }
+
+    /**
+     * @return the next encoded event, or null if there is none yet
+     */
+    byte[] poll() {
+        return output.poll();
+    }
+
+    int encodedCount() {
+        return output.size();
+    }
+
+    /**
+     * @return an event still waiting to be encoded, or null if there is none; for giving up on queued events
+     */
+    LoggingEvent pollUnencoded() {
+        for (Worker worker : workers) {
+            LoggingEvent event = worker.input.poll();
+            if (event != null) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    private final class Worker implements Runnable {
+
+        private final RingBuffer<LoggingEvent> input;
+        private final AtomicBoolean signalled = new AtomicBoolean();
+        private Thread thread;
+
+        Worker(RingBuffer<LoggingEvent> input) {
+            this.input = input;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                LoggingEvent event = input.poll();
+                if (event == null) {
+                    // cleared before looking again, so an event queued from here on wakes us up
+                    signalled.set(false);
+                    event = input.poll();
+                    if (event == null) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                }
+
+                byte[] encoded;
+                try {
+                    encoded = callback.encode(event);
+                } catch (Exception e) {
+                    callback.encodingFailed(event, e);
+                    continue;
+                }
+                callback.encoded(event, encoded);
+                while (!output.offer(encoded)) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        // stopped; the sender may already be gone, so nothing is bound to make room any more
+                        callback.encodedDropped(event, encoded);
+                        return;
+                    }
+                    // the sender is behind; wait for it rather than let encoded events pile up
+                    callback.outputAvailable();
+                    LockSupport.parkNanos(this, OUTPUT_FULL_PARK_NANOS);
+                }
+                callback.outputAvailable();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+/**
+ * When {@link PooledRedisAppender} sends what it has queued.
+ */
+public enum FlushMode {
+
+    /**
+     * The sender thread sleeps until events arrive, then sends as soon as a batch fills or, at the latest, once the
+     * first of them has waited the max linger time. Partial batches are always sent, so {@code alwaysBatch} and
+     * {@code period} don't apply.
+     */
+    LINGER,
+
+    /**
+     * The queue is drained every {@code period} milliseconds, and partial batches are only sent if
+     * {@code alwaysBatch} is off; this is how the appender always used to work.
+     */
+    PERIODIC
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+/**
+ * What {@link PooledRedisAppender} does with an event when its queue is full. Every event given up is counted in
+ * {@link PooledRedisAppender#getDroppedEventCount()}.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Discard the event being appended, keeping the ones already queued.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Discard the oldest queued event to make room for the one being appended.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Make the logging thread wait up to the block timeout for room, then discard the event being appended.
+     */
+    BLOCK
+
+}
@@ -17,43 +17,132 @@
 
 package com.commercehub.logging.log4j.redis;
 
+import com.commercehub.logging.log4j.LoggingEventEncoder;
 import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggerRepository;
 import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+import org.apache.log4j.spi.ThrowableRendererSupport;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.util.SafeEncoder;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Queue;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class PooledRedisAppender extends AppenderSkeleton implements Runnable {
 
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Roughly what an event costs beyond its message and stack trace: the fixed fields, MDC and the object itself.
+     */
+    private static final int EVENT_OVERHEAD_BYTES = 256;
+
+    /**
+     * What an unrendered message that isn't a String is assumed to take in {@link CaptureMode#DEFERRED} capture mode,
+     * and what each throwable in a chain of causes is assumed to take in either mode.
+     */
+    private static final int UNRENDERED_MESSAGE_BYTES = 256;
+    private static final int UNRENDERED_THROWABLE_BYTES = 4096;
+    private static final int MAX_CAUSE_DEPTH = 64;
+
+    private static final long REPLAY_INTERVAL_MILLIS = 100;
+
     private JedisPoolConfig jedisPoolConfig;
     private JedisPool jedisPool;
+    private DedicatedConnection connection;
+    private RespClient respClient;
 
     private String host = "localhost";
     private int port = 6379;
     private String password;
     private String key;
+    private byte[] keyBytes;
 
     private int batchSize = 100;
     private long period = 500;
     private boolean alwaysBatch = true;
     private boolean purgeOnFailure = true;
     private boolean daemonThread = true;
+    private BatchCompression compression = BatchCompression.NONE;
+    private int queueSize = 8192;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private long blockTimeout = 100;
+    private long maxQueueBytes = 32 * 1024 * 1024;
+    private long maxBatchBytes = 1024 * 1024;
+    private FlushMode flushMode = FlushMode.LINGER;
+    private long maxLinger = 50;
+    private int maxBatchesInFlight = 1;
+    private int encoderThreads = 0;
+    private boolean priorityLanes = false;
+    private CaptureMode captureMode = CaptureMode.EAGER;
+    private boolean sharedEngine = false;
+    private ConnectionMode connectionMode = ConnectionMode.POOLED;
+    private Transport transport = Transport.JEDIS;
+    private long probeInterval = 5000;
+    private String spillDirectory;
+    private long spillMaxBytes = 256 * 1024 * 1024;
+    private int spillReplayRate = 20;
+    private long initialBackoff = 100;
+    private long maxBackoff = 30000;
 
     private int messageIndex = 0;
-    private Queue<LoggingEvent> events;
+    private RingBuffer<LoggingEvent> events;
+    private PriorityLanes lanes;
+    private EncodingStage encodingStage;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private boolean deferredCapture;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLong> droppedEventsByLevel = new ConcurrentHashMap<>();
+    private long reportedDroppedEvents;
     private byte[][] batch;
+    private long batchBytes;
+    private BatchEnvelopeWriter envelopeWriter;
+
+    private Jedis pipelineJedis;
+    private Pipeline pipeline;
+    private final List<Response<Long>> inFlightReplies = new ArrayList<>();
+    private final List<Integer> inFlightEventCounts = new ArrayList<>();
+    private final List<byte[][]> inFlightPayloads = new ArrayList<>();
+
+    private SpillJournal spillJournal;
+    private ScheduledExecutorService replayExecutor;
+    private Future<?> replayTask;
+    private CircuitBreaker circuitBreaker;
 
     private ScheduledExecutorService executor;
-    private ScheduledFuture<?> task;
+    private Future<?> task;
+    private volatile Thread senderThread;
+    private volatile RedisEngine engine;
+    private final Object sendLock = new Object();
+    private volatile boolean stopped;
+    private final Runnable sharedSend = new Runnable() {
+        @Override
+        public void run() {
+            sendShared();
+        }
+    };
+    private final AtomicBoolean senderSignalled = new AtomicBoolean();
 
     @Override
     public void activateOptions() {
@@ -61,23 +150,145 @@ public class PooledRedisAppender extends AppenderSkeleton implements Runnable {
             super.activateOptions();
 
             if (key == null) throw new IllegalStateException("Must set 'key'");
+            keyBytes = SafeEncoder.encode(key);
+            if (sharedEngine && (connectionMode == ConnectionMode.DEDICATED || transport == Transport.NIO)) {
+                throw new IllegalStateException(
+                        "Can't set 'sharedEngine' with a dedicated 'connectionMode' or the nio 'transport'");
+            }
 
-            if (executor == null) executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("RedisAppender", daemonThread));
+            if (!sharedEngine && executor == null) executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("RedisAppender", daemonThread));
 
             if (task != null && !task.isDone()) task.cancel(true);
 
-            reInitializeJedisPool();
+            if (encodingStage != null) encodingStage.stop();
+
+            releaseEngine();
+            closeConnection();
+            if (sharedEngine) {
+                if (jedisPoolConfig == null) {
+                    jedisPoolConfig = new JedisPoolConfig();
+                }
+                engine = RedisEngine.acquire(host, port, Protocol.DEFAULT_TIMEOUT, password, jedisPoolConfig);
+                jedisPool = engine.getPool();
+            } else if (transport == Transport.NIO) {
+                if (jedisPool != null) jedisPool.destroy();
+                jedisPool = null;
+                if (maxBatchesInFlight > 1) {
+                    LogLog.warn("The NIO transport waits for each batch's reply before sending the next");
+                }
+                respClient = new RespClient(host, port, Protocol.DEFAULT_TIMEOUT, password);
+            } else if (connectionMode == ConnectionMode.DEDICATED) {
+                if (jedisPool != null) jedisPool.destroy();
+                jedisPool = null;
+                connection = new DedicatedConnection(host, port, Protocol.DEFAULT_TIMEOUT, password, probeInterval,
+                        new NamedThreadFactory("RedisAppender-Prober", daemonThread));
+            } else {
+                reInitializeJedisPool();
+            }
+            stopped = false;
 
-            events = new ConcurrentLinkedQueue<>();
+            queuedBytes.set(0);
+            deferredCapture = captureMode == CaptureMode.DEFERRED;
+            events = null;
+            lanes = null;
+            encodingStage = null;
+            if (encoderThreads > 0) {
+                if (priorityLanes) {
+                    LogLog.warn("Priority lanes aren't supported with encoder threads; each encoder keeps a single queue");
+                }
+                encodingStage = new EncodingStage(encoderThreads, queueSize, new EncoderCallback(),
+                        new NamedThreadFactory("RedisAppender-Encoder", daemonThread));
+                encodingStage.start();
+            } else if (priorityLanes) {
+                lanes = new PriorityLanes(queueSize);
+            } else {
+                events = new RingBuffer<>(queueSize);
+            }
             batch = new byte[batchSize][];
             messageIndex = 0;
+            batchBytes = 0;
+            if (envelopeWriter != null) envelopeWriter.close();
+            envelopeWriter = compression == BatchCompression.NONE ? null : new BatchEnvelopeWriter(compression);
 
-            task = executor.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+            circuitBreaker = new CircuitBreaker(initialBackoff, maxBackoff);
+            initializeSpillJournal();
+
+            if (flushMode == FlushMode.LINGER && engine != null) {
+                // sends are scheduled on the engine as events arrive
+                task = null;
+                senderSignalled.set(false);
+            } else if (flushMode == FlushMode.LINGER) {
+                task = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendUntilInterrupted();
+                    }
+                });
+            } else {
+                task = scheduler().scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+            }
         } catch (Exception e) {
             LogLog.error("Error during activateOptions", e);
         }
     }
 
+    private void initializeSpillJournal() throws IOException {
+        stopReplaying();
+        if (spillJournal != null) spillJournal.close();
+        spillJournal = null;
+        if (spillDirectory == null) {
+            return;
+        }
+
+        spillJournal = new SpillJournal(new File(spillDirectory), spillMaxBytes, SpillJournal.DEFAULT_SEGMENT_BYTES);
+        ScheduledExecutorService replayScheduler;
+        if (engine != null) {
+            replayScheduler = engine.getScheduler();
+        } else {
+            replayScheduler = replayExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("RedisAppender-Replayer", daemonThread));
+        }
+        replayTask = replayScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                replaySpilled();
+            }
+        }, REPLAY_INTERVAL_MILLIS, REPLAY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopReplaying() {
+        if (replayTask != null) replayTask.cancel(false);
+        if (replayExecutor != null) replayExecutor.shutdownNow();
+        replayTask = null;
+        replayExecutor = null;
+    }
+
+    /**
+     * @return where the appender's own tasks run: the shared engine's threads, or its own
+     */
+    private ScheduledExecutorService scheduler() {
+        return engine != null ? engine.getScheduler() : executor;
+    }
+
+    private void releaseEngine() {
+        if (engine != null) {
+            engine.release();
+            engine = null;
+            // the pool was the engine's, which isn't ours to destroy
+            jedisPool = null;
+        }
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        if (respClient != null) {
+            respClient.close();
+            respClient = null;
+        }
+    }
+
     private void reInitializeJedisPool() {
         if (jedisPool != null) {
             jedisPool.destroy();
@@ -89,30 +300,317 @@ public class PooledRedisAppender extends AppenderSkeleton implements Runnable {
         jedisPool = new JedisPool(jedisPoolConfig, host, port, Protocol.DEFAULT_TIMEOUT, password);
     }
 
+    /**
+     * Does what {@link AppenderSkeleton#doAppend} does without holding the appender's monitor, so that logging threads
+     * don't take turns: appending only populates the event and offers it to a lock-free queue. The threshold and
+     * filters are read as they were configured; changing them while events are being appended is not supported.
+     */
+    @Override
+    public void doAppend(LoggingEvent event) {
+        if (closed) {
+            LogLog.error("Attempted to append to closed appender named [" + name + "].");
+            return;
+        }
+        if (!isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+        for (Filter filter = headFilter; filter != null; filter = filter.getNext()) {
+            int decision = filter.decide(event);
+            if (decision == Filter.DENY) {
+                return;
+            }
+            if (decision == Filter.ACCEPT) {
+                break;
+            }
+        }
+        append(event);
+    }
+
     @Override
     protected void append(LoggingEvent event) {
         try {
             populateEvent(event);
-            events.add(event);
+            if (encodingStage != null) {
+                enqueue(event, encodingStage.queueFor(Thread.currentThread()));
+                encodingStage.signal(Thread.currentThread());
+            } else {
+                enqueue(event, lanes != null ? lanes.laneFor(event) : events);
+                signalSender();
+            }
         } catch (Exception e) {
             errorHandler.error("Error populating event and adding to queue", e, ErrorCode.GENERIC_FAILURE, event);
         }
     }
 
+    private void enqueue(LoggingEvent event, RingBuffer<LoggingEvent> queue) {
+        int size = sizeOf(event);
+        if (offer(event, size, queue)) {
+            return;
+        }
+        if (lanes != null && shedLessSevere(event, size, queue)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!offer(event, size, queue)) {
+                    LoggingEvent oldest = queue.poll();
+                    if (oldest == null) {
+                        if (offer(event, size, queue)) {
+                            return;
+                        }
+                        // the byte budget is taken up by the events of other queues, which aren't ours to drop
+                        dropped(event);
+                        return;
+                    }
+                    queuedBytes.addAndGet(-sizeOf(oldest));
+                    dropped(oldest);
+                }
+                return;
+            case BLOCK:
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+                while (System.nanoTime() - deadline < 0) {
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    if (offer(event, size, queue)) {
+                        return;
+                    }
+                }
+                dropped(event);
+                return;
+            default:
+                dropped(event);
+        }
+    }
+
+    /**
+     * Makes room in the byte budget by dropping the oldest queued events of lower severities, least severe first. The
+     * event's own lane being full isn't helped by that, so it is left to the overflow policy.
+     */
+    private boolean shedLessSevere(LoggingEvent event, int size, RingBuffer<LoggingEvent> queue) {
+        if (queue.size() >= queue.capacity()) {
+            return false;
+        }
+        LoggingEvent shed;
+        while ((shed = lanes.pollLessSevere(event.getLevel())) != null) {
+            queuedBytes.addAndGet(-sizeOf(shed));
+            dropped(shed);
+            if (offer(event, size, queue)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dropped(LoggingEvent event) {
+        droppedEvents.incrementAndGet();
+        Level level = event.getLevel();
+        if (level == null) {
+            return;
+        }
+        AtomicLong count = droppedEventsByLevel.get(level.toInt());
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = droppedEventsByLevel.putIfAbsent(level.toInt(), newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Wakes the sender thread when the first event arrives, so that its linger time starts, and when a batch fills.
+     * Missing a wake-up when concurrent appends push the queue past the batch size only costs the linger time.
+     */
+    private void signalSender() {
+        if (engine != null && flushMode == FlushMode.LINGER) {
+            signalSharedSender();
+            return;
+        }
+        Thread sender = senderThread;
+        if (sender == null) {
+            return;
+        }
+        if (!senderSignalled.get() && senderSignalled.compareAndSet(false, true)) {
+            LockSupport.unpark(sender);
+        } else if (readyCount() == batchSize) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    /**
+     * Does for an appender on a shared engine what waking the sender thread does: the first event schedules a send
+     * after the linger time, and a full batch one right away.
+     */
+    private void signalSharedSender() {
+        if (!senderSignalled.get() && senderSignalled.compareAndSet(false, true)) {
+            scheduleSharedSend(maxLinger);
+        } else if (readyCount() == batchSize) {
+            scheduleSharedSend(0);
+        }
+    }
+
+    private void scheduleSharedSend(long delayMillis) {
+        RedisEngine current = engine;
+        if (current == null) {
+            // closed
+            return;
+        }
+        try {
+            current.getScheduler().schedule(sharedSend, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the engine was shut down as the appender was closed
+        }
+    }
+
+    /**
+     * Sends what is queued on one of the engine's threads. Sends of the same appender take turns, so that the batch
+     * is only ever touched by one thread at a time.
+     */
+    private void sendShared() {
+        boolean pending;
+        synchronized (sendLock) {
+            if (stopped) {
+                return;
+            }
+            // cleared before looking at the queue, so an event queued from here on schedules another send
+            senderSignalled.set(false);
+            drain(true);
+            // Redis could not be reached and the batch was kept, or events were queued while it was sent
+            pending = messageIndex > 0 || readyCount() > 0;
+        }
+        if (pending && senderSignalled.compareAndSet(false, true)) {
+            scheduleSharedSend(maxLinger);
+        }
+    }
+
+    /**
+     * @return the number of events the sender could take right now; with an encoding stage, only the encoded ones
+     */
+    private int readyCount() {
+        if (encodingStage != null) {
+            return encodingStage.encodedCount();
+        }
+        return lanes != null ? lanes.size() : events.size();
+    }
+
+    /**
+     * Queues the event if there is both a free slot and room in the byte budget. An event is always let into an
+     * otherwise empty queue, however large it is.
+     */
+    private boolean offer(LoggingEvent event, int size, RingBuffer<LoggingEvent> queue) {
+        long queued;
+        do {
+            queued = queuedBytes.get();
+            if (queued > 0 && queued + size > maxQueueBytes) {
+                return false;
+            }
+        } while (!queuedBytes.compareAndSet(queued, queued + size));
+
+        if (queue.offer(event)) {
+            return true;
+        }
+        queuedBytes.addAndGet(-size);
+        return false;
+    }
+
+    /**
+     * @return a rough estimate of the memory a populated event holds on to, which is also about what it encodes to;
+     * it has to give the same result whenever it's called for the same event
+     */
+    static int estimateSize(LoggingEvent event) {
+        int size = EVENT_OVERHEAD_BYTES;
+        String message = event.getRenderedMessage();
+        if (message != null) {
+            size += message.length();
+        }
+        return size + estimateThrowableSize(event);
+    }
+
+    /**
+     * @return the estimated size the event is queued with, which depends on the capture mode
+     */
+    private int sizeOf(LoggingEvent event) {
+        return deferredCapture ? estimateUnrenderedSize(event) : estimateSize(event);
+    }
+
+    /**
+     * @return a rough estimate of what an event that hasn't been rendered yet encodes to, which doesn't render it; it
+     * has to give the same result whenever it's called for the same event, whether it has been rendered since or not
+     */
+    static int estimateUnrenderedSize(LoggingEvent event) {
+        int size = EVENT_OVERHEAD_BYTES;
+        Object message = event.getMessage();
+        if (message instanceof String) {
+            size += ((String) message).length();
+        } else if (message != null) {
+            size += UNRENDERED_MESSAGE_BYTES;
+        }
+        return size + estimateThrowableSize(event);
+    }
+
+    /**
+     * Goes by the number of throwables in the cause chain rather than render the stack trace, which the layout does
+     * once the event is encoded, within its own limits.
+     */
+    private static int estimateThrowableSize(LoggingEvent event) {
+        int size = 0;
+        ThrowableInformation throwableInformation = event.getThrowableInformation();
+        if (throwableInformation != null) {
+            Throwable throwable = throwableInformation.getThrowable();
+            for (int depth = 0; throwable != null && depth < MAX_CAUSE_DEPTH; depth++) {
+                size += UNRENDERED_THROWABLE_BYTES;
+                throwable = throwable.getCause();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Captures what the event needs from the logging thread before it is queued; in {@link CaptureMode#EAGER} capture
+     * mode, that includes rendering its message, and its stack trace if a throwable renderer is configured. Otherwise
+     * the stack trace is written from the throwable when the event is encoded, which the layout does anyway.
+     */
     protected void populateEvent(LoggingEvent event) {
         event.getThreadName();
-        event.getRenderedMessage();
         event.getNDC();
         event.getMDCCopy();
-        event.getThrowableStrRep();
+        if (!deferredCapture) {
+            event.getRenderedMessage();
+            if (event.getThrowableInformation() != null && hasThrowableRenderer(event)) {
+                event.getThrowableStrRep();
+            }
+        }
+    }
+
+    private static boolean hasThrowableRenderer(LoggingEvent event) {
+        Category logger = event.getLogger();
+        if (logger == null) {
+            return false;
+        }
+        LoggerRepository repository = logger.getLoggerRepository();
+        return repository instanceof ThrowableRendererSupport
+                && ((ThrowableRendererSupport) repository).getThrowableRenderer() != null;
     }
 
     @Override
     public void close() {
         try {
-            task.cancel(false);
-            executor.shutdown();
-            jedisPool.destroy();
+            stopped = true;
+            if (task != null) task.cancel(flushMode == FlushMode.LINGER);
+            if (executor != null) executor.shutdown();
+            if (encodingStage != null) encodingStage.stop();
+            stopReplaying();
+            if (engine != null) {
+                // wait for a send in progress on the engine, which is left running for the other appenders
+                synchronized (sendLock) {
+                    releaseEngine();
+                }
+            } else {
+                closeConnection();
+                if (jedisPool != null) jedisPool.destroy();
+            }
+            if (spillJournal != null) spillJournal.close();
+            if (envelopeWriter != null) envelopeWriter.close();
         } catch (Exception e) {
             errorHandler.error(e.getMessage(), e, ErrorCode.CLOSE_FAILURE);
         }
@@ -121,69 +619,442 @@ public class PooledRedisAppender extends AppenderSkeleton implements Runnable {
     private Jedis getJedisFromPool() {
         Jedis jedis = null;
         try {
-            jedis = jedisPool.getResource();
+            jedis = borrowJedis();
         } catch (JedisConnectionException e) {
-            LogLog.error("Exception getting Jedis from pool", e);
+            LogLog.error("Exception getting Jedis from pool, not trying again for " + circuitBreaker.onFailure() + " ms", e);
         }
         return jedis;
     }
 
+    /**
+     * @return the dedicated connection in {@link ConnectionMode#DEDICATED} mode, otherwise a connection from the pool
+     */
+    private Jedis borrowJedis() {
+        return connection != null ? connection.getResource() : jedisPool.getResource();
+    }
+
+    private void returnJedis(Jedis jedis) {
+        if (connection != null) {
+            connection.returnResource(jedis);
+        } else {
+            jedisPool.returnResource(jedis);
+        }
+    }
+
+    private void returnBrokenJedis(Jedis jedis) {
+        if (connection != null) {
+            connection.returnBrokenResource(jedis);
+        } else {
+            jedisPool.returnBrokenResource(jedis);
+        }
+    }
+
+    /**
+     * Drains the queue once, which is what the appender does every {@code period} in {@link FlushMode#PERIODIC} mode.
+     * In {@link FlushMode#LINGER} mode its own sender thread does the draining, or on a shared engine, the engine's.
+     */
     @Override
     public void run() {
+        synchronized (sendLock) {
+            drain(!alwaysBatch);
+        }
+    }
+
+    private void sendUntilInterrupted() {
+        senderThread = Thread.currentThread();
         try {
-            if (messageIndex == batchSize) push();
+            long lingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLinger);
+            while (!Thread.currentThread().isInterrupted()) {
+                // cleared before looking at the queue, so an event queued from here on wakes us up again
+                senderSignalled.set(false);
+                if (readyCount() == 0 && messageIndex == 0) {
+                    LockSupport.park(this);
+                    continue;
+                }
 
-            LoggingEvent event;
-            while ((event = events.poll()) != null) {
-                try {
-                    String message = layout.format(event);
-                    batch[messageIndex++] = SafeEncoder.encode(message);
-                } catch (Exception e) {
-                    errorHandler.error(e.getMessage(), e, ErrorCode.GENERIC_FAILURE, event);
+                long deadline = System.nanoTime() + lingerNanos;
+                long remaining;
+                while (readyCount() + messageIndex < batchSize && (remaining = deadline - System.nanoTime()) > 0
+                        && !Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                drain(true);
+
+                if (messageIndex > 0) {
+                    // Redis could not be reached and the batch was kept; wait before trying again
+                    LockSupport.parkNanos(this, lingerNanos);
                 }
+            }
+        } finally {
+            senderThread = null;
+        }
+    }
 
-                if (messageIndex == batchSize) push();
+    private void drain(boolean flush) {
+        try {
+            reportDroppedEvents();
+
+            if (messageIndex == batchSize) push();
+
+            if (encodingStage != null) {
+                byte[] encoded;
+                while ((encoded = encodingStage.poll()) != null) {
+                    queuedBytes.addAndGet(-encoded.length);
+                    addToBatch(encoded);
+                }
+            } else {
+                LoggingEvent event;
+                while ((event = pollEvent()) != null) {
+                    queuedBytes.addAndGet(-sizeOf(event));
+                    try {
+                        addToBatch(encode(event));
+                    } catch (Exception e) {
+                        encodingFailed(event, e);
+                    }
+                }
             }
 
-            if (!alwaysBatch && messageIndex > 0) push();
+            if (flush && messageIndex > 0) push();
         } catch (Exception e) {
             errorHandler.error(e.getMessage(), e, ErrorCode.WRITE_FAILURE);
+        } finally {
+            syncPipeline();
+        }
+    }
+
+    /**
+     * @return the next queued event, the most severe first if there are priority lanes
+     */
+    private LoggingEvent pollEvent() {
+        return lanes != null ? lanes.poll() : events.poll();
+    }
+
+    private void addToBatch(byte[] encoded) {
+        // keep each RPUSH within the byte budget; an event over the budget on its own is sent alone
+        if (messageIndex > 0 && batchBytes + encoded.length > maxBatchBytes) push();
+        if (messageIndex == batchSize) {
+            // the batch could not be sent and was kept, so there's no room for this event
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        batch[messageIndex++] = encoded;
+        batchBytes += encoded.length;
+
+        if (messageIndex == batchSize) push();
+    }
+
+    private void reportDroppedEvents() {
+        long dropped = droppedEvents.get();
+        if (dropped != reportedDroppedEvents) {
+            LogLog.warn("Dropped " + (dropped - reportedDroppedEvents) + " log messages ("
+                    + dropped + " in total)");
+            reportedDroppedEvents = dropped;
         }
     }
 
+    private byte[] encode(LoggingEvent event) {
+        if (layout instanceof LoggingEventEncoder) {
+            return ((LoggingEventEncoder) layout).encode(event);
+        }
+        // layouts like PatternLayout format into a shared buffer, so encoder threads take turns with them
+        synchronized (layout) {
+            return SafeEncoder.encode(layout.format(event));
+        }
+    }
+
+    private void encodingFailed(LoggingEvent event, Exception e) {
+        errorHandler.error(e.getMessage(), e, ErrorCode.GENERIC_FAILURE, event);
+    }
+
     private void push() {
+        // a pipeline holds a connection that worked, and its batches report back once synced
+        if (pipeline == null && !circuitBreaker.allowRequest()) {
+            // Redis was unreachable moments ago; don't wait for another connection attempt to fail
+            pushFailed();
+            return;
+        }
+        if (respClient != null) {
+            pushOverNio();
+            return;
+        }
+        if (maxBatchesInFlight > 1) {
+            pushPipelined();
+            return;
+        }
+
         Jedis jedis = getJedisFromPool();
         if (jedis == null) {
-            purgeEventQueue();
+            pushFailed();
             return;
         }
 
         LogLog.debug("Sending " + messageIndex + " log messages to Redis");
         try {
-            jedis.rpush(SafeEncoder.encode(key),
-                    batchSize == messageIndex
-                            ? batch
-                            : Arrays.copyOf(batch, messageIndex));
+            if (envelopeWriter != null) {
+                jedis.rpush(keyBytes, envelopeWriter.write(batch, messageIndex));
+            } else {
+                jedis.rpush(keyBytes,
+                        batchSize == messageIndex
+                                ? batch
+                                : Arrays.copyOf(batch, messageIndex));
+            }
             messageIndex = 0;
+            batchBytes = 0;
         } catch (JedisConnectionException e) {
-            LogLog.error("Exception sending log messages to Redis.", e);
-            // returnBrokenResource when the state of the object is unrecoverable
-            jedisPool.returnBrokenResource(jedis);
+            LogLog.error("Exception sending log messages to Redis, not trying again for " + circuitBreaker.onFailure() + " ms.", e);
+            // returnBrokenJedis when the state of the object is unrecoverable
+            returnBrokenJedis(jedis);
             jedis = null;
+            pushFailed();
+        } finally {
+            // It's important to return the Jedis instance once you've finished using it
+            if (jedis != null) {
+                circuitBreaker.onSuccess();
+                returnJedis(jedis);
+            }
+        }
+    }
+
+    private void pushOverNio() {
+        LogLog.debug("Sending " + messageIndex + " log messages to Redis");
+        try {
+            if (envelopeWriter != null) {
+                respClient.rpush(keyBytes, new byte[][]{envelopeWriter.write(batch, messageIndex)}, 1);
+            } else {
+                respClient.rpush(keyBytes, batch, messageIndex);
+            }
+            circuitBreaker.onSuccess();
+            messageIndex = 0;
+            batchBytes = 0;
+        } catch (JedisConnectionException e) {
+            LogLog.error("Exception sending log messages to Redis, not trying again for " + circuitBreaker.onFailure() + " ms.", e);
+            pushFailed();
+        }
+    }
+
+    /**
+     * Sends the batch without waiting for the reply, so that the next batch is encoded while Redis works through this
+     * one. Replies are read once {@code maxBatchesInFlight} batches are outstanding, or when the queue is drained.
+     */
+    private void pushPipelined() {
+        if (pipeline == null) {
+            pipelineJedis = getJedisFromPool();
+            if (pipelineJedis == null) {
+                pushFailed();
+                return;
+            }
+            pipeline = pipelineJedis.pipelined();
+        }
+
+        LogLog.debug("Sending " + messageIndex + " log messages to Redis");
+        // the batch array is reused for the next batch while this one is in flight, so it can't be sent as is
+        byte[][] payload = envelopeWriter != null
+                ? new byte[][]{envelopeWriter.write(batch, messageIndex)}
+                : Arrays.copyOf(batch, messageIndex);
+        inFlightEventCounts.add(messageIndex);
+        inFlightPayloads.add(payload);
+        messageIndex = 0;
+        batchBytes = 0;
+        try {
+            inFlightReplies.add(pipeline.rpush(keyBytes, payload));
+        } catch (JedisConnectionException e) {
+            failPipeline(e);
+            return;
+        }
+
+        if (inFlightReplies.size() >= maxBatchesInFlight) syncPipeline();
+    }
+
+    private void syncPipeline() {
+        if (pipeline == null) {
+            return;
+        }
+        try {
+            pipeline.sync();
+        } catch (JedisConnectionException e) {
+            failPipeline(e);
+            return;
+        }
+        for (int i = 0; i < inFlightReplies.size(); i++) {
+            try {
+                inFlightReplies.get(i).get();
+            } catch (JedisDataException e) {
+                LogLog.error("Redis rejected a batch of " + inFlightEventCounts.get(i) + " log messages.", e);
+                droppedEvents.addAndGet(inFlightEventCounts.get(i));
+            }
+        }
+        circuitBreaker.onSuccess();
+        returnJedis(pipelineJedis);
+        resetPipeline();
+    }
+
+    /**
+     * Spills the batches in flight, or gives up on them if there is no spill journal; they can't be retried since
+     * they're no longer in the batch array.
+     */
+    private void failPipeline(JedisConnectionException e) {
+        LogLog.error("Exception sending log messages to Redis, not trying again for " + circuitBreaker.onFailure() + " ms.", e);
+        for (int i = 0; i < inFlightEventCounts.size(); i++) {
+            if (spillJournal != null) {
+                byte[][] payload = inFlightPayloads.get(i);
+                spill(payload, payload.length, inFlightEventCounts.get(i));
+            } else {
+                droppedEvents.addAndGet(inFlightEventCounts.get(i));
+            }
+        }
+        returnBrokenJedis(pipelineJedis);
+        resetPipeline();
+        pushFailed();
+    }
+
+    private void resetPipeline() {
+        pipeline = null;
+        pipelineJedis = null;
+        inFlightReplies.clear();
+        inFlightEventCounts.clear();
+        inFlightPayloads.clear();
+    }
+
+    /**
+     * Spills the batch if there is a spill journal; otherwise purges the queue if so configured.
+     */
+    private void pushFailed() {
+        if (spillJournal != null) {
+            spill();
+        } else {
             purgeEventQueue();
+        }
+    }
+
+    private void spill() {
+        if (messageIndex == 0) {
+            return;
+        }
+        if (envelopeWriter != null) {
+            spill(new byte[][]{envelopeWriter.write(batch, messageIndex)}, 1, messageIndex);
+        } else {
+            spill(batch, messageIndex, messageIndex);
+        }
+        messageIndex = 0;
+        batchBytes = 0;
+    }
+
+    private void spill(byte[][] elements, int elementCount, int eventCount) {
+        try {
+            if (spillJournal.append(elements, elementCount)) {
+                return;
+            }
+        } catch (IOException e) {
+            LogLog.error("Exception writing log messages to the spill journal.", e);
+        }
+        droppedEvents.addAndGet(eventCount);
+    }
+
+    /**
+     * Pushes up to a tenth of {@code spillReplayRate} spilled batches, in the order they were spilled. Batches sent
+     * while there were still spilled ones left go straight to Redis, so the two may interleave.
+     */
+    private void replaySpilled() {
+        if (respClient != null) {
+            replaySpilledOverNio();
+            return;
+        }
+        Jedis jedis = null;
+        try {
+            long replays = Math.max(1, spillReplayRate * REPLAY_INTERVAL_MILLIS / TimeUnit.SECONDS.toMillis(1));
+            for (int i = 0; i < replays; i++) {
+                byte[][] elements = spillJournal.peek();
+                if (elements == null) {
+                    break;
+                }
+                if (jedis == null) {
+                    if (!circuitBreaker.allowRequest()) {
+                        break;
+                    }
+                    jedis = borrowJedis();
+                }
+                try {
+                    jedis.rpush(keyBytes, elements);
+                } catch (JedisDataException e) {
+                    LogLog.error("Redis rejected " + elements.length + " spilled log messages.", e);
+                }
+                spillJournal.remove();
+            }
+        } catch (JedisConnectionException e) {
+            // still unreachable; the sender logs that already
+            circuitBreaker.onFailure();
+            if (jedis != null) {
+                returnBrokenJedis(jedis);
+                jedis = null;
+            }
+        } catch (Exception e) {
+            LogLog.error("Exception replaying spilled log messages.", e);
         } finally {
-            // It's important to return the Jedis instance to the pool once you've finished using it
             if (jedis != null) {
-                jedisPool.returnResource(jedis);
+                circuitBreaker.onSuccess();
+                returnJedis(jedis);
             }
         }
     }
 
+    private void replaySpilledOverNio() {
+        boolean replaying = false;
+        try {
+            long replays = Math.max(1, spillReplayRate * REPLAY_INTERVAL_MILLIS / TimeUnit.SECONDS.toMillis(1));
+            for (int i = 0; i < replays; i++) {
+                byte[][] elements = spillJournal.peek();
+                if (elements == null) {
+                    break;
+                }
+                if (!replaying) {
+                    if (!circuitBreaker.allowRequest()) {
+                        break;
+                    }
+                    replaying = true;
+                }
+                try {
+                    respClient.rpush(keyBytes, elements, elements.length);
+                } catch (JedisDataException e) {
+                    LogLog.error("Redis rejected " + elements.length + " spilled log messages.", e);
+                }
+                spillJournal.remove();
+            }
+            if (replaying) {
+                circuitBreaker.onSuccess();
+            }
+        } catch (JedisConnectionException e) {
+            // still unreachable; the sender logs that already
+            circuitBreaker.onFailure();
+        } catch (Exception e) {
+            LogLog.error("Exception replaying spilled log messages.", e);
+        }
+    }
+
     private void purgeEventQueue() {
         if (purgeOnFailure) {
             LogLog.debug("Purging event queue");
-            events.clear();
+            long purged = messageIndex;
+            if (encodingStage != null) {
+                LoggingEvent event;
+                while ((event = encodingStage.pollUnencoded()) != null) {
+                    queuedBytes.addAndGet(-sizeOf(event));
+                    dropped(event);
+                }
+                byte[] encoded;
+                while ((encoded = encodingStage.poll()) != null) {
+                    queuedBytes.addAndGet(-encoded.length);
+                    purged++;
+                }
+            } else {
+                LoggingEvent event;
+                while ((event = pollEvent()) != null) {
+                    queuedBytes.addAndGet(-sizeOf(event));
+                    dropped(event);
+                }
+            }
+            droppedEvents.addAndGet(purged);
             messageIndex = 0;
+            batchBytes = 0;
         }
     }
 
@@ -230,6 +1101,254 @@ public class PooledRedisAppender extends AppenderSkeleton implements Runnable {
         this.daemonThread = daemonThread;
     }
 
+    /**
+     * Sets how each batch is pushed: {@code none} (the default) pushes every event as its own list element, while
+     * {@code gzip} pushes the whole batch as one compressed element that {@link BatchEnvelopeReader} expands.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setCompression(String compression) {
+        try {
+            this.compression = BatchCompression.valueOf(compression.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LogLog.error("Unknown compression [" + compression + "], keeping " + this.compression, e);
+        }
+    }
+
+    /**
+     * Sets how many events may wait to be sent, which caps the memory they hold when Redis falls behind. It is rounded
+     * up to a power of two.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Sets what happens to an event appended while the queue is full: {@code drop_newest} (the default),
+     * {@code drop_oldest} or {@code block}.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setOverflowPolicy(String overflowPolicy) {
+        try {
+            this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LogLog.error("Unknown overflow policy [" + overflowPolicy + "], keeping " + this.overflowPolicy, e);
+        }
+    }
+
+    /**
+     * Sets how long, in milliseconds, the {@code block} overflow policy waits for room before dropping the event.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setBlockTimeout(long millis) {
+        this.blockTimeout = millis;
+    }
+
+    /**
+     * Sets the estimated number of bytes the queued events may hold on to, so that a burst of large events (such as
+     * ones with long stack traces) is bounded by memory rather than by count. Events over the budget are handled by
+     * the overflow policy.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMaxQueueBytes(long maxQueueBytes) {
+        this.maxQueueBytes = maxQueueBytes;
+    }
+
+    /**
+     * Sets the number of encoded bytes a single RPUSH may carry; a batch is sent early rather than grow past it.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @return the estimated number of bytes held by the queued events
+     */
+    long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return the number of events given up, either because the queue was full or because it was purged after a
+     * failure to reach Redis
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return the number of events of the level given up while still queued or before they were, that is, not
+     * counting the encoded events of a batch that couldn't be sent
+     */
+    public long getDroppedEventCount(Level level) {
+        AtomicLong count = droppedEventsByLevel.get(level.toInt());
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Sets when queued events are sent: {@code linger} (the default) or {@code periodic}; see {@link FlushMode}.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setFlushMode(String flushMode) {
+        try {
+            this.flushMode = FlushMode.valueOf(flushMode.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LogLog.error("Unknown flush mode [" + flushMode + "], keeping " + this.flushMode, e);
+        }
+    }
+
+    /**
+     * Sets how long, in milliseconds, the first event of a partial batch may wait before the batch is sent in
+     * {@code linger} flush mode.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMaxLinger(long millis) {
+        this.maxLinger = millis;
+    }
+
+    /**
+     * Sets how many batches may be sent on one connection before waiting for their replies; the default of one waits
+     * for each. With more, batches are pipelined, so throughput is no longer bound to one batch per round trip.
+     * Batches in flight when the connection fails are spilled if a spill directory is set, and dropped otherwise.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMaxBatchesInFlight(int maxBatchesInFlight) {
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    /**
+     * Sets how many threads encode events ahead of the sender; the default of zero has the sender encode them itself.
+     * Each encoder thread has a queue of {@code queueSize} of its own, and all events from one logging thread go
+     * through the same encoder, so they are still sent in the order they were logged. Events from different threads
+     * may be sent in a different order than they were logged in.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = encoderThreads;
+    }
+
+    /**
+     * Sets how much of an event is captured on the logging thread: {@code eager} (the default) or {@code deferred},
+     * which leaves rendering the message and the stack trace to the thread that encodes the event; see
+     * {@link CaptureMode}.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setCaptureMode(String captureMode) {
+        try {
+            this.captureMode = CaptureMode.valueOf(captureMode.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LogLog.error("Unknown capture mode [" + captureMode + "], keeping " + this.captureMode, e);
+        }
+    }
+
+    /**
+     * Sets how the appender connects to Redis: {@code pooled} (the default), borrowing a connection from its pool for
+     * every send, or {@code dedicated}, keeping a single connection open that its sends take turns with; see
+     * {@link ConnectionMode}. The pool settings only apply to the pooled mode.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setConnectionMode(String connectionMode) {
+        try {
+            this.connectionMode = ConnectionMode.valueOf(connectionMode.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LogLog.error("Unknown connection mode [" + connectionMode + "], keeping " + this.connectionMode, e);
+        }
+    }
+
+    /**
+     * Sets how the appender talks to Redis: through Jedis ({@code jedis}, the default), or through a built-in NIO
+     * client ({@code nio}) that writes the encoded events without copying them first, on a single connection of its
+     * own; see {@link Transport}. The NIO transport ignores the pool settings, the connection mode and
+     * {@code maxBatchesInFlight}.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setTransport(String transport) {
+        try {
+            this.transport = Transport.valueOf(transport.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LogLog.error("Unknown transport [" + transport + "], keeping " + this.transport, e);
+        }
+    }
+
+    /**
+     * Sets how long, in milliseconds, a dedicated connection may sit idle before it is PINGed to check it's still
+     * open, and how often a broken one is reconnected in the background.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setProbeInterval(long probeInterval) {
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * Sets whether the appender shares its connections and threads with the other appenders of the process that send
+     * to the same host, port and password, rather than have a pool and a sender thread of its own. The pool settings
+     * of the first such appender to be activated are used. Encoder threads aren't shared. An appender on a shared engine
+     * always sends through the engine's pool, so it isn't activated with a dedicated connection or the NIO transport.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setSharedEngine(boolean sharedEngine) {
+        this.sharedEngine = sharedEngine;
+    }
+
+    /**
+     * Sets whether events are queued in one lane per severity (ERROR and FATAL, WARN, and the rest), each of
+     * {@code queueSize}, rather than in a single queue. The sender takes the most severe events first, and an event
+     * that doesn't fit the byte budget makes room by dropping the oldest queued events of lower severities before the
+     * overflow policy applies to it. Events of different severities may then be sent in a different order than they
+     * were logged in. Not supported with encoder threads.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    /**
+     * Sets the directory of the spill journal, which takes the batches that can't be sent while Redis is unreachable
+     * instead of dropping them; they are sent once Redis is back, including after a restart. Without it, which is the
+     * default, {@code purgeOnFailure} decides what happens to them. The directory must not be shared with another
+     * appender.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets how many bytes of disk the spill journal may take up; batches that don't fit are dropped.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setSpillMaxBytes(long spillMaxBytes) {
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
+    /**
+     * Sets how many spilled batches per second are sent once Redis is back, so that a long outage isn't replayed all
+     * at once. Each batch is one RPUSH of up to {@code batchSize} events, so this is not a rate of events.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setSpillReplayRate(int batchesPerSecond) {
+        this.spillReplayRate = batchesPerSecond;
+    }
+
+    /**
+     * Sets how long, in milliseconds, to stop trying Redis after it first couldn't be reached. The wait doubles with
+     * every further failure up to {@code maxBackoff}, and is shortened by up to half at random; batches sent meanwhile
+     * are handled as if sending them had failed.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setInitialBackoff(long millis) {
+        this.initialBackoff = millis;
+    }
+
+    /**
+     * Sets the longest, in milliseconds, to stop trying Redis for while it can't be reached.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public void setMaxBackoff(long millis) {
+        this.maxBackoff = millis;
+    }
+
     public boolean requiresLayout() {
         return true;
     }
@@ -240,7 +1359,45 @@ public class PooledRedisAppender extends AppenderSkeleton implements Runnable {
 
     // support testing
     protected void setJedisPool(JedisPool jedisPool) {
+        // the pool being replaced was created by activateOptions(); a shared engine's pool belongs to the engine
+        if (this.jedisPool != null && this.jedisPool != jedisPool && engine == null) {
+            this.jedisPool.destroy();
+        }
         this.jedisPool = jedisPool;
     }
 
+    private class EncoderCallback implements EncodingStage.Callback {
+
+        @Override
+        public byte[] encode(LoggingEvent event) {
+            return PooledRedisAppender.this.encode(event);
+        }
+
+        /**
+         * Swaps the estimated size the event was queued with for its encoded size, which it is now known by.
+         */
+        @Override
+        public void encoded(LoggingEvent event, byte[] encoded) {
+            queuedBytes.addAndGet(encoded.length - sizeOf(event));
+        }
+
+        @Override
+        public void encodingFailed(LoggingEvent event, Exception e) {
+            queuedBytes.addAndGet(-sizeOf(event));
+            PooledRedisAppender.this.encodingFailed(event, e);
+        }
+
+        @Override
+        public void encodedDropped(LoggingEvent event, byte[] encoded) {
+            queuedBytes.addAndGet(-encoded.length);
+            dropped(event);
+        }
+
+        @Override
+        public void outputAvailable() {
+            signalSender();
+        }
+
+    }
+
 }
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A disk journal for the list elements that could not be pushed to Redis, kept in memory-mapped segment files so
+ * that it survives a restart of the process. Records are read back in the order they were appended; a segment file
+ * is deleted once all of its records have been read and the journal has moved on to the next one.
+ * <p>
+ * A segment starts with a magic number and the position of its first unread record. Each record is its length
+ * followed by the element count and the length-prefixed elements. The length is written last, so a record cut short
+ * by the process dying is never read.
+ * <p>
+ * All methods are synchronized, so the appender can append while its replayer reads.
+ */
+final class SpillJournal {
+
+    static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    private static final int MAGIC = 0x53504C31; // "SPL1"
+    private static final int READ_POSITION_OFFSET = 4;
+    private static final int HEADER_LENGTH = 8;
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSequence;
+    private long usedBytes;
+    private boolean closed;
+
+    /**
+     * Opens the journal in {@code directory}, creating it if needed, and picks up the records left unread by a
+     * previous process.
+     *
+     * @param maxBytes     the disk space the segment files may take up together
+     * @param segmentBytes the size of a segment file; a record too large for one gets a segment of its own
+     */
+    SpillJournal(File directory, long maxBytes, int segmentBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spill directory " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Could not list spill directory " + directory);
+        }
+        // the sequence number is zero-padded, so file names sort in the order the segments were created
+        Arrays.sort(files);
+        for (File file : files) {
+            long sequence;
+            try {
+                sequence = Long.parseLong(file.getName().substring(
+                        SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = Segment.open(file, (int) Math.min(file.length(), Integer.MAX_VALUE));
+            if (segment == null) {
+                continue;
+            }
+            segments.addLast(segment);
+            usedBytes += segment.capacity();
+            nextSequence = sequence + 1;
+        }
+    }
+
+    /**
+     * @return false, leaving the journal unchanged, if the record would take it over its disk quota
+     */
+    synchronized boolean append(byte[][] elements, int count) throws IOException {
+        ensureOpen();
+        int length = 4;
+        for (int i = 0; i < count; i++) {
+            length += 4 + elements[i].length;
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.writePosition + 4 + length > tail.capacity()) {
+            int capacity = Math.max(segmentBytes, HEADER_LENGTH + 4 + length);
+            if (usedBytes + capacity > maxBytes) {
+                return false;
+            }
+            tail = Segment.create(new File(directory, segmentName(nextSequence++)), capacity);
+            segments.addLast(tail);
+            usedBytes += capacity;
+        }
+
+        MappedByteBuffer buffer = tail.buffer;
+        int position = tail.writePosition;
+        buffer.position(position + 4);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(elements[i].length);
+            buffer.put(elements[i]);
+        }
+        buffer.putInt(position, length);
+        tail.writePosition = position + 4 + length;
+        return true;
+    }
+
+    /**
+     * @return the elements of the oldest unread record, or null if every record has been read
+     */
+    synchronized byte[][] peek() throws IOException {
+        ensureOpen();
+        Segment head = firstUnread();
+        if (head == null) {
+            return null;
+        }
+
+        MappedByteBuffer buffer = head.buffer;
+        buffer.position(head.readPosition + 4);
+        byte[][] elements = new byte[buffer.getInt()][];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new byte[buffer.getInt()];
+            buffer.get(elements[i]);
+        }
+        return elements;
+    }
+
+    /**
+     * Marks the record last returned by {@link #peek} as read.
+     */
+    synchronized void remove() throws IOException {
+        ensureOpen();
+        Segment head = firstUnread();
+        if (head == null) {
+            return;
+        }
+        head.readPosition += 4 + head.buffer.getInt(head.readPosition);
+        head.buffer.putInt(READ_POSITION_OFFSET, head.readPosition);
+        firstUnread();
+    }
+
+    synchronized boolean isEmpty() throws IOException {
+        ensureOpen();
+        return firstUnread() == null;
+    }
+
+    /**
+     * @return the disk space taken up by the segment files
+     */
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Writes the segments out to disk. The journal can't be used afterwards.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+    }
+
+    /**
+     * Deletes the segments ahead of the first one with an unread record, except the one being appended to.
+     */
+    private Segment firstUnread() throws IOException {
+        while (true) {
+            Segment head = segments.peekFirst();
+            if (head == null) {
+                return null;
+            }
+            if (head.readPosition < head.writePosition) {
+                return head;
+            }
+            if (head == segments.peekLast()) {
+                return null;
+            }
+            segments.removeFirst();
+            usedBytes -= head.capacity();
+            // the mapping itself goes away once the buffer is garbage collected
+            if (!head.file.delete()) {
+                throw new IOException("Could not delete spill segment " + head.file);
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Spill journal in " + directory + " is closed");
+        }
+    }
+
+    private static String segmentName(long sequence) {
+        return String.format("%s%019d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+    }
+
+    private static final class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment create(File file, int capacity) throws IOException {
+            Segment segment = new Segment(file, map(file, capacity));
+            segment.buffer.putInt(0, MAGIC);
+            segment.buffer.putInt(READ_POSITION_OFFSET, HEADER_LENGTH);
+            segment.readPosition = HEADER_LENGTH;
+            segment.writePosition = HEADER_LENGTH;
+            return segment;
+        }
+
+        /**
+         * @return null if the file isn't a segment
+         */
+        static Segment open(File file, int capacity) throws IOException {
+            if (capacity < HEADER_LENGTH) {
+                return null;
+            }
+            MappedByteBuffer buffer = map(file, capacity);
+            if (buffer.getInt(0) != MAGIC) {
+                return null;
+            }
+            Segment segment = new Segment(file, buffer);
+            int readPosition = buffer.getInt(READ_POSITION_OFFSET);
+            if (readPosition < HEADER_LENGTH || readPosition > capacity) {
+                return null;
+            }
+            segment.readPosition = readPosition;
+
+            // the first zero length marks the end of what was written
+            int position = readPosition;
+            while (position + 4 <= capacity) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + 4 + length > capacity) {
+                    break;
+                }
+                position += 4 + length;
+            }
+            segment.writePosition = position;
+            return segment;
+        }
+
+        private static MappedByteBuffer map(File file, int capacity) throws IOException {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                // the mapping stays valid after the channel is closed
+                return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+    }
+
+}
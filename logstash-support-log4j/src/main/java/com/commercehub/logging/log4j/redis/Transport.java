@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.commercehub.logging.log4j.redis;
+
+/**
+ * How {@link PooledRedisAppender} talks to Redis.
+ */
+public enum Transport {
+
+    /**
+     * Through Jedis, which copies every element into the buffer of its blocking output stream before writing it.
+     */
+    JEDIS,
+
+    /**
+     * Through a {@link RespClient}, which hands the encoded events to the socket as they are, on a single connection.
+     */
+    NIO
+
+}
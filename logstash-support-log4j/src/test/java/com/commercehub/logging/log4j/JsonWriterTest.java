@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+
+    JsonWriter writer = new JsonWriter(4);
+
+    @Test
+    public void testEscapesLikeJsonSmart() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (char c = 0; c < 0xA0; c++) {
+            value.append(c);
+        }
+        value.append("\u00e9\u2000\u2028\u20ff\u2100\ud83d\ude00\uffff");
+
+        writer.beginObject();
+        writer.field("value", value.toString());
+        writer.endObject();
+
+        JSONObject expected = new JSONObject();
+        expected.put("value", value.toString());
+        assertEquals(JSONValue.parse(expected.toString()), JSONValue.parse(writer.toString()));
+        assertEquals("{\"value\":\"\\u0000", writer.toString().substring(0, 16));
+    }
+
+    @Test
+    public void testEncodesUtf8() throws Exception {
+        String value = "caf\u00e9 \u4e2d \ud83d\ude00";
+
+        writer.value(value);
+
+        assertArrayEquals(("\"" + value + "\"").getBytes("UTF-8"), writer.toByteArray());
+    }
+
+    @Test
+    public void testReplacesUnpairedSurrogates() throws Exception {
+        writer.value("a\ud83db\ude00");
+
+        assertEquals("\"a?b?\"", writer.toString());
+    }
+
+    @Test
+    public void testWritesNestedObjectsAndValues() throws Exception {
+        Map<String, Object> mdc = new LinkedHashMap<>();
+        mdc.put("string", "value");
+        mdc.put("number", 42);
+        mdc.put("flag", true);
+        mdc.put("nothing", null);
+
+        writer.beginObject();
+        writer.name("version");
+        writer.value(1);
+        writer.name("mdc");
+        writer.value(mdc);
+        writer.name("empty");
+        writer.value(new LinkedHashMap<String, String>());
+        writer.field("missing", null);
+        writer.endObject();
+
+        assertEquals("{\"version\":1,\"mdc\":{\"string\":\"value\",\"number\":42,\"flag\":true,\"nothing\":null},"
+                + "\"empty\":{},\"missing\":null}", writer.toString());
+    }
+
+    @Test
+    public void testResetReusesWriter() throws Exception {
+        writer.beginObject();
+        writer.field("first", "a long enough value to grow the buffer");
+        writer.endObject();
+        writer.reset();
+        writer.beginObject();
+        writer.field("second", "b");
+        writer.endObject();
+
+        assertEquals("{\"second\":\"b\"}", writer.toString());
+        assertEquals(writer.toString().length(), writer.size());
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class LoggerFieldsCacheTest {
+
+    LoggerFieldsCache loggerFieldsCache = new LoggerFieldsCache(2, WireFormat.JSON, Collections.<String>emptySet());
+
+    @Test
+    public void testSerializesLoggerFields() throws Exception {
+        assertEquals("\"logger_full\":\"com.acme.Foo\",\"level\":\"INFO\",\"logger_simple\":\"Foo\"",
+                members(loggerFieldsCache.get("com.acme.Foo", "INFO")));
+        assertEquals("\"logger_full\":\"Foo\",\"level\":\"WARN\",\"logger_simple\":\"Foo\"",
+                members(loggerFieldsCache.get("Foo", "WARN")));
+        assertEquals("\"logger_full\":\"a\\\"b.c\\\\d\",\"level\":\"INFO\",\"logger_simple\":\"c\\\\d\"",
+                members(loggerFieldsCache.get("a\"b.c\\d", "INFO")));
+    }
+
+    @Test
+    public void testWritesNullLoggerName() throws Exception {
+        assertEquals("\"logger_full\":null,\"level\":\"INFO\"", members(loggerFieldsCache.get(null, "INFO")));
+    }
+
+    @Test
+    public void testLeavesOutOmittedFields() throws Exception {
+        LoggerFieldsCache loggerFieldsCache = new LoggerFieldsCache(2, WireFormat.JSON,
+                new HashSet<>(Arrays.asList("logger_full", "logger_simple")));
+
+        assertEquals("\"level\":\"INFO\"", members(loggerFieldsCache.get("com.acme.Foo", "INFO")));
+    }
+
+    @Test
+    public void testCachesPerLoggerAndLevel() throws Exception {
+        byte[] info = loggerFieldsCache.get("com.acme.Foo", "INFO");
+        byte[] error = loggerFieldsCache.get("com.acme.Foo", "ERROR");
+
+        assertSame(info, loggerFieldsCache.get("com.acme.Foo", "INFO"));
+        assertSame(error, loggerFieldsCache.get("com.acme.Foo", "ERROR"));
+    }
+
+    @Test
+    public void testStopsCachingNewLoggersWhenFull() throws Exception {
+        byte[] foo = loggerFieldsCache.get("com.acme.Foo", "INFO");
+        byte[] bar = loggerFieldsCache.get("com.acme.Bar", "INFO");
+        byte[] baz = loggerFieldsCache.get("com.acme.Baz", "INFO");
+
+        assertSame(foo, loggerFieldsCache.get("com.acme.Foo", "INFO"));
+        assertSame(bar, loggerFieldsCache.get("com.acme.Bar", "INFO"));
+        assertNotSame(baz, loggerFieldsCache.get("com.acme.Baz", "INFO"));
+        assertEquals(members(baz), members(loggerFieldsCache.get("com.acme.Baz", "INFO")));
+    }
+
+    private static String members(byte[] members) {
+        return new String(members, JsonWriter.UTF_8);
+    }
+
+}
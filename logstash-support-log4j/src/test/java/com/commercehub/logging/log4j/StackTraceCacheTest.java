@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StackTraceCacheTest {
+
+    @Test
+    public void testFingerprintIgnoresMessages() throws Exception {
+        String[] failureMessages = {"first", "second"};
+        RuntimeException[] failures = new RuntimeException[failureMessages.length];
+        for (int i = 0; i < failures.length; i++) {
+            // thrown from the same line, so only the messages differ
+            failures[i] = newFailure(failureMessages[i], null);
+        }
+        RuntimeException first = failures[0];
+        RuntimeException second = failures[1];
+
+        assertEquals(StackTraceCache.fingerprint(first), StackTraceCache.fingerprint(second));
+        assertNotEquals(StackTraceCache.messagesHash(first), StackTraceCache.messagesHash(second));
+    }
+
+    @Test
+    public void testFingerprintCoversClassesAndCauses() throws Exception {
+        RuntimeException failure = newFailure("failure", null);
+        RuntimeException otherClass = new IllegalArgumentException("failure");
+        otherClass.setStackTrace(failure.getStackTrace());
+        RuntimeException withCause = newFailure("failure", new IllegalStateException("cause"));
+
+        assertNotEquals(StackTraceCache.fingerprint(failure), StackTraceCache.fingerprint(otherClass));
+        assertNotEquals(StackTraceCache.fingerprint(failure), StackTraceCache.fingerprint(withCause));
+    }
+
+    @Test(timeout = 10000)
+    public void testCyclicCausesAndSuppressionsAreFollowedOnce() throws Exception {
+        RuntimeException first = newFailure("first", null);
+        RuntimeException second = newFailure("second", first);
+        first.addSuppressed(second);
+
+        assertEquals(StackTraceCache.fingerprint(first), StackTraceCache.fingerprint(first));
+        assertEquals(StackTraceCache.messagesHash(first), StackTraceCache.messagesHash(first));
+    }
+
+    @Test(timeout = 10000)
+    public void testThrowablesReachableSeveralWaysAreFollowedOnce() throws Exception {
+        // each one is both the cause and a suppressed exception of the one before, 2^40 paths in all
+        RuntimeException failure = newFailure("failure 40", null);
+        for (int i = 39; i >= 0; i--) {
+            RuntimeException previous = newFailure("failure " + i, failure);
+            previous.addSuppressed(failure);
+            failure = previous;
+        }
+
+        StackTraceCache.fingerprint(failure);
+        StackTraceCache.messagesHash(failure);
+    }
+
+    @Test
+    public void testEntryKeepsStackTraceForSameMessagesOnly() throws Exception {
+        StackTraceCache.Entry entry = new StackTraceCache(4).get(42L);
+        byte[] stackTrace = {'"', 'x', '"'};
+
+        entry.setStackTrace(1L, stackTrace);
+
+        assertEquals("000000000000002a", entry.getFingerprint());
+        assertSame(stackTrace, entry.getStackTrace(1L));
+        assertNull(entry.getStackTrace(2L));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntries() throws Exception {
+        StackTraceCache stackTraceCache = new StackTraceCache(2);
+        StackTraceCache.Entry first = stackTraceCache.get(1L);
+        StackTraceCache.Entry second = stackTraceCache.get(2L);
+
+        assertSame(first, stackTraceCache.get(1L));
+        stackTraceCache.get(3L);
+
+        assertSame(first, stackTraceCache.get(1L));
+        assertNotSame(second, stackTraceCache.get(2L));
+    }
+
+    @Test
+    public void testDisabledCacheKeepsNothing() throws Exception {
+        StackTraceCache stackTraceCache = new StackTraceCache(0);
+
+        assertNotSame(stackTraceCache.get(1L), stackTraceCache.get(1L));
+    }
+
+    @Test
+    public void testFullStackTraceIsDueOncePerWindow() throws Exception {
+        StackTraceCache.Entry entry = new StackTraceCache(4).get(1L);
+
+        assertTrue(entry.isFullStackTraceDue(1000L, 500L));
+        assertFalse(entry.isFullStackTraceDue(1499L, 500L));
+        assertTrue(entry.isFullStackTraceDue(1500L, 500L));
+        // a clock that went backwards starts a new window rather than suppressing stack traces until it catches up
+        assertTrue(entry.isFullStackTraceDue(900L, 500L));
+    }
+
+    private static RuntimeException newFailure(String failureMessage, Throwable cause) {
+        return new IllegalStateException(failureMessage, cause);
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j;
+
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import org.apache.log4j.spi.ThrowableInformation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StackTraceWriterTest {
+
+    @Test
+    public void testWritesWhatLog4jRendersByDefault() throws Exception {
+        Throwable throwable = newComplexThrowable();
+        StringBuilder expected = new StringBuilder();
+        for (String throwableStrRep : new ThrowableInformation(throwable).getThrowableStrRep()) {
+            expected.append(throwableStrRep).append("\n");
+        }
+
+        assertEquals(expected.toString(), write(unlimited(), throwable));
+    }
+
+    @Test
+    public void testLimitsFramesPerThrowable() throws Exception {
+        Throwable throwable = newThrowable("boom", "a.A", "b.B", "c.C", "d.D", "e.E");
+
+        String stackTrace = write(new StackTraceWriter(2, StackTraceWriter.UNLIMITED, null), throwable);
+
+        assertEquals("java.lang.IllegalStateException: boom\n"
+                + "\tat a.A.run(A.java:1)\n"
+                + "\tat b.B.run(B.java:2)\n"
+                + "\t... 3 frames truncated\n", stackTrace);
+    }
+
+    @Test
+    public void testLimitsCauseDepth() throws Exception {
+        Throwable root = newThrowable("root", "c.C");
+        Throwable middle = newThrowable("middle", "b.B");
+        Throwable top = newThrowable("top", "a.A");
+        top.initCause(middle);
+        middle.initCause(root);
+
+        String stackTrace = write(new StackTraceWriter(StackTraceWriter.UNLIMITED, 1, null), top);
+
+        assertEquals("java.lang.IllegalStateException: top\n"
+                + "\tat a.A.run(A.java:1)\n"
+                + "Caused by: java.lang.IllegalStateException: middle\n"
+                + "\tat b.B.run(B.java:1)\n"
+                + "Caused by: ...\n", stackTrace);
+    }
+
+    @Test
+    public void testCollapsesFramesOfExcludedPackages() throws Exception {
+        Throwable throwable = newThrowable("boom", "a.A", "sun.reflect.X", "java.lang.reflect.Y", "b.B", "sun.reflect.Z");
+        StackTraceWriter stackTraceWriter = new StackTraceWriter(1, StackTraceWriter.UNLIMITED,
+                "sun.reflect., java.lang.reflect.");
+
+        String stackTrace = write(stackTraceWriter, throwable);
+
+        assertEquals("java.lang.IllegalStateException: boom\n"
+                + "\tat a.A.run(A.java:1)\n"
+                + "\t... 2 frames filtered\n"
+                + "\t... 2 frames truncated\n", stackTrace);
+    }
+
+    @Test
+    public void testElidesFramesInCommonWithEnclosingTrace() throws Exception {
+        Throwable cause = newThrowable("cause", "c.C", "b.B", "a.A");
+        Throwable throwable = newThrowable("boom", "d.D", "b.B", "a.A");
+        cause.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("c.C", "run", "C.java", 1), throwable.getStackTrace()[1],
+                throwable.getStackTrace()[2]});
+        throwable.initCause(cause);
+
+        String stackTrace = write(unlimited(), throwable);
+
+        assertEquals("java.lang.IllegalStateException: boom\n"
+                + "\tat d.D.run(D.java:1)\n"
+                + "\tat b.B.run(B.java:2)\n"
+                + "\tat a.A.run(A.java:3)\n"
+                + "Caused by: java.lang.IllegalStateException: cause\n"
+                + "\tat c.C.run(C.java:1)\n"
+                + "\t... 2 more\n", stackTrace);
+    }
+
+    private static Throwable newComplexThrowable() {
+        RuntimeException cause = new RuntimeException("cause", new IllegalArgumentException("root cause"));
+        RuntimeException throwable = new IllegalStateException("I am \"quoted\"\nand on two lines", cause);
+        throwable.addSuppressed(new UnsupportedOperationException());
+        cause.addSuppressed(new RuntimeException("suppressed by the cause"));
+        Throwable circular = new RuntimeException("circular");
+        cause.getCause().initCause(circular);
+        circular.initCause(cause);
+        return throwable;
+    }
+
+    private static Throwable newThrowable(String message, String... classNames) {
+        Throwable throwable = new IllegalStateException(message);
+        StackTraceElement[] trace = new StackTraceElement[classNames.length];
+        for (int i = 0; i < classNames.length; i++) {
+            String simpleName = classNames[i].substring(classNames[i].lastIndexOf('.') + 1);
+            trace[i] = new StackTraceElement(classNames[i], "run", simpleName + ".java", i + 1);
+        }
+        throwable.setStackTrace(trace);
+        return throwable;
+    }
+
+    private static StackTraceWriter unlimited() {
+        return new StackTraceWriter(StackTraceWriter.UNLIMITED, StackTraceWriter.UNLIMITED, null);
+    }
+
+    private static String write(StackTraceWriter stackTraceWriter, Throwable throwable) {
+        JsonWriter writer = new JsonWriter();
+        writer.beginObject();
+        writer.name("stacktrace");
+        stackTraceWriter.write(writer, throwable);
+        writer.endObject();
+        return (String) ((JSONObject) JSONValue.parse(writer.toString())).get("stacktrace");
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.commercehub.logging.log4j.redis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DedicatedConnectionTest {
+
+    // connections are accepted by the backlog without anybody answering, which is all opening one takes
+    ServerSocket server;
+    DedicatedConnection connection;
+    ExecutorService otherUser = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        connection = newConnection(server.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        connection.close();
+        otherUser.shutdownNow();
+        server.close();
+    }
+
+    @Test
+    public void testConnectionIsKeptUntilItIsBroken() {
+        Jedis first = connection.getResource();
+        connection.returnResource(first);
+        Jedis second = connection.getResource();
+        assertSame(first, second);
+
+        connection.returnBrokenResource(second);
+        Jedis third = connection.getResource();
+        assertNotSame(second, third);
+        assertTrue(third.isConnected());
+        connection.returnResource(third);
+    }
+
+    @Test
+    public void testUsersTakeTurnsWithTheConnection() throws Exception {
+        Jedis jedis = connection.getResource();
+        Future<Jedis> next = otherUser.submit(getResource());
+
+        Thread.sleep(50);
+        assertFalse(next.isDone());
+
+        connection.returnResource(jedis);
+        assertSame(jedis, next.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClosingWakesWaitingUsers() throws Exception {
+        connection.getResource();
+        Future<Jedis> next = otherUser.submit(getResource());
+        Thread.sleep(50);
+
+        connection.close();
+        try {
+            next.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JedisConnectionException);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testFailedConnectDoesNotKeepTheConnectionInUse() throws IOException {
+        int port = server.getLocalPort();
+        server.close();
+        DedicatedConnection unreachable = newConnection(port);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    unreachable.getResource();
+                    fail();
+                } catch (JedisConnectionException expected) {
+                    // a connection left in use would keep the second attempt waiting
+                }
+            }
+        } finally {
+            unreachable.close();
+        }
+    }
+
+    private static DedicatedConnection newConnection(int port) {
+        return new DedicatedConnection("localhost", port, 1000, null, 60000, new NamedThreadFactory("Prober", true));
+    }
+
+    private Callable<Jedis> getResource() {
+        return new Callable<Jedis>() {
+            @Override
+            public Jedis call() {
+                return connection.getResource();
+            }
+        };
+    }
+
+}
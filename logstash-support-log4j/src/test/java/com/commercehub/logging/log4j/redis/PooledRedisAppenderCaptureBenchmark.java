@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.commercehub.logging.log4j.redis;
+
+import com.commercehub.logging.log4j.LogstashEventLayout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a logging thread spends in {@link PooledRedisAppender#doAppend} for an event with a stack trace,
+ * in the {@code eager} and {@code deferred} capture modes. Redis is stubbed out, and the appends are spaced out so
+ * that the sender keeps up and every event is queued.
+ * <p>
+ * It isn't run as part of the build; run its {@code main} from the test classpath, optionally passing the number of
+ * events to measure each mode with.
+ */
+public class PooledRedisAppenderCaptureBenchmark {
+
+    private static final int WARMUP_EVENTS = 20000;
+    private static final int STACK_DEPTH = 100;
+    private static final long APPEND_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+    private static final Logger LOGGER = Logger.getLogger(PooledRedisAppenderCaptureBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Throwable throwable = throwableAtDepth(STACK_DEPTH);
+
+        System.out.println("capture mode  mean ns  p50 ns  p99 ns  p99.9 ns  dropped");
+        for (String captureMode : new String[]{"eager", "deferred"}) {
+            measure(captureMode, throwable, WARMUP_EVENTS);
+            measure(captureMode, throwable, events);
+        }
+    }
+
+    private static void measure(String captureMode, Throwable throwable, int events) {
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setQueueSize(64 * 1024);
+        appender.setMaxQueueBytes(Long.MAX_VALUE);
+        appender.setCaptureMode(captureMode);
+        appender.activateOptions();
+        appender.setJedisPool(new StubJedisPool());
+
+        long[] latencies = new long[events];
+        long total = 0;
+        for (int i = 0; i < events; i++) {
+            LoggingEvent event = new LoggingEvent(Logger.class.getName(), LOGGER, Level.ERROR,
+                    "Failed to handle request", throwable);
+            long start = System.nanoTime();
+            appender.doAppend(event);
+            long latency = System.nanoTime() - start;
+            latencies[i] = latency;
+            total += latency;
+            // give the sender time to keep up, so that dropping events doesn't flatter either mode
+            long until = System.nanoTime() + APPEND_INTERVAL_NANOS;
+            while (System.nanoTime() - until < 0) {
+                Thread.yield();
+            }
+        }
+        long dropped = appender.getDroppedEventCount();
+        appender.close();
+
+        if (events == WARMUP_EVENTS) {
+            return;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-12s  %7d  %6d  %6d  %8d  %7d%n", captureMode, total / events,
+                percentile(latencies, 50), percentile(latencies, 99), percentile(latencies, 99.9), dropped);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile / 100 * sorted.length) - 1)];
+    }
+
+    private static Throwable throwableAtDepth(int depth) {
+        if (depth == 0) {
+            return new RuntimeException("I am an Exception.", new IllegalStateException("I am a nested Exception."));
+        }
+        return throwableAtDepth(depth - 1);
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many events per second 1 to 64 logging threads get through {@link PooledRedisAppender#doAppend}, and
+ * through the same appender behind a synchronized doAppend, as {@link org.apache.log4j.AppenderSkeleton} has it. Redis
+ * is stubbed out, so the numbers are those of the appending path and the sender thread alone. Events the queue has no
+ * room for are dropped the same way for both, and counted.
+ * <p>
+ * It isn't run as part of the build; run its {@code main} from the test classpath, optionally passing the number of
+ * seconds to measure each thread count for.
+ */
+public class PooledRedisAppenderContentionBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+    private static final long WARMUP_MILLIS = 1000;
+    private static final Logger LOGGER = Logger.getLogger(PooledRedisAppenderContentionBenchmark.class);
+    private static final String MESSAGE = "I am an awesome message";
+
+    public static void main(String[] args) throws Exception {
+        long measureMillis = TimeUnit.SECONDS.toMillis(args.length > 0 ? Long.parseLong(args[0]) : 2);
+
+        System.out.println("threads  unsynchronized events/s (dropped)  synchronized events/s (dropped)");
+        for (int threadCount : THREAD_COUNTS) {
+            Result unsynchronized = measure(new PooledRedisAppender(), threadCount, measureMillis);
+            Result synchronizedAppend = measure(new SynchronizedAppender(), threadCount, measureMillis);
+            System.out.printf("%7d  %19.0f (%5.1f%%)  %17.0f (%5.1f%%)%n", threadCount,
+                    unsynchronized.eventsPerSecond, unsynchronized.droppedPercentage,
+                    synchronizedAppend.eventsPerSecond, synchronizedAppend.droppedPercentage);
+        }
+    }
+
+    private static Result measure(final PooledRedisAppender appender, int threadCount, long measureMillis)
+            throws InterruptedException {
+        appender.setKey("key");
+        appender.setLayout(new SimpleLayout());
+        appender.setQueueSize(64 * 1024);
+        appender.setBatchSize(100);
+        appender.activateOptions();
+        appender.setJedisPool(new StubJedisPool());
+
+        final AtomicLong[] counts = new AtomicLong[threadCount];
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final AtomicLong count = counts[i] = new AtomicLong();
+            threads[i] = new Thread("producer-" + i) {
+                @Override
+                public void run() {
+                    while (!isInterrupted()) {
+                        appender.doAppend(new LoggingEvent(Logger.class.getName(), LOGGER, Level.INFO, MESSAGE, null));
+                        // only this thread writes it, so an ordered store is enough
+                        count.lazySet(count.get() + 1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        Thread.sleep(WARMUP_MILLIS);
+        long appendedBefore = sum(counts);
+        long droppedBefore = appender.getDroppedEventCount();
+        long start = System.nanoTime();
+        Thread.sleep(measureMillis);
+        long appended = sum(counts) - appendedBefore;
+        long dropped = appender.getDroppedEventCount() - droppedBefore;
+        long elapsed = System.nanoTime() - start;
+
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.close();
+
+        return new Result(appended * (double) TimeUnit.SECONDS.toNanos(1) / elapsed,
+                appended == 0 ? 0 : 100.0 * dropped / appended);
+    }
+
+    private static long sum(AtomicLong[] counts) {
+        long sum = 0;
+        for (AtomicLong count : counts) {
+            sum += count.get();
+        }
+        return sum;
+    }
+
+    private static class Result {
+
+        final double eventsPerSecond;
+        final double droppedPercentage;
+
+        Result(double eventsPerSecond, double droppedPercentage) {
+            this.eventsPerSecond = eventsPerSecond;
+            this.droppedPercentage = droppedPercentage;
+        }
+
+    }
+
+    /**
+     * The appender as it was, with every append taking its turn on the appender's monitor.
+     */
+    private static class SynchronizedAppender extends PooledRedisAppender {
+
+        @Override
+        public synchronized void doAppend(LoggingEvent event) {
+            super.doAppend(event);
+        }
+
+    }
+
+}
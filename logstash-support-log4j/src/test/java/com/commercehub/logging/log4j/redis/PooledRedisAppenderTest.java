@@ -17,21 +17,50 @@
 package com.commercehub.logging.log4j.redis;
 
 import com.commercehub.logging.log4j.LogstashEventLayout;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
 import org.apache.log4j.Category;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LocationInfo;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.ThrowableInformation;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import redis.clients.jedis.BuilderFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class PooledRedisAppenderTest {
 
@@ -48,6 +77,9 @@ public class PooledRedisAppenderTest {
     LocationInfo info = new LocationInfo("file1", "classname1", "method1", "line1");
     Map<String, String> properties = new HashMap<>();
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testBrokenConnectionCausesReturnOfBrokenJedisToPool() throws Throwable {
 
@@ -60,6 +92,7 @@ public class PooledRedisAppenderTest {
 
         PooledRedisAppender appender = new PooledRedisAppender();
         appender.setKey("key");
+        appender.setFlushMode("periodic");
         appender.setLayout(new LogstashEventLayout());
         appender.setJedisPoolConfig(new JedisPoolConfig());
         appender.activateOptions();
@@ -89,6 +122,7 @@ public class PooledRedisAppenderTest {
 
         PooledRedisAppender appender = new PooledRedisAppender();
         appender.setKey("key");
+        appender.setFlushMode("periodic");
         appender.setLayout(new LogstashEventLayout());
         appender.setJedisPoolConfig(new JedisPoolConfig());
         appender.activateOptions();
@@ -112,4 +146,925 @@ public class PooledRedisAppenderTest {
         EasyMock.verify(pool);
     }
 
+    @Test
+    public void testEventsArePushedAsEncodedBytes() throws Throwable {
+        LoggingEvent loggingEvent = new LoggingEvent(
+                null, logger, timeStamp, level, message, threadName,
+                throwableInformation, ndc, info, properties);
+        LogstashEventLayout layout = new LogstashEventLayout();
+
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(layout);
+        appender.setBatchSize(1);
+        appender.activateOptions();
+
+        appender.setJedisPool(pool);
+        appender.append(loggingEvent);
+
+        EasyMock.expect(pool.getResource()).andReturn(jedis);
+        EasyMock.expect(jedis.rpush(EasyMock.aryEq("key".getBytes("UTF-8")),
+                EasyMock.aryEq(layout.encode(loggingEvent)))).andReturn(1L);
+        pool.returnResource(jedis);
+        pool.destroy();
+
+        EasyMock.replay(pool, jedis);
+        appender.run();
+        appender.close();
+
+        EasyMock.verify(pool, jedis);
+    }
+
+    @Test
+    public void testBatchIsPushedAsOneCompressedEnvelope() throws Throwable {
+        LogstashEventLayout layout = new LogstashEventLayout();
+        LoggingEvent[] loggingEvents = new LoggingEvent[3];
+        for (int i = 0; i < loggingEvents.length; i++) {
+            loggingEvents[i] = new LoggingEvent(
+                    null, logger, timeStamp + i, level, message, threadName,
+                    throwableInformation, ndc, info, properties);
+        }
+
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(layout);
+        appender.setBatchSize(10);
+        appender.setAlwaysBatch(false);
+        appender.setCompression("gzip");
+        appender.activateOptions();
+
+        appender.setJedisPool(pool);
+        for (LoggingEvent loggingEvent : loggingEvents) {
+            appender.append(loggingEvent);
+        }
+
+        Capture<byte[]> envelope = new Capture<>();
+        EasyMock.expect(pool.getResource()).andReturn(jedis);
+        EasyMock.expect(jedis.rpush(EasyMock.aryEq("key".getBytes("UTF-8")), EasyMock.capture(envelope)))
+                .andReturn(1L);
+        pool.returnResource(jedis);
+        pool.destroy();
+
+        EasyMock.replay(pool, jedis);
+        appender.run();
+        appender.close();
+
+        EasyMock.verify(pool, jedis);
+        List<byte[]> events = BatchEnvelopeReader.read(envelope.getValue());
+        assertEquals(loggingEvents.length, events.size());
+        for (int i = 0; i < loggingEvents.length; i++) {
+            assertArrayEquals(layout.encode(loggingEvents[i]), events.get(i));
+        }
+    }
+
+    @Test
+    public void testDropNewestKeepsQueuedEvents() throws Throwable {
+        List<String> sent = fillQueueOfTwoAndSend("drop_newest", 0);
+
+        assertEquals(Arrays.asList("event 0", "event 1"), sent);
+    }
+
+    @Test
+    public void testDropOldestKeepsLatestEvents() throws Throwable {
+        List<String> sent = fillQueueOfTwoAndSend("drop_oldest", 0);
+
+        assertEquals(Arrays.asList("event 3", "event 4"), sent);
+    }
+
+    @Test
+    public void testBlockDropsEventsAfterTimeout() throws Throwable {
+        long start = System.nanoTime();
+
+        List<String> sent = fillQueueOfTwoAndSend("block", 20);
+
+        assertEquals(Arrays.asList("event 0", "event 1"), sent);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(3 * 20));
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws Throwable {
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createNiceMock(Jedis.class);
+
+        final PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(1);
+        appender.setQueueSize(1);
+        appender.setOverflowPolicy("block");
+        appender.setBlockTimeout(TimeUnit.SECONDS.toMillis(10));
+        appender.setPeriod(TimeUnit.HOURS.toMillis(1));
+        appender.activateOptions();
+
+        appender.setJedisPool(pool);
+        EasyMock.expect(pool.getResource()).andReturn(jedis).anyTimes();
+        pool.returnResource(jedis);
+        EasyMock.expectLastCall().anyTimes();
+        EasyMock.replay(pool, jedis);
+
+        appender.append(newLoggingEvent("event 0"));
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                appender.run();
+            }
+        };
+        consumer.start();
+        long start = System.nanoTime();
+        appender.append(newLoggingEvent("event 1"));
+        long blocked = System.nanoTime() - start;
+        consumer.join();
+
+        assertEquals(0, appender.getDroppedEventCount());
+        assertTrue(blocked < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testQueueIsBoundedByBytes() throws Throwable {
+        StringBuilder largeMessage = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            largeMessage.append("0123456789");
+        }
+        LoggingEvent largeEvent = newLoggingEvent(largeMessage.toString());
+        int largeEventSize = PooledRedisAppender.estimateSize(largeEvent);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setMaxQueueBytes(3 * largeEventSize);
+        appender.setPeriod(TimeUnit.HOURS.toMillis(1));
+        appender.activateOptions();
+
+        for (int i = 0; i < 10; i++) {
+            appender.append(newLoggingEvent(largeMessage.toString()));
+        }
+
+        assertEquals(3 * largeEventSize, appender.getQueuedBytes());
+        assertEquals(7, appender.getDroppedEventCount());
+        appender.close();
+    }
+
+    @Test
+    public void testOversizedEventIsQueuedWhenQueueIsEmpty() throws Throwable {
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setMaxQueueBytes(1);
+        appender.setPeriod(TimeUnit.HOURS.toMillis(1));
+        appender.activateOptions();
+
+        appender.append(newLoggingEvent("event 0"));
+        appender.append(newLoggingEvent("event 1"));
+
+        assertEquals(1, appender.getDroppedEventCount());
+        appender.close();
+    }
+
+    @Test
+    public void testDoAppendAppliesThresholdAndFilters() throws Throwable {
+        PooledRedisAppender appender = newEnvelopeAppender();
+        appender.setThreshold(Level.WARN);
+        appender.addFilter(new Filter() {
+            @Override
+            public int decide(LoggingEvent event) {
+                return "denied".equals(event.getMessage()) ? DENY : NEUTRAL;
+            }
+        });
+        appender.activateOptions();
+
+        appender.doAppend(newLoggingEvent(Level.INFO, "below threshold"));
+        appender.doAppend(newLoggingEvent(Level.ERROR, "denied"));
+        appender.doAppend(newLoggingEvent(Level.WARN, "kept"));
+
+        assertEquals(Collections.singletonList("kept"), runAndCaptureEnvelope(appender));
+    }
+
+    @Test
+    public void testDoAppendDoesNotHoldTheAppendersMonitor() throws Throwable {
+        final PooledRedisAppender appender = newEnvelopeAppender();
+        appender.activateOptions();
+        final CountDownLatch appended = new CountDownLatch(1);
+
+        synchronized (appender) {
+            new Thread() {
+                @Override
+                public void run() {
+                    appender.doAppend(newLoggingEvent("event 0"));
+                    appended.countDown();
+                }
+            }.start();
+            assertTrue(appended.await(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(Collections.singletonList("event 0"), runAndCaptureEnvelope(appender));
+    }
+
+    @Test
+    public void testEagerCaptureRendersTheMessageWhenAppending() throws Throwable {
+        assertEquals(Collections.singletonList("as logged"), sendAfterChangingMessage("eager"));
+    }
+
+    @Test
+    public void testDeferredCaptureRendersTheMessageWhenEncoding() throws Throwable {
+        assertEquals(Collections.singletonList("as encoded"), sendAfterChangingMessage("deferred"));
+    }
+
+    @Test
+    public void testEagerCaptureLeavesTheStackTraceToTheLayout() throws Throwable {
+        final AtomicInteger printed = new AtomicInteger();
+        RuntimeException failure = new RuntimeException(exceptionMessage) {
+            @Override
+            public void printStackTrace(PrintWriter writer) {
+                printed.incrementAndGet();
+                super.printStackTrace(writer);
+            }
+        };
+        PooledRedisAppender appender = newEnvelopeAppender();
+        appender.activateOptions();
+
+        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, level, message, failure));
+        assertEquals(0, printed.get());
+
+        byte[] envelope = runAndCaptureEnvelopeBytes(appender);
+        JSONObject event = (JSONObject) JSONValue.parse(new String(BatchEnvelopeReader.read(envelope).get(0), "UTF-8"));
+        assertEquals(exceptionMessage, ((JSONObject) event.get("exception")).get("message"));
+        assertEquals(0, printed.get());
+    }
+
+    @Test
+    public void testDeferredCaptureKeepsWhatIsBoundToTheLoggingThread() throws Throwable {
+        final PooledRedisAppender appender = newEnvelopeAppender();
+        appender.setCaptureMode("deferred");
+        appender.activateOptions();
+
+        Thread loggingThread = new Thread("logging-thread") {
+            @Override
+            public void run() {
+                MDC.put("request", "42");
+                appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, level, message, runtimeException));
+                MDC.remove("request");
+            }
+        };
+        loggingThread.start();
+        loggingThread.join();
+
+        byte[] envelope = runAndCaptureEnvelopeBytes(appender);
+        JSONObject event = (JSONObject) JSONValue.parse(new String(BatchEnvelopeReader.read(envelope).get(0), "UTF-8"));
+        assertEquals("logging-thread", event.get("thread"));
+        assertEquals("42", ((JSONObject) event.get("mdc")).get("request"));
+        assertEquals(exceptionMessage, ((JSONObject) event.get("exception")).get("message"));
+        assertEquals(0, appender.getQueuedBytes());
+    }
+
+    @Test
+    public void testAppendersOnASharedEngineSendOnItsThreads() throws Throwable {
+        final List<String> pushes = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch pushed = new CountDownLatch(2);
+        JedisPool pool = new JedisPool("localhost") {
+            @Override
+            public Jedis getResource() {
+                return new Jedis("localhost") {
+                    @Override
+                    public Long rpush(byte[] key, byte[]... strings) {
+                        pushes.add(new String(key) + " " + strings.length + " " + Thread.currentThread().getName());
+                        pushed.countDown();
+                        return (long) strings.length;
+                    }
+                };
+            }
+
+            @Override
+            public void returnResource(Jedis resource) {
+            }
+        };
+        int engines = RedisEngine.engineCount();
+        PooledRedisAppender first = newSharedEngineAppender("first", pool);
+        PooledRedisAppender second = newSharedEngineAppender("second", pool);
+        assertEquals(engines + 1, RedisEngine.engineCount());
+
+        first.append(newLoggingEvent("event 0"));
+        second.append(newLoggingEvent("event 0"));
+        first.append(newLoggingEvent("event 1"));
+        second.append(newLoggingEvent("event 1"));
+
+        assertTrue(pushed.await(10, TimeUnit.SECONDS));
+        first.close();
+        second.close();
+        assertEquals(engines, RedisEngine.engineCount());
+        Collections.sort(pushes);
+        assertEquals(2, pushes.size());
+        assertTrue(pushes.get(0), pushes.get(0).startsWith("first 2 RedisEngine-localhost:6379-Thread-"));
+        assertTrue(pushes.get(1), pushes.get(1).startsWith("second 2 RedisEngine-localhost:6379-Thread-"));
+    }
+
+    @Test
+    public void testPriorityLanesSendMoreSevereEventsFirst() throws Throwable {
+        PooledRedisAppender appender = newEnvelopeAppender();
+        appender.setPriorityLanes(true);
+        appender.activateOptions();
+
+        appender.append(newLoggingEvent(Level.INFO, "info 0"));
+        appender.append(newLoggingEvent(Level.WARN, "warn 0"));
+        appender.append(newLoggingEvent(Level.DEBUG, "debug 0"));
+        appender.append(newLoggingEvent(Level.ERROR, "error 0"));
+        appender.append(newLoggingEvent(Level.FATAL, "fatal 0"));
+
+        assertEquals(Arrays.asList("error 0", "fatal 0", "warn 0", "info 0", "debug 0"), runAndCaptureEnvelope(appender));
+    }
+
+    @Test
+    public void testPriorityLanesShedLessSevereEventsFirst() throws Throwable {
+        LoggingEvent sizedEvent = newLoggingEvent(Level.INFO, "info 0");
+        PooledRedisAppender appender = newEnvelopeAppender();
+        appender.setPriorityLanes(true);
+        appender.setMaxQueueBytes(3 * PooledRedisAppender.estimateSize(sizedEvent));
+        appender.activateOptions();
+
+        appender.append(newLoggingEvent(Level.INFO, "info 0"));
+        appender.append(newLoggingEvent(Level.WARN, "warn 0"));
+        appender.append(newLoggingEvent(Level.INFO, "info 1"));
+        appender.append(newLoggingEvent(Level.ERROR, "fail 0"));
+        appender.append(newLoggingEvent(Level.DEBUG, "dbug 0"));
+
+        assertEquals(2, appender.getDroppedEventCount());
+        assertEquals(1, appender.getDroppedEventCount(Level.INFO));
+        assertEquals(1, appender.getDroppedEventCount(Level.DEBUG));
+        assertEquals(0, appender.getDroppedEventCount(Level.ERROR));
+        assertEquals(Arrays.asList("fail 0", "warn 0", "info 1"), runAndCaptureEnvelope(appender));
+    }
+
+    @Test
+    public void testBatchesAreSplitToStayWithinByteBudget() throws Throwable {
+        LogstashEventLayout layout = new LogstashEventLayout();
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(layout);
+        appender.setBatchSize(10);
+        appender.setAlwaysBatch(false);
+        appender.setCompression("gzip");
+        appender.setMaxBatchBytes(2 * layout.encode(newLoggingEvent("event 0")).length);
+        appender.setPeriod(TimeUnit.HOURS.toMillis(1));
+        appender.activateOptions();
+
+        appender.setJedisPool(pool);
+        for (int i = 0; i < 5; i++) {
+            appender.append(newLoggingEvent("event " + i));
+        }
+
+        Capture<byte[]> envelopes = new Capture<>(CaptureType.ALL);
+        EasyMock.expect(pool.getResource()).andReturn(jedis).times(3);
+        EasyMock.expect(jedis.rpush(EasyMock.aryEq("key".getBytes("UTF-8")), EasyMock.capture(envelopes)))
+                .andReturn(1L).times(3);
+        pool.returnResource(jedis);
+        EasyMock.expectLastCall().times(3);
+        pool.destroy();
+
+        EasyMock.replay(pool, jedis);
+        appender.run();
+        appender.close();
+
+        EasyMock.verify(pool, jedis);
+        assertEquals(2, BatchEnvelopeReader.read(envelopes.getValues().get(0)).size());
+        assertEquals(2, BatchEnvelopeReader.read(envelopes.getValues().get(1)).size());
+        assertEquals(1, BatchEnvelopeReader.read(envelopes.getValues().get(2)).size());
+        assertEquals(0, appender.getQueuedBytes());
+    }
+
+    @Test
+    public void testLingerModeSendsAsSoonAsBatchFills() throws Throwable {
+        List<String> sent = appendAndAwaitEnvelope(3, TimeUnit.MINUTES.toMillis(10), 3);
+
+        assertEquals(Arrays.asList("event 0", "event 1", "event 2"), sent);
+    }
+
+    @Test
+    public void testLingerModeSendsPartialBatchAfterMaxLinger() throws Throwable {
+        long start = System.nanoTime();
+
+        List<String> sent = appendAndAwaitEnvelope(100, 50, 2);
+
+        assertEquals(Arrays.asList("event 0", "event 1"), sent);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testPipelinedBatchesAreSyncedOncePerWindow() throws Throwable {
+        LogstashEventLayout layout = new LogstashEventLayout();
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+        Pipeline pipeline = EasyMock.createMock(Pipeline.class);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(layout);
+        appender.setBatchSize(1);
+        appender.setMaxBatchesInFlight(2);
+        appender.activateOptions();
+
+        appender.setJedisPool(pool);
+        LoggingEvent[] loggingEvents = new LoggingEvent[3];
+        for (int i = 0; i < loggingEvents.length; i++) {
+            loggingEvents[i] = newLoggingEvent("event " + i);
+            appender.append(loggingEvents[i]);
+        }
+
+        EasyMock.expect(pool.getResource()).andReturn(jedis).times(2);
+        EasyMock.expect(jedis.pipelined()).andReturn(pipeline).times(2);
+        for (LoggingEvent loggingEvent : loggingEvents) {
+            EasyMock.expect(pipeline.rpush(EasyMock.aryEq("key".getBytes("UTF-8")),
+                    EasyMock.aryEq(layout.encode(loggingEvent)))).andReturn(reply(1L));
+        }
+        pipeline.sync();
+        EasyMock.expectLastCall().times(2);
+        pool.returnResource(jedis);
+        EasyMock.expectLastCall().times(2);
+
+        EasyMock.replay(pool, jedis, pipeline);
+        appender.run();
+
+        EasyMock.verify(pool, jedis, pipeline);
+        assertEquals(0, appender.getDroppedEventCount());
+    }
+
+    @Test
+    public void testPipelinedBatchRejectedByRedisIsCountedAsDropped() throws Throwable {
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+        Pipeline pipeline = EasyMock.createMock(Pipeline.class);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(2);
+        appender.setMaxBatchesInFlight(4);
+        appender.activateOptions();
+
+        appender.setJedisPool(pool);
+        for (int i = 0; i < 4; i++) {
+            appender.append(newLoggingEvent("event " + i));
+        }
+
+        EasyMock.expect(pool.getResource()).andReturn(jedis);
+        EasyMock.expect(jedis.pipelined()).andReturn(pipeline);
+        EasyMock.expect(pipeline.rpush(EasyMock.aryEq("key".getBytes("UTF-8")),
+                EasyMock.<byte[]>anyObject(), EasyMock.<byte[]>anyObject()))
+                .andReturn(reply(2L))
+                .andReturn(reply(new JedisDataException("WRONGTYPE Operation against a key holding the wrong kind of value")));
+        pipeline.sync();
+        pool.returnResource(jedis);
+
+        EasyMock.replay(pool, jedis, pipeline);
+        appender.run();
+
+        EasyMock.verify(pool, jedis, pipeline);
+        assertEquals(2, appender.getDroppedEventCount());
+    }
+
+    @Test
+    public void testEncoderThreadsKeepEachProducersOrder() throws Throwable {
+        final int producers = 4;
+        final int eventsPerProducer = 25;
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+        final CountDownLatch pushed = new CountDownLatch(1);
+
+        final PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(producers * eventsPerProducer);
+        appender.setMaxLinger(TimeUnit.SECONDS.toMillis(10));
+        appender.setCompression("gzip");
+        appender.setEncoderThreads(3);
+        appender.activateOptions();
+        appender.setJedisPool(pool);
+
+        Capture<byte[]> envelope = new Capture<>();
+        EasyMock.expect(pool.getResource()).andReturn(jedis);
+        EasyMock.expect(jedis.rpush(EasyMock.aryEq("key".getBytes("UTF-8")), EasyMock.capture(envelope)))
+                .andReturn(1L);
+        pool.returnResource(jedis);
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+            @Override
+            public Void answer() throws Throwable {
+                pushed.countDown();
+                return null;
+            }
+        });
+        pool.destroy();
+        EasyMock.replay(pool, jedis);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < eventsPerProducer; i++) {
+                        appender.append(newLoggingEvent(producer + ":" + i));
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(pushed.await(10, TimeUnit.SECONDS));
+        appender.close();
+        EasyMock.verify(pool, jedis);
+
+        List<String> messages = messages(envelope.getValue());
+        assertEquals(producers * eventsPerProducer, messages.size());
+        int[] next = new int[producers];
+        for (String message : messages) {
+            String[] parts = message.split(":");
+            int producer = Integer.parseInt(parts[0]);
+            assertEquals(next[producer]++, Integer.parseInt(parts[1]));
+        }
+        assertEquals(0, appender.getQueuedBytes());
+        assertEquals(0, appender.getDroppedEventCount());
+    }
+
+    @Test
+    public void testSharedEngineIsNotActivatedWithADedicatedConnectionOrTheNioTransport() {
+        int engines = RedisEngine.engineCount();
+        String[][] settings = {{"dedicated", "jedis"}, {"pooled", "nio"}};
+        for (String[] setting : settings) {
+            PooledRedisAppender appender = new PooledRedisAppender();
+            appender.setKey("key");
+            appender.setLayout(new LogstashEventLayout());
+            appender.setSharedEngine(true);
+            appender.setConnectionMode(setting[0]);
+            appender.setTransport(setting[1]);
+            appender.activateOptions();
+
+            assertEquals(engines, RedisEngine.engineCount());
+            appender.close();
+        }
+    }
+
+    @Test
+    public void testCloseEndsAnEncoderThreadWaitingForTheSender() throws Throwable {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> encoder = new AtomicReference<>();
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setLayout(new SimpleLayout() {
+            @Override
+            public String format(LoggingEvent event) {
+                encoder.set(Thread.currentThread());
+                return super.format(event);
+            }
+        });
+        appender.setQueueSize(2);
+        appender.setBatchSize(1);
+        appender.setEncoderThreads(1);
+        appender.activateOptions();
+        appender.setJedisPool(new StubJedisPool() {
+            @Override
+            public Jedis getResource() {
+                // the sender is stuck until the test is done, even once the appender is closed
+                boolean interrupted = false;
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getResource();
+            }
+        });
+
+        try {
+            // one event for the stuck sender, two for the output queue and one the encoder can't hand over
+            for (int i = 0; i < 4; i++) {
+                appender.append(newLoggingEvent("event " + i));
+                Thread.sleep(50);
+            }
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (encoder.get() == null || encoder.get().getState() != Thread.State.TIMED_WAITING) {
+                assertTrue("encoder never waited for the sender", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+
+            appender.close();
+
+            encoder.get().join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(encoder.get().isAlive());
+            assertEquals(1, appender.getDroppedEventCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testUnreachableRedisIsNotTriedAgainDuringBackoff() throws Throwable {
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        EasyMock.expect(pool.getResource()).andThrow(new JedisConnectionException("unreachable")).times(1);
+        EasyMock.replay(pool);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(1);
+        appender.setInitialBackoff(TimeUnit.HOURS.toMillis(1));
+        appender.setPeriod(TimeUnit.HOURS.toMillis(1));
+        appender.activateOptions();
+        appender.setJedisPool(pool);
+
+        for (int i = 0; i < 3; i++) {
+            appender.append(newLoggingEvent("event " + i));
+            appender.run();
+        }
+
+        EasyMock.verify(pool);
+        assertEquals(3, appender.getDroppedEventCount());
+    }
+
+    @Test
+    public void testBatchesAreSpilledWhileRedisIsUnreachable() throws Throwable {
+        JedisPool pool = EasyMock.createNiceMock(JedisPool.class);
+        EasyMock.expect(pool.getResource()).andThrow(new JedisConnectionException("unreachable")).anyTimes();
+        EasyMock.replay(pool);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(2);
+        appender.setAlwaysBatch(false);
+        appender.setSpillDirectory(folder.getRoot().getPath());
+        appender.setPeriod(TimeUnit.HOURS.toMillis(1));
+        appender.activateOptions();
+        appender.setJedisPool(pool);
+
+        for (int i = 0; i < 3; i++) {
+            appender.append(newLoggingEvent("event " + i));
+        }
+        appender.run();
+        appender.close();
+
+        assertEquals(0, appender.getDroppedEventCount());
+        SpillJournal journal = new SpillJournal(folder.getRoot(), Long.MAX_VALUE, SpillJournal.DEFAULT_SEGMENT_BYTES);
+        assertEquals(Arrays.asList("event 0", "event 1"), messages(journal.peek()));
+        journal.remove();
+        assertEquals(Arrays.asList("event 2"), messages(journal.peek()));
+        journal.remove();
+        assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testSpilledBatchesAreReplayedOnceRedisIsReachable() throws Throwable {
+        SpillJournal journal = new SpillJournal(folder.getRoot(), Long.MAX_VALUE, SpillJournal.DEFAULT_SEGMENT_BYTES);
+        journal.append(new byte[][]{"first".getBytes("UTF-8"), "second".getBytes("UTF-8")}, 2);
+        journal.append(new byte[][]{"third".getBytes("UTF-8")}, 1);
+        journal.close();
+
+        final List<byte[][]> elements = Collections.synchronizedList(new ArrayList<byte[][]>());
+        final CountDownLatch replayed = new CountDownLatch(1);
+        Jedis jedis = new Jedis("localhost") {
+            @Override
+            public Long rpush(byte[] key, byte[]... strings) {
+                assertArrayEquals("key".getBytes(), key);
+                elements.add(strings);
+                return 1L;
+            }
+        };
+        JedisPool pool = EasyMock.createNiceMock(JedisPool.class);
+        EasyMock.expect(pool.getResource()).andReturn(jedis).anyTimes();
+        // the connection is handed back once the replayed batches have been taken off the journal
+        pool.returnResource(jedis);
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+            @Override
+            public Void answer() throws Throwable {
+                if (elements.size() == 2) {
+                    replayed.countDown();
+                }
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(pool);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setSpillDirectory(folder.getRoot().getPath());
+        appender.activateOptions();
+        appender.setJedisPool(pool);
+
+        assertTrue(replayed.await(10, TimeUnit.SECONDS));
+        appender.close();
+
+        assertEquals(2, elements.size());
+        assertArrayEquals(new byte[][]{"first".getBytes("UTF-8"), "second".getBytes("UTF-8")}, elements.get(0));
+        assertArrayEquals(new byte[][]{"third".getBytes("UTF-8")}, elements.get(1));
+        journal = new SpillJournal(folder.getRoot(), Long.MAX_VALUE, SpillJournal.DEFAULT_SEGMENT_BYTES);
+        assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    private static Response<Long> reply(Object data) {
+        Response<Long> response = new Response<>(BuilderFactory.LONG);
+        response.set(data);
+        return response;
+    }
+
+    private List<String> appendAndAwaitEnvelope(int batchSize, long maxLinger, int eventCount) throws Throwable {
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+        final CountDownLatch pushed = new CountDownLatch(1);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(batchSize);
+        appender.setMaxLinger(maxLinger);
+        appender.setCompression("gzip");
+        appender.activateOptions();
+        appender.setJedisPool(pool);
+
+        Capture<byte[]> envelope = new Capture<>();
+        EasyMock.expect(pool.getResource()).andReturn(jedis);
+        EasyMock.expect(jedis.rpush(EasyMock.aryEq("key".getBytes("UTF-8")), EasyMock.capture(envelope)))
+                .andReturn(1L);
+        pool.returnResource(jedis);
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+            @Override
+            public Void answer() throws Throwable {
+                pushed.countDown();
+                return null;
+            }
+        });
+        pool.destroy();
+        EasyMock.replay(pool, jedis);
+
+        for (int i = 0; i < eventCount; i++) {
+            appender.append(newLoggingEvent("event " + i));
+        }
+
+        assertTrue(pushed.await(10, TimeUnit.SECONDS));
+        appender.close();
+        EasyMock.verify(pool, jedis);
+        return messages(envelope.getValue());
+    }
+
+    private List<String> fillQueueOfTwoAndSend(String overflowPolicy, long blockTimeout) throws Throwable {
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(10);
+        appender.setAlwaysBatch(false);
+        appender.setCompression("gzip");
+        appender.setQueueSize(2);
+        appender.setOverflowPolicy(overflowPolicy);
+        appender.setBlockTimeout(blockTimeout);
+        appender.setPeriod(TimeUnit.HOURS.toMillis(1));
+        appender.activateOptions();
+
+        appender.setJedisPool(pool);
+        for (int i = 0; i < 5; i++) {
+            appender.append(newLoggingEvent("event " + i));
+        }
+        assertEquals(3, appender.getDroppedEventCount());
+
+        Capture<byte[]> envelope = new Capture<>();
+        EasyMock.expect(pool.getResource()).andReturn(jedis);
+        EasyMock.expect(jedis.rpush(EasyMock.aryEq("key".getBytes("UTF-8")), EasyMock.capture(envelope)))
+                .andReturn(1L);
+        pool.returnResource(jedis);
+        pool.destroy();
+
+        EasyMock.replay(pool, jedis);
+        appender.run();
+        appender.close();
+
+        EasyMock.verify(pool, jedis);
+        return messages(envelope.getValue());
+    }
+
+    private PooledRedisAppender newSharedEngineAppender(String key, JedisPool pool) {
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey(key);
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(2);
+        appender.setMaxLinger(TimeUnit.HOURS.toMillis(1));
+        appender.setSharedEngine(true);
+        appender.activateOptions();
+        appender.setJedisPool(pool);
+        return appender;
+    }
+
+    /**
+     * @return an appender, not yet activated, which sends what it has queued as one envelope when it is run
+     */
+    private PooledRedisAppender newEnvelopeAppender() {
+        PooledRedisAppender appender = new PooledRedisAppender();
+        appender.setKey("key");
+        appender.setFlushMode("periodic");
+        appender.setLayout(new LogstashEventLayout());
+        appender.setBatchSize(10);
+        appender.setAlwaysBatch(false);
+        appender.setCompression("gzip");
+        appender.setPeriod(TimeUnit.HOURS.toMillis(1));
+        return appender;
+    }
+
+    private List<String> runAndCaptureEnvelope(PooledRedisAppender appender) throws Throwable {
+        return messages(runAndCaptureEnvelopeBytes(appender));
+    }
+
+    private List<String> sendAfterChangingMessage(String captureMode) throws Throwable {
+        PooledRedisAppender appender = newEnvelopeAppender();
+        appender.setCaptureMode(captureMode);
+        appender.activateOptions();
+        StringBuilder message = new StringBuilder("as logged");
+
+        appender.doAppend(newLoggingEvent(message));
+        message.setLength(0);
+        message.append("as encoded");
+
+        return runAndCaptureEnvelope(appender);
+    }
+
+    private byte[] runAndCaptureEnvelopeBytes(PooledRedisAppender appender) throws Throwable {
+        JedisPool pool = EasyMock.createMock(JedisPool.class);
+        Jedis jedis = EasyMock.createMock(Jedis.class);
+        appender.setJedisPool(pool);
+
+        Capture<byte[]> envelope = new Capture<>();
+        EasyMock.expect(pool.getResource()).andReturn(jedis);
+        EasyMock.expect(jedis.rpush(EasyMock.aryEq("key".getBytes("UTF-8")), EasyMock.capture(envelope)))
+                .andReturn(1L);
+        pool.returnResource(jedis);
+        pool.destroy();
+
+        EasyMock.replay(pool, jedis);
+        appender.run();
+        appender.close();
+
+        EasyMock.verify(pool, jedis);
+        return envelope.getValue();
+    }
+
+    private static List<String> messages(byte[][] events) throws Exception {
+        List<String> messages = new ArrayList<>();
+        for (byte[] event : events) {
+            messages.add((String) ((JSONObject) JSONValue.parse(new String(event, "UTF-8"))).get("message"));
+        }
+        return messages;
+    }
+
+    private static List<String> messages(byte[] envelope) throws Exception {
+        List<String> messages = new ArrayList<>();
+        for (byte[] event : BatchEnvelopeReader.read(envelope)) {
+            messages.add((String) ((JSONObject) JSONValue.parse(new String(event, "UTF-8"))).get("message"));
+        }
+        return messages;
+    }
+
+    private LoggingEvent newLoggingEvent(Object message) {
+        return newLoggingEvent(level, message);
+    }
+
+    private LoggingEvent newLoggingEvent(Level level, Object message) {
+        return new LoggingEvent(
+                null, logger, timeStamp, level, message, threadName,
+                throwableInformation, ndc, info, properties);
+    }
+
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.commercehub.logging.log4j.redis;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RespClientTest {
+
+    ServerSocket server;
+    Socket accepted;
+    ExecutorService redis = Executors.newSingleThreadExecutor();
+    RespClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0);
+        client = new RespClient("localhost", server.getLocalPort(), 500, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        redis.shutdownNow();
+        if (accepted != null) accepted.close();
+        server.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testRpushIsFramedAroundTheElements() throws Exception {
+        String request = "*4\r\n$5\r\nRPUSH\r\n$3\r\nkey\r\n$1\r\na\r\n$10\r\nbcdefghijk\r\n";
+        Future<String> received = serve(request.length(), ":2\r\n");
+
+        long length = client.rpush(bytes("key"), new byte[][]{bytes("a"), bytes("bcdefghijk"), bytes("unsent")}, 2);
+
+        assertEquals(request, received.get());
+        assertEquals(2, length);
+    }
+
+    @Test(timeout = 10000)
+    public void testManyElementsAreWrittenTogether() throws Exception {
+        byte[][] elements = new byte[3000][];
+        StringBuilder request = new StringBuilder("*3002\r\n$5\r\nRPUSH\r\n$1\r\nk\r\n");
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = bytes("event " + i);
+            request.append('$').append(elements[i].length).append("\r\n").append("event ").append(i).append("\r\n");
+        }
+        Future<String> received = serve(request.length(), ":3000\r\n");
+
+        assertEquals(3000, client.rpush(bytes("k"), elements, elements.length));
+        assertEquals(request.toString(), received.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testErrorReplyKeepsTheConnection() throws Exception {
+        String request = "*3\r\n$5\r\nRPUSH\r\n$1\r\nk\r\n$1\r\na\r\n";
+        Future<String> received = serve(request.length(), "-WRONGTYPE not a list\r\n");
+        try {
+            client.rpush(bytes("k"), new byte[][]{bytes("a")}, 1);
+            fail();
+        } catch (JedisDataException e) {
+            assertEquals("WRONGTYPE not a list", e.getMessage());
+        }
+        received.get();
+
+        received = reply(request.length(), ":1\r\n");
+        assertEquals(1, client.rpush(bytes("k"), new byte[][]{bytes("a")}, 1));
+        received.get();
+    }
+
+    @Test(timeout = 10000)
+    public void testMissingReplyTimesOut() throws Exception {
+        serve(0, "");
+        try {
+            client.ping();
+            fail();
+        } catch (JedisConnectionException expected) {
+            // nothing came back within the timeout
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testUnreachableRedisIsAConnectionProblem() throws IOException {
+        server.close();
+        try {
+            client.ping();
+            fail();
+        } catch (JedisConnectionException expected) {
+            // as with Jedis
+        }
+    }
+
+    /**
+     * Accepts the client's connection, then reads the request and answers it.
+     */
+    private Future<String> serve(final int requestLength, final String reply) {
+        return redis.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                accepted = server.accept();
+                return answer(requestLength, reply);
+            }
+        });
+    }
+
+    /**
+     * Reads the next request on the connection already accepted, and answers it.
+     */
+    private Future<String> reply(final int requestLength, final String reply) {
+        return redis.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return answer(requestLength, reply);
+            }
+        });
+    }
+
+    private String answer(int requestLength, String reply) throws IOException {
+        byte[] request = new byte[requestLength];
+        new DataInputStream(accepted.getInputStream()).readFully(request);
+        accepted.getOutputStream().write(bytes(reply));
+        accepted.getOutputStream().flush();
+        return new String(request, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpillJournalTest {
+
+    private static final int SEGMENT_BYTES = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAreReadInOrder() throws Exception {
+        SpillJournal journal = new SpillJournal(folder.getRoot(), 1024, SEGMENT_BYTES);
+        assertTrue(journal.isEmpty());
+
+        assertTrue(journal.append(elements("a", "b", "left over"), 2));
+        assertTrue(journal.append(elements("c"), 1));
+
+        assertFalse(journal.isEmpty());
+        assertArrayEquals(elements("a", "b"), journal.peek());
+        assertArrayEquals(elements("a", "b"), journal.peek());
+        journal.remove();
+        assertArrayEquals(elements("c"), journal.peek());
+        journal.remove();
+        assertNull(journal.peek());
+        assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testUnreadRecordsSurviveReopening() throws Exception {
+        SpillJournal journal = new SpillJournal(folder.getRoot(), 1024, SEGMENT_BYTES);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(journal.append(elements("record " + i), 1));
+        }
+        for (int i = 0; i < 4; i++) {
+            journal.remove();
+        }
+        journal.close();
+
+        journal = new SpillJournal(folder.getRoot(), 1024, SEGMENT_BYTES);
+        for (int i = 4; i < 10; i++) {
+            assertArrayEquals(elements("record " + i), journal.peek());
+            journal.remove();
+        }
+        assertTrue(journal.isEmpty());
+
+        assertTrue(journal.append(elements("after reopening"), 1));
+        assertArrayEquals(elements("after reopening"), journal.peek());
+        journal.close();
+    }
+
+    @Test
+    public void testReadSegmentsAreDeleted() throws Exception {
+        SpillJournal journal = new SpillJournal(folder.getRoot(), 1024, SEGMENT_BYTES);
+        for (int i = 0; i < 10; i++) {
+            journal.append(elements("record " + i), 1);
+        }
+        assertTrue(segmentFiles().length > 1);
+        assertEquals(segmentFiles().length * SEGMENT_BYTES, journal.getUsedBytes());
+
+        while (!journal.isEmpty()) {
+            journal.remove();
+        }
+
+        // the segment being appended to is kept
+        assertEquals(1, segmentFiles().length);
+        assertEquals(SEGMENT_BYTES, journal.getUsedBytes());
+        journal.close();
+    }
+
+    @Test
+    public void testAppendFailsOverQuota() throws Exception {
+        SpillJournal journal = new SpillJournal(folder.getRoot(), 2 * SEGMENT_BYTES, SEGMENT_BYTES);
+        int appended = 0;
+        while (journal.append(elements("record " + appended), 1)) {
+            appended++;
+        }
+
+        assertTrue(appended > 0);
+        assertEquals(2, segmentFiles().length);
+        for (int i = 0; i < appended; i++) {
+            assertArrayEquals(elements("record " + i), journal.peek());
+            journal.remove();
+        }
+        assertTrue(journal.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    public void testRecordLargerThanASegmentGetsOneOfItsOwn() throws Exception {
+        SpillJournal journal = new SpillJournal(folder.getRoot(), 1024, SEGMENT_BYTES);
+        byte[][] large = {new byte[3 * SEGMENT_BYTES]};
+        large[0][17] = 42;
+
+        assertTrue(journal.append(elements("small"), 1));
+        assertTrue(journal.append(large, 1));
+
+        journal.remove();
+        assertArrayEquals(large, journal.peek());
+        journal.close();
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().listFiles();
+    }
+
+    private static byte[][] elements(String... values) throws Exception {
+        byte[][] elements = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            elements[i] = values[i].getBytes("UTF-8");
+        }
+        return elements;
+    }
+
+}
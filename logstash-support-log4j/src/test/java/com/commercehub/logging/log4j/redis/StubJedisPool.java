@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.log4j.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * A pool whose clients take every RPUSH without connecting anywhere, for the benchmarks and tests.
+ */
+class StubJedisPool extends JedisPool {
+
+    StubJedisPool() {
+        super("localhost");
+    }
+
+    @Override
+    public Jedis getResource() {
+        return new Jedis("localhost") {
+            @Override
+            public Long rpush(byte[] key, byte[]... strings) {
+                return (long) strings.length;
+            }
+        };
+    }
+
+    @Override
+    public void returnResource(Jedis resource) {
+    }
+
+}
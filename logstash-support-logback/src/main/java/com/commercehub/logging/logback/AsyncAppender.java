@@ -16,16 +16,453 @@
 
 package com.commercehub.logging.logback;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
 
-public class AsyncAppender extends ch.qos.logback.classic.AsyncAppender {
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * An async appender in the manner of logback's own, but queueing events in a lock-free {@link RingBuffer} so that
+ * logging threads don't contend for a lock, and handing its worker's drained events to a {@link BatchAppender} all at
+ * once. It takes the same {@code queueSize}, {@code discardingThreshold}, {@code includeCallerData} and
+ * {@code maxFlushTime} settings.
+ * <p>
+ * Besides its queue size, it bounds the estimated number of bytes its queued events hold on to, so that a burst of
+ * events with long stack traces can't take much more memory than a burst of short messages. Events that don't fit the
+ * byte budget are discarded.
+ * <p>
+ * With {@code priorityLanes}, ERROR, WARN and less severe events are queued in lanes of their own, so that a backlog
+ * of INFO and DEBUG events neither delays nor crowds out the events that matter most; see
+ * {@link #setPriorityLanes}.
+ */
+public class AsyncAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderAttachable<ILoggingEvent> {
+
+    public static final int DEFAULT_QUEUE_SIZE = 256;
     public static final int DISCARDING_THRESHOLD_UNDEFINED = -1;
+    public static final long DEFAULT_MAX_QUEUE_BYTES = 32 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FLUSH_TIME = 1000;
+
+    /**
+     * Roughly what an event costs beyond its message and stack trace: the fixed fields, MDC and the object itself.
+     */
+    private static final int EVENT_OVERHEAD_BYTES = 256;
+    private static final int STACK_FRAME_BYTES = 100;
+    private static final int MAX_CAUSE_DEPTH = 64;
+    private static final int MAX_DRAIN_SIZE = 1024;
+    private static final long FULL_QUEUE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private int appenderCount;
+
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private int discardingThreshold = DISCARDING_THRESHOLD_UNDEFINED;
+    private boolean includeCallerData;
+    private int maxFlushTime = DEFAULT_MAX_FLUSH_TIME;
+    private long maxQueueBytes = DEFAULT_MAX_QUEUE_BYTES;
+    private boolean priorityLanes;
+
+    private RingBuffer<ILoggingEvent> queue;
+    private PriorityLanes lanes;
+    private int capacity;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong overBudgetDiscards = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLong> discardsByLevel = new ConcurrentHashMap<>();
+    private Thread worker;
+    private volatile boolean running;
+    private final AtomicBoolean workerSignalled = new AtomicBoolean();
+
+    @Override
+    public void start() {
+        if (appenderCount == 0) {
+            addError("No attached appenders found.");
+            return;
+        }
+        if (queueSize < 1) {
+            addError("Invalid queue size [" + queueSize + "]");
+            return;
+        }
+        if (priorityLanes) {
+            queue = null;
+            lanes = new PriorityLanes(queueSize);
+            capacity = lanes.capacity();
+        } else {
+            queue = new RingBuffer<>(queueSize);
+            lanes = null;
+            capacity = queue.capacity();
+        }
+        queuedBytes.set(0);
+        if (discardingThreshold == DISCARDING_THRESHOLD_UNDEFINED) {
+            discardingThreshold = queueSize / 5;
+        }
+        addInfo("Setting discardingThreshold to " + discardingThreshold);
+
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "AsyncAppender-Worker-" + getName());
+        worker.setDaemon(true);
+        super.start();
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        // the worker isn't interrupted, as logback's is, so that the appenders it is still calling aren't disturbed
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(maxFlushTime);
+            if (worker.isAlive()) {
+                addWarn("Max queue flush timeout (" + maxFlushTime + " ms) exceeded. Approximately " + queuedCount()
+                        + " queued events were possibly discarded.");
+            } else {
+                addInfo("Queue flush finished successfully within timeout.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            addError("Failed to join worker thread. " + queuedCount() + " queued events may be discarded.", e);
+        }
+    }
 
     @Override
+    protected void append(ILoggingEvent event) {
+        RingBuffer<ILoggingEvent> lane = lanes != null ? lanes.laneFor(event) : queue;
+        if (lane.capacity() - lane.size() < discardingThreshold && isDiscardable(event)) {
+            discarded(event);
+            return;
+        }
+        int size = maxQueueBytes > 0 ? estimateSize(event) : 0;
+        if (!reserve(size) && (lanes == null || !shedLessSevere(event, size))) {
+            overBudgetDiscards.incrementAndGet();
+            discarded(event);
+            return;
+        }
+        preprocess(event);
+
+        while (!lane.offer(event)) {
+            // like logback's appender, wait for room rather than lose an event that isn't discardable
+            if (!running) {
+                queuedBytes.addAndGet(-size);
+                return;
+            }
+            signalWorker();
+            LockSupport.parkNanos(this, FULL_QUEUE_PARK_NANOS);
+        }
+        signalWorker();
+    }
+
     protected boolean isDiscardable(ILoggingEvent event) {
+        if (lanes != null) {
+            // only the least severe lane gives way to the discarding threshold; ERROR and WARN wait for room instead
+            return PriorityLanes.laneIndex(event.getLevel()) == PriorityLanes.LANE_COUNT - 1;
+        }
         // In order to optimize performance this appender deems events of *any* level as discardable.
         return true;
     }
 
+    /**
+     * Called once the event is known to be queued, just before it is.
+     */
+    protected void preprocess(ILoggingEvent event) {
+        event.prepareForDeferredProcessing();
+        if (includeCallerData) {
+            event.getCallerData();
+        }
+    }
+
+    /**
+     * Takes {@code size} from the byte budget. An event is always let into an otherwise empty queue, however large it
+     * is.
+     */
+    private boolean reserve(int size) {
+        long queued;
+        do {
+            queued = queuedBytes.get();
+            if (maxQueueBytes > 0 && queued > 0 && queued + size > maxQueueBytes) {
+                return false;
+            }
+        } while (!queuedBytes.compareAndSet(queued, queued + size));
+        return true;
+    }
+
+    /**
+     * Makes room in the byte budget by discarding the oldest queued events of lower severities, least severe first.
+     */
+    private boolean shedLessSevere(ILoggingEvent event, int size) {
+        ILoggingEvent shed;
+        while ((shed = lanes.pollLessSevere(event.getLevel())) != null) {
+            queuedBytes.addAndGet(-estimateSize(shed));
+            overBudgetDiscards.incrementAndGet();
+            discarded(shed);
+            if (reserve(size)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void discarded(ILoggingEvent event) {
+        Level level = event.getLevel();
+        if (level == null) {
+            return;
+        }
+        AtomicLong count = discardsByLevel.get(level.toInt());
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = discardsByLevel.putIfAbsent(level.toInt(), newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private void signalWorker() {
+        if (!workerSignalled.get() && workerSignalled.compareAndSet(false, true)) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void work() {
+        List<ILoggingEvent> drained = new ArrayList<>();
+        while (running) {
+            // cleared before looking at the queue, so an event queued from here on wakes us up again
+            workerSignalled.set(false);
+            if (!drain(drained)) {
+                LockSupport.park(this);
+            }
+        }
+        while (drain(drained)) {
+            // hand over whatever was left when the appender stopped
+        }
+        // as logback's worker does, so that the appenders flush and release what they hold
+        appenders.detachAndStopAllAppenders();
+    }
+
+    /**
+     * @return false if the queue was empty
+     */
+    private boolean drain(List<ILoggingEvent> drained) {
+        ILoggingEvent event;
+        while (drained.size() < MAX_DRAIN_SIZE && (event = poll()) != null) {
+            if (maxQueueBytes > 0) {
+                queuedBytes.addAndGet(-estimateSize(event));
+            }
+            drained.add(event);
+        }
+        if (drained.isEmpty()) {
+            return false;
+        }
+
+        Iterator<Appender<ILoggingEvent>> iterator = appenders.iteratorForAppenders();
+        while (iterator.hasNext()) {
+            Appender<ILoggingEvent> appender = iterator.next();
+            try {
+                if (appender instanceof BatchAppender) {
+                    ((BatchAppender<ILoggingEvent>) appender).doAppendBatch(drained);
+                } else {
+                    for (ILoggingEvent drainedEvent : drained) {
+                        appender.doAppend(drainedEvent);
+                    }
+                }
+            } catch (RuntimeException e) {
+                addError("Appender [" + appender.getName() + "] failed to append.", e);
+            }
+        }
+        drained.clear();
+        return true;
+    }
+
+    /**
+     * @return the next queued event, the most severe first if there are priority lanes
+     */
+    private ILoggingEvent poll() {
+        return lanes != null ? lanes.poll() : queue.poll();
+    }
+
+    private int queuedCount() {
+        return lanes != null ? lanes.size() : queue.size();
+    }
+
+    /**
+     * @return a rough estimate of the memory an event prepared for deferred processing holds on to, which is also
+     * about what it encodes to; it has to give the same result whenever it's called for the same event
+     */
+    static int estimateSize(ILoggingEvent event) {
+        int size = EVENT_OVERHEAD_BYTES;
+        String message = event.getFormattedMessage();
+        if (message != null) {
+            size += message.length();
+        }
+        IThrowableProxy throwableProxy = event.getThrowableProxy();
+        for (int depth = 0; throwableProxy != null && depth < MAX_CAUSE_DEPTH; depth++) {
+            String throwableMessage = throwableProxy.getMessage();
+            size += throwableProxy.getClassName().length()
+                    + (throwableMessage == null ? 0 : throwableMessage.length())
+                    + throwableProxy.getStackTraceElementProxyArray().length * STACK_FRAME_BYTES;
+            throwableProxy = throwableProxy.getCause();
+        }
+        return size;
+    }
+
+    /**
+     * @return the estimated number of bytes held by the queued events
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return the number of events discarded to keep within the byte budget, including the less severe ones discarded
+     * to make room with priority lanes
+     */
+    public long getOverBudgetDiscardCount() {
+        return overBudgetDiscards.get();
+    }
+
+    /**
+     * @return the number of events of the level discarded, whether by the discarding threshold or the byte budget
+     */
+    public long getDiscardedCount(Level level) {
+        AtomicLong count = discardsByLevel.get(level.toInt());
+        return count == null ? 0 : count.get();
+    }
+
+    public int getNumberOfElementsInQueue() {
+        return queuedCount();
+    }
+
+    public int getRemainingCapacity() {
+        return capacity - queuedCount();
+    }
+
+    public long getMaxQueueBytes() {
+        return maxQueueBytes;
+    }
+
+    /**
+     * Sets the estimated number of bytes the queued events may hold on to; zero or less disables the byte budget.
+     */
+    public void setMaxQueueBytes(long maxQueueBytes) {
+        this.maxQueueBytes = maxQueueBytes;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets how many events may be queued; it is rounded up to a power of two.
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getDiscardingThreshold() {
+        return discardingThreshold;
+    }
+
+    /**
+     * Sets the number of free slots below which discardable events are discarded; by default, a fifth of the queue.
+     */
+    public void setDiscardingThreshold(int discardingThreshold) {
+        this.discardingThreshold = discardingThreshold;
+    }
+
+    public boolean isPriorityLanes() {
+        return priorityLanes;
+    }
+
+    /**
+     * Sets whether ERROR, WARN and less severe events are queued in lanes of their own, each of {@code queueSize},
+     * rather than in a single queue. The worker takes the most severe events first, only events less severe than WARN
+     * are discarded once their lane is within the discarding threshold of full, and an event that doesn't fit the
+     * byte budget makes room by discarding the oldest queued events of lower severities. Events of different
+     * severities may then be handed over in a different order than they were logged in.
+     */
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    public boolean isIncludeCallerData() {
+        return includeCallerData;
+    }
+
+    public void setIncludeCallerData(boolean includeCallerData) {
+        this.includeCallerData = includeCallerData;
+    }
+
+    public int getMaxFlushTime() {
+        return maxFlushTime;
+    }
+
+    /**
+     * Sets how long, in milliseconds, stopping waits for the queued events to be handed over.
+     */
+    public void setMaxFlushTime(int maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> newAppender) {
+        if (appenderCount == 0) {
+            appenderCount++;
+            addInfo("Attaching appender named [" + newAppender.getName() + "] to AsyncAppender.");
+            appenders.addAppender(newAppender);
+        } else {
+            addWarn("One and only one appender may be attached to AsyncAppender.");
+            addWarn("Ignoring additional appender named [" + newAppender.getName() + "]");
+        }
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import ch.qos.logback.core.Appender;
+
+import java.util.List;
+
+/**
+ * An appender that can take several events at once, which {@link AsyncAppender} hands it instead of appending them
+ * one by one.
+ */
+public interface BatchAppender<E> extends Appender<E> {
+
+    /**
+     * Appends the events in order, applying the appender's filters to each as {@link #doAppend} would. The list is
+     * reused once this returns.
+     */
+    void doAppendBatch(List<E> events);
+
+}
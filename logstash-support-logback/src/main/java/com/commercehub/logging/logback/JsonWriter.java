@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import java.util.Map;
+
+/**
+ * A {@link DocumentWriter} of JSON text encoded as UTF-8. It escapes strings the same way json-smart does, so the
+ * documents it produces parse to the same values as the ones previously built with {@code JSONObject}.
+ */
+final class JsonWriter extends DocumentWriter {
+
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private boolean needsSeparator;
+
+    JsonWriter() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    JsonWriter(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        needsSeparator = false;
+    }
+
+    @Override
+    void beginObject() {
+        separate();
+        write('{');
+        needsSeparator = false;
+    }
+
+    @Override
+    void endObject() {
+        write('}');
+        needsSeparator = true;
+    }
+
+    @Override
+    void name(String name) {
+        separate();
+        writeQuoted(name);
+        write(':');
+        needsSeparator = false;
+    }
+
+    @Override
+    void value(String value) {
+        separate();
+        if (value == null) {
+            writeBytes(NULL, 0, NULL.length);
+        } else {
+            writeQuoted(value);
+        }
+        needsSeparator = true;
+    }
+
+    @Override
+    void value(long value) {
+        separate();
+        writeAscii(Long.toString(value));
+        needsSeparator = true;
+    }
+
+    @Override
+    void value(long timeStamp, TimestampFormatter timestampFormatter) {
+        separate();
+        ensureCapacity(size + TimestampFormatter.MAX_LENGTH + 2);
+        buffer[size++] = '"';
+        size = timestampFormatter.format(timeStamp, buffer, size);
+        buffer[size++] = '"';
+        needsSeparator = true;
+    }
+
+    @Override
+    void encodedValue(byte[] value) {
+        separate();
+        super.encodedValue(value);
+        needsSeparator = true;
+    }
+
+    @Override
+    void beginString() {
+        separate();
+        write('"');
+    }
+
+    @Override
+    void append(String part) {
+        writeEscaped(part);
+    }
+
+    @Override
+    void append(char c) {
+        if (c >= 0x20 && c < 0x7F && c != '"' && c != '\\') {
+            write(c);
+        } else if (c < 0x80) {
+            ensureCapacity(size + 6);
+            writeEscapedAscii(c);
+        } else {
+            writeEscaped(String.valueOf(c));
+        }
+    }
+
+    @Override
+    void append(int value) {
+        writeAscii(Integer.toString(value));
+    }
+
+    @Override
+    void endString() {
+        write('"');
+        needsSeparator = true;
+    }
+
+    @Override
+    void value(Object value) {
+        if (value == null || value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Map) {
+            value((Map<?, ?>) value);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            separate();
+            writeAscii(value.toString());
+            needsSeparator = true;
+        } else {
+            value(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Splices in members such as {@code "a":"b","c":"d"}.
+     */
+    @Override
+    void members(byte[] members) {
+        if (members.length == 0) {
+            return;
+        }
+        separate();
+        writeBytes(members, 0, members.length);
+        needsSeparator = true;
+    }
+
+    @Override
+    byte[] toMembers() {
+        return toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, UTF_8);
+    }
+
+    private void separate() {
+        if (needsSeparator) {
+            write(',');
+        }
+    }
+
+    private void writeQuoted(String s) {
+        write('"');
+        writeEscaped(s);
+        write('"');
+    }
+
+    private void writeEscaped(String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            // 6 bytes is the longest sequence a single char can produce (a unicode escape)
+            ensureCapacity(size + 6);
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\' && c != 0x7F) {
+                    buffer[size++] = (byte) c;
+                } else {
+                    writeEscapedAscii(c);
+                }
+            } else if (c < 0x800) {
+                if (c <= 0x9F) {
+                    writeUnicodeEscape(c);
+                } else {
+                    buffer[size++] = (byte) (0xC0 | (c >> 6));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate; replace it the same way String.getBytes(UTF_8) would
+                buffer[size++] = '?';
+            } else if (c >= 0x2000 && c <= 0x20FF) {
+                writeUnicodeEscape(c);
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeEscapedAscii(char c) {
+        switch (c) {
+            case '"':
+                writeEscape('"');
+                break;
+            case '\\':
+                writeEscape('\\');
+                break;
+            case '\b':
+                writeEscape('b');
+                break;
+            case '\f':
+                writeEscape('f');
+                break;
+            case '\n':
+                writeEscape('n');
+                break;
+            case '\r':
+                writeEscape('r');
+                break;
+            case '\t':
+                writeEscape('t');
+                break;
+            default:
+                writeUnicodeEscape(c);
+        }
+    }
+
+    private void writeEscape(char c) {
+        buffer[size++] = '\\';
+        buffer[size++] = (byte) c;
+    }
+
+    private void writeUnicodeEscape(char c) {
+        buffer[size++] = '\\';
+        buffer[size++] = 'u';
+        buffer[size++] = HEX_DIGITS[(c >> 12) & 0xF];
+        buffer[size++] = HEX_DIGITS[(c >> 8) & 0xF];
+        buffer[size++] = HEX_DIGITS[(c >> 4) & 0xF];
+        buffer[size++] = HEX_DIGITS[c & 0xF];
+    }
+
+    private void writeAscii(String s) {
+        int length = s.length();
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) s.charAt(i);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.encoder.EncoderBase;
+
+import java.io.IOException;
+
+/**
+ * An {@link ch.qos.logback.core.encoder.Encoder} that serializes events with a {@link LogstashEventLayout} straight to
+ * bytes, skipping the intermediate String a {@link ch.qos.logback.core.encoder.LayoutWrappingEncoder} would
+ * create. When used with an {@link java.io.OutputStream} based appender each JSON event is followed by a line
+ * separator, so the output is one JSON document per line; MessagePack documents need no separator.
+ */
+public class LogstashEventEncoder extends EncoderBase<ILoggingEvent> {
+
+    private static final byte[] LINE_SEPARATOR = {'\n'};
+
+    private LogstashEventLayout layout;
+    private boolean immediateFlush = true;
+
+    public LogstashEventEncoder() {
+    }
+
+    public LogstashEventEncoder(LogstashEventLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * @return the encoded event; the returned array is owned by the caller
+     */
+    public byte[] encode(ILoggingEvent event) {
+        return layout.encode(event);
+    }
+
+    @Override
+    public void doEncode(ILoggingEvent event) throws IOException {
+        layout.encode(event, outputStream);
+        if (layout.getWireFormat() == WireFormat.JSON) {
+            outputStream.write(LINE_SEPARATOR);
+        }
+        if (immediateFlush) {
+            outputStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public void start() {
+        if (layout == null) {
+            layout = new LogstashEventLayout();
+            layout.setContext(getContext());
+        }
+        super.start();
+    }
+
+    public LogstashEventLayout getLayout() {
+        return layout;
+    }
+
+    public void setLayout(LogstashEventLayout layout) {
+        this.layout = layout;
+    }
+
+    public boolean isImmediateFlush() {
+        return immediateFlush;
+    }
+
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+}
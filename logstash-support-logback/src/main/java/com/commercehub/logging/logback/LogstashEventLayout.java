@@ -18,100 +18,211 @@ package com.commercehub.logging.logback;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.IThrowableProxy;
-import ch.qos.logback.classic.spi.ThrowableProxyUtil;
 import ch.qos.logback.core.LayoutBase;
-import net.minidev.json.JSONObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.TimeZone;
+import java.util.Set;
 
 /**
- * This class is intentionally not thread-safe. Don't share an instance of this Layout across multiple Appenders. Don't
- * share instances of the Appenders that use this Layout across multiple Loggers.
+ * This class is thread-safe, so an instance can be shared across multiple Appenders and events can be formatted on
+ * many threads at once. Each thread encodes into its own reusable buffer, and the state shared between threads is
+ * either immutable and republished on configuration changes or, for the stack trace cache, synchronized.
  */
 public class LogstashEventLayout extends LayoutBase<ILoggingEvent> {
 
     private static final int version = 1;
-    private final SimpleDateFormat simpleDateFormat;
+    private static final int LOGGER_FIELDS_CACHE_SIZE = 4096;
+    public static final int DEFAULT_STACK_TRACE_CACHE_SIZE = 256;
+    public static final int UNLIMITED = StackTraceWriter.UNLIMITED;
+    private static final Set<String> EVENT_FIELD_NAMES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "@timestamp", "logger_full", "level", "message", "mdc", "thread", "logger_simple", "exception")));
+
+    private final TimestampFormatter timestampFormatter = new TimestampFormatter();
+    private final ThreadLocal<DocumentWriter[]> documentWriters = new ThreadLocal<DocumentWriter[]>() {
+        @Override
+        protected DocumentWriter[] initialValue() {
+            return new DocumentWriter[WireFormat.values().length];
+        }
+    };
+    private volatile WireFormat wireFormat = WireFormat.JSON;
     private String userFields;
-    private Map<String, String> userFieldsMap = new HashMap<>();
-    private boolean userFieldsNeedToBeParsed = false;
+    private volatile Map<String, String> userFieldsMap = new HashMap<>();
+    private volatile Set<String> shadowedEventFields = Collections.emptySet();
+    private volatile LoggerFieldsCache loggerFieldsCache;
     private String host;
+    private volatile byte[] staticFields;
+    private int stackTraceCacheSize = DEFAULT_STACK_TRACE_CACHE_SIZE;
+    private int maxStackTraceFrames = UNLIMITED;
+    private int maxStackTraceCauseDepth = UNLIMITED;
+    private String stackTraceExcludedPackages;
+    private volatile StackTraceWriter stackTraceWriter;
+    private volatile StackTraceCache stackTraceCache;
+    private volatile long stackTraceDeduplicationWindow;
 
     public LogstashEventLayout() {
-        simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
         try {
             host = InetAddress.getLocalHost().getHostName();
         } catch (UnknownHostException e) {
             host = "unknown";
         }
+        compileStaticFields();
+        compileLoggerFieldsCache();
+        compileStackTraceWriter();
     }
 
+    /**
+     * @return the event as JSON text, whatever the wire format
+     */
     public String doLayout(ILoggingEvent loggingEvent) {
-        JSONObject jsonObject = new JSONObject();
+        return writeEvent(loggingEvent).toString();
+    }
 
-        jsonObject.put("@version", version);
-        jsonObject.put("@timestamp", simpleDateFormat.format(new Date(loggingEvent.getTimeStamp())));
-        jsonObject.put("logger_full", loggingEvent.getLoggerName());
-        jsonObject.put("level", loggingEvent.getLevel().toString());
-        jsonObject.put("message", loggingEvent.getFormattedMessage());
-        jsonObject.put("mdc", loggingEvent.getMDCPropertyMap());
-        jsonObject.put("thread", loggingEvent.getThreadName());
-        jsonObject.put("host", host);
+    /**
+     * Serializes the event straight to bytes in the configured wire format, without the intermediate String
+     * {@link #doLayout} produces.
+     *
+     * @return the encoded event; the returned array is owned by the caller
+     */
+    public byte[] encode(ILoggingEvent loggingEvent) {
+        return writeEvent(loggingEvent).toByteArray();
+    }
+
+    void encode(ILoggingEvent loggingEvent, OutputStream outputStream) throws IOException {
+        writeEvent(loggingEvent).writeTo(outputStream);
+    }
 
-        handleLoggerSimpleName(loggingEvent, jsonObject);
+    private DocumentWriter writeEvent(ILoggingEvent loggingEvent) {
+        WireFormat wireFormat = this.wireFormat;
+        DocumentWriter[] writers = documentWriters.get();
+        DocumentWriter writer = writers[wireFormat.ordinal()];
+        if (writer == null) {
+            writer = wireFormat.newWriter(DocumentWriter.DEFAULT_INITIAL_CAPACITY);
+            writers[wireFormat.ordinal()] = writer;
+        }
+        writer.reset();
+        writer.beginObject();
+        writer.members(staticFields);
 
-        handleThrowableInformation(loggingEvent, jsonObject);
+        if (isWritten("@timestamp")) {
+            writer.name("@timestamp");
+            writer.value(loggingEvent.getTimeStamp(), timestampFormatter);
+        }
+        writer.members(loggerFieldsCache.get(loggingEvent.getLoggerName(), loggingEvent.getLevel().toString()));
+        writeField(writer, "message", loggingEvent.getFormattedMessage());
+        if (isWritten("mdc")) {
+            writer.name("mdc");
+            writer.value(loggingEvent.getMDCPropertyMap());
+        }
+        writeField(writer, "thread", loggingEvent.getThreadName());
 
-        jsonObject.putAll(getUserFieldsMap());
+        handleThrowableInformation(loggingEvent, writer);
 
-        return jsonObject.toString();
+        writer.endObject();
+        return writer;
     }
 
-    private void handleLoggerSimpleName(ILoggingEvent loggingEvent, JSONObject jsonObject) {
-        String loggerName = loggingEvent.getLoggerName();
-        if (loggerName != null) {
-            jsonObject.put("logger_simple", loggerName.substring(loggerName.lastIndexOf('.') + 1));
+    private void writeField(DocumentWriter writer, String name, String value) {
+        if (isWritten(name)) {
+            writer.field(name, value);
         }
     }
 
-    private void handleThrowableInformation(ILoggingEvent loggingEvent, JSONObject jsonObject) {
+    /**
+     * User fields take precedence over the event fields of the same name, as they did when the event was built as a
+     * map, so such event fields are left out rather than written twice.
+     */
+    private boolean isWritten(String eventFieldName) {
+        return shadowedEventFields.isEmpty() || !shadowedEventFields.contains(eventFieldName);
+    }
+
+    private void handleThrowableInformation(ILoggingEvent loggingEvent, DocumentWriter writer) {
         IThrowableProxy throwableProxy = loggingEvent.getThrowableProxy();
-        if (throwableProxy != null) {
-            Map<String, String> exceptionMap = new HashMap<>();
+        if (throwableProxy != null && isWritten("exception")) {
+            writer.name("exception");
+            writer.beginObject();
             String canonicalName = throwableProxy.getClassName();
             if (canonicalName != null) {
-                exceptionMap.put("class", canonicalName);
+                writer.field("class", canonicalName);
             }
 
             String message = throwableProxy.getMessage();
             if (message != null) {
-                exceptionMap.put("message", message);
+                writer.field("message", message);
             }
 
-            String throwableStringRep = ThrowableProxyUtil.asString(throwableProxy);
-            exceptionMap.put("stacktrace", throwableStringRep);
+            long fingerprint = StackTraceCache.fingerprint(throwableProxy);
+            StackTraceCache.Entry stackTraceCacheEntry = stackTraceCache.get(fingerprint);
+            writer.field("fingerprint", stackTraceCacheEntry.getFingerprint());
+
+            long window = stackTraceDeduplicationWindow;
+            if (window <= 0 || stackTraceCacheEntry.isFullStackTraceDue(loggingEvent.getTimeStamp(), window)) {
+                writeStackTrace(writer, stackTraceCacheEntry, throwableProxy);
+            }
+            writer.endObject();
+        }
+    }
 
-            jsonObject.put("exception", exceptionMap);
+    private void writeStackTrace(DocumentWriter writer, StackTraceCache.Entry stackTraceCacheEntry,
+                                 IThrowableProxy throwableProxy) {
+        long messagesHash = StackTraceCache.messagesHash(throwableProxy);
+        byte[] stackTrace = stackTraceCacheEntry.getStackTrace(messagesHash);
+        writer.name("stacktrace");
+        if (stackTrace != null) {
+            writer.encodedValue(stackTrace);
+        } else {
+            int start = writer.size();
+            stackTraceWriter.write(writer, throwableProxy);
+            stackTraceCacheEntry.setStackTrace(messagesHash, writer.copyOf(start));
         }
     }
 
     public Map<String, String> getUserFieldsMap() {
-        if (userFieldsNeedToBeParsed) {
-            userFieldsMap = new HashMap<>();
-            parseUserFields();
+        return userFieldsMap;
+    }
+
+    /**
+     * Serializes the fields that are the same for every event ({@code @version}, {@code host} and the user fields)
+     * once, so they can be copied into each event as pre-escaped bytes. Must be called whenever one of them changes.
+     */
+    private void compileStaticFields() {
+        Map<String, Object> staticFields = new LinkedHashMap<>();
+        staticFields.put("@version", version);
+        staticFields.put("host", host);
+        staticFields.putAll(userFieldsMap);
+
+        DocumentWriter writer = wireFormat.newWriter(DocumentWriter.DEFAULT_INITIAL_CAPACITY);
+        for (Map.Entry<String, Object> staticField : staticFields.entrySet()) {
+            writer.name(staticField.getKey());
+            writer.value(staticField.getValue());
         }
+        this.staticFields = writer.toMembers();
+    }
 
-        return userFieldsMap;
+    private void compileLoggerFieldsCache() {
+        loggerFieldsCache = new LoggerFieldsCache(LOGGER_FIELDS_CACHE_SIZE, wireFormat, shadowedEventFields);
+    }
+
+    /**
+     * Must be called whenever one of the stack trace settings changes; rendered stack traces that were cached with the
+     * previous settings are dropped.
+     */
+    private void compileStackTraceWriter() {
+        stackTraceWriter = new StackTraceWriter(maxStackTraceFrames, maxStackTraceCauseDepth,
+                stackTraceExcludedPackages);
+        stackTraceCache = new StackTraceCache(stackTraceCacheSize);
     }
 
     private void parseUserFields() {
+        Map<String, String> userFieldsMap = new HashMap<>();
         String userFields = this.userFields;
         if (userFields != null) {
             String[] userFieldPairs = userFields.split(",");
@@ -124,19 +235,105 @@ public class LogstashEventLayout extends LayoutBase<ILoggingEvent> {
                 }
             }
         }
+        this.userFieldsMap = userFieldsMap;
     }
 
     public void setUserFields(String userFields) {
         this.userFields = userFields;
-        userFieldsNeedToBeParsed = true;
+        parseUserFields();
+        Set<String> shadowedEventFields = new HashSet<>(userFieldsMap.keySet());
+        shadowedEventFields.retainAll(EVENT_FIELD_NAMES);
+        this.shadowedEventFields = shadowedEventFields;
+        compileStaticFields();
+        compileLoggerFieldsCache();
     }
 
     public void setHost(String host) {
         this.host = host;
+        compileStaticFields();
     }
 
     public String getHost() {
         return host;
     }
 
+    /**
+     * Sets how many distinct stack traces are kept in rendered form, so that an exception that is logged over and
+     * over again is only rendered once. Zero disables the cache.
+     */
+    public void setStackTraceCacheSize(int stackTraceCacheSize) {
+        this.stackTraceCacheSize = stackTraceCacheSize;
+        compileStackTraceWriter();
+    }
+
+    public int getStackTraceCacheSize() {
+        return stackTraceCacheSize;
+    }
+
+    /**
+     * When positive, only the first event within this many milliseconds that carries a given exception fingerprint
+     * includes the stack trace; the others carry the class, message and fingerprint of the exception only.
+     */
+    public void setStackTraceDeduplicationWindow(long millis) {
+        this.stackTraceDeduplicationWindow = millis;
+    }
+
+    public long getStackTraceDeduplicationWindow() {
+        return stackTraceDeduplicationWindow;
+    }
+
+    /**
+     * Sets how many frames are written per exception, cause and suppressed exception; the rest are summarized as
+     * {@code ... N frames truncated}. {@link #UNLIMITED} (the default) means no limit.
+     */
+    public void setMaxStackTraceFrames(int maxStackTraceFrames) {
+        this.maxStackTraceFrames = maxStackTraceFrames;
+        compileStackTraceWriter();
+    }
+
+    public int getMaxStackTraceFrames() {
+        return maxStackTraceFrames;
+    }
+
+    /**
+     * Sets how many levels of causes and suppressed exceptions are written below the logged exception; deeper ones
+     * are written as {@code Caused by: ...}. {@link #UNLIMITED} (the default) means no limit.
+     */
+    public void setMaxStackTraceCauseDepth(int maxStackTraceCauseDepth) {
+        this.maxStackTraceCauseDepth = maxStackTraceCauseDepth;
+        compileStackTraceWriter();
+    }
+
+    public int getMaxStackTraceCauseDepth() {
+        return maxStackTraceCauseDepth;
+    }
+
+    /**
+     * Sets comma-separated class name prefixes, such as {@code sun.reflect.,org.springframework.aop.}, of stack frames
+     * to leave out; each run of left out frames is summarized as {@code ... N frames filtered}.
+     */
+    public void setStackTraceExcludedPackages(String stackTraceExcludedPackages) {
+        this.stackTraceExcludedPackages = stackTraceExcludedPackages;
+        compileStackTraceWriter();
+    }
+
+    public String getStackTraceExcludedPackages() {
+        return stackTraceExcludedPackages;
+    }
+
+    /**
+     * Sets the encoding of the events that are sent as bytes; events formatted as text are always JSON. Set it before
+     * the layout is in use.
+     */
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+        compileStaticFields();
+        compileLoggerFieldsCache();
+        compileStackTraceWriter();
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Queues events in one {@link RingBuffer} per severity: ERROR, WARN, and everything less severe. The lanes are drained
+ * most severe first, so an ERROR doesn't wait behind a backlog of INFO and DEBUG events, and the least severe lane is
+ * the first to give up its events when a more severe one needs room.
+ */
+final class PriorityLanes {
+
+    static final int LANE_COUNT = 3;
+
+    private final RingBuffer<ILoggingEvent>[] lanes;
+
+    /**
+     * @param capacity the capacity of each lane
+     */
+    PriorityLanes(int capacity) {
+        lanes = newLanes();
+        for (int i = 0; i < LANE_COUNT; i++) {
+            lanes[i] = new RingBuffer<>(capacity);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static RingBuffer<ILoggingEvent>[] newLanes() {
+        return new RingBuffer[LANE_COUNT];
+    }
+
+    /**
+     * @return the lane, zero being the most severe
+     */
+    static int laneIndex(Level level) {
+        if (level == null || !level.isGreaterOrEqual(Level.WARN)) {
+            return 2;
+        }
+        return level.isGreaterOrEqual(Level.ERROR) ? 0 : 1;
+    }
+
+    RingBuffer<ILoggingEvent> laneFor(ILoggingEvent event) {
+        return lanes[laneIndex(event.getLevel())];
+    }
+
+    /**
+     * @return the oldest event of the most severe lane that has one, or null if all are empty
+     */
+    ILoggingEvent poll() {
+        for (RingBuffer<ILoggingEvent> lane : lanes) {
+            ILoggingEvent event = lane.poll();
+            if (event != null) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the oldest event of the least severe lane that has one and is less severe than {@code level}, or null
+     * if there is none
+     */
+    ILoggingEvent pollLessSevere(Level level) {
+        for (int i = LANE_COUNT - 1; i > laneIndex(level); i--) {
+            ILoggingEvent event = lanes[i].poll();
+            if (event != null) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    int capacity() {
+        return LANE_COUNT * lanes[0].capacity();
+    }
+
+    /**
+     * @return the number of events in all lanes, which is only a snapshot while other threads offer or poll
+     */
+    int size() {
+        int size = 0;
+        for (RingBuffer<ILoggingEvent> lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import ch.qos.logback.classic.spi.ClassPackagingData;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.core.CoreConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the stack trace of a throwable proxy as a string value straight into a {@link DocumentWriter}, in the format
+ * of {@link ch.qos.logback.classic.spi.ThrowableProxyUtil#asString(IThrowableProxy)}, so that the text is never built
+ * in full as a {@link String}. The number of frames written per throwable and the depth of nested causes and
+ * suppressed exceptions can be limited, and frames of excluded packages can be collapsed; with none of that configured
+ * the text is the same as {@code ThrowableProxyUtil} renders.
+ * <p/>
+ * Instances are immutable and thread-safe.
+ */
+final class StackTraceWriter {
+
+    static final int UNLIMITED = -1;
+
+    private static final String CAUSE_CAPTION = "Caused by: ";
+    private static final String SUPPRESSED_CAPTION = "Suppressed: ";
+
+    private final int maxFrames;
+    private final int maxDepth;
+    private final String[] excludedPackages;
+
+    /**
+     * @param maxFrames the most frames written per throwable, or {@link #UNLIMITED}
+     * @param maxDepth the most levels of nested causes and suppressed exceptions written, or {@link #UNLIMITED}
+     * @param excludedPackages comma-separated class name prefixes of frames to leave out, or null
+     */
+    StackTraceWriter(int maxFrames, int maxDepth, String excludedPackages) {
+        this.maxFrames = maxFrames;
+        this.maxDepth = maxDepth;
+        this.excludedPackages = parseExcludedPackages(excludedPackages);
+    }
+
+    void write(DocumentWriter writer, IThrowableProxy throwableProxy) {
+        writer.beginString();
+        write(writer, throwableProxy, null, 1, 0);
+        writer.endString();
+    }
+
+    private void write(DocumentWriter writer, IThrowableProxy throwableProxy, String caption, int indent, int depth) {
+        writeIndent(writer, indent - 1);
+        if (caption != null) {
+            writer.append(caption);
+        }
+        if (maxDepth != UNLIMITED && depth > maxDepth) {
+            writer.append("...");
+            writer.append(CoreConstants.LINE_SEPARATOR);
+            return;
+        }
+        writer.append(throwableProxy.getClassName());
+        writer.append(": ");
+        writer.append(String.valueOf(throwableProxy.getMessage()));
+        writer.append(CoreConstants.LINE_SEPARATOR);
+
+        StackTraceElementProxy[] stepArray = throwableProxy.getStackTraceElementProxyArray();
+        int commonFrames = throwableProxy.getCommonFrames();
+        writeFrames(writer, indent, stepArray, stepArray.length - commonFrames);
+        if (commonFrames > 0) {
+            writeOmitted(writer, indent, commonFrames, " common frames omitted");
+        }
+
+        IThrowableProxy[] suppressed = throwableProxy.getSuppressed();
+        if (suppressed != null) {
+            for (IThrowableProxy current : suppressed) {
+                write(writer, current, SUPPRESSED_CAPTION, indent + 1, depth + 1);
+            }
+        }
+        IThrowableProxy cause = throwableProxy.getCause();
+        if (cause != null) {
+            write(writer, cause, CAUSE_CAPTION, indent, depth + 1);
+        }
+    }
+
+    private void writeFrames(DocumentWriter writer, int indent, StackTraceElementProxy[] stepArray, int count) {
+        int written = 0;
+        int excluded = 0;
+        for (int i = 0; i < count; i++) {
+            StackTraceElement element = stepArray[i].getStackTraceElement();
+            if (isExcluded(element)) {
+                excluded++;
+                continue;
+            }
+            if (excluded > 0) {
+                writeOmitted(writer, indent, excluded, " frames filtered");
+                excluded = 0;
+            }
+            if (maxFrames != UNLIMITED && written == maxFrames) {
+                writeOmitted(writer, indent, count - i, " frames truncated");
+                return;
+            }
+            writeFrame(writer, indent, stepArray[i]);
+            written++;
+        }
+        if (excluded > 0) {
+            writeOmitted(writer, indent, excluded, " frames filtered");
+        }
+    }
+
+    /**
+     * Writes the frame the way {@link StackTraceElementProxy#toString()} and
+     * {@link ch.qos.logback.classic.spi.ThrowableProxyUtil#subjoinPackagingData(StringBuilder, StackTraceElementProxy)}
+     * format it, without creating those strings.
+     */
+    private static void writeFrame(DocumentWriter writer, int indent, StackTraceElementProxy step) {
+        StackTraceElement element = step.getStackTraceElement();
+        writeIndent(writer, indent);
+        writer.append("at ");
+        writer.append(element.getClassName());
+        writer.append('.');
+        writer.append(element.getMethodName());
+        String fileName = element.getFileName();
+        if (element.isNativeMethod()) {
+            writer.append("(Native Method)");
+        } else if (fileName == null) {
+            writer.append("(Unknown Source)");
+        } else {
+            writer.append('(');
+            writer.append(fileName);
+            if (element.getLineNumber() >= 0) {
+                writer.append(':');
+                writer.append(element.getLineNumber());
+            }
+            writer.append(')');
+        }
+
+        ClassPackagingData packagingData = step.getClassPackagingData();
+        if (packagingData != null) {
+            writer.append(packagingData.isExact() ? " [" : " ~[");
+            writer.append(String.valueOf(packagingData.getCodeLocation()));
+            writer.append(':');
+            writer.append(String.valueOf(packagingData.getVersion()));
+            writer.append(']');
+        }
+        writer.append(CoreConstants.LINE_SEPARATOR);
+    }
+
+    private static void writeOmitted(DocumentWriter writer, int indent, int count, String what) {
+        writeIndent(writer, indent);
+        writer.append("... ");
+        writer.append(count);
+        writer.append(what);
+        writer.append(CoreConstants.LINE_SEPARATOR);
+    }
+
+    private static void writeIndent(DocumentWriter writer, int indent) {
+        for (int i = 0; i < indent; i++) {
+            writer.append('\t');
+        }
+    }
+
+    private boolean isExcluded(StackTraceElement element) {
+        if (excludedPackages.length == 0) {
+            return false;
+        }
+        String className = element.getClassName();
+        for (String excludedPackage : excludedPackages) {
+            if (className.startsWith(excludedPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] parseExcludedPackages(String excludedPackages) {
+        List<String> parsed = new ArrayList<>();
+        if (excludedPackages != null) {
+            for (String excludedPackage : excludedPackages.split(",")) {
+                excludedPackage = excludedPackage.trim();
+                if (!excludedPackage.isEmpty()) {
+                    parsed.add(excludedPackage);
+                }
+            }
+        }
+        return parsed.toArray(new String[parsed.size()]);
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+/**
+ * Formats timestamps as UTC {@code yyyy-MM-dd'T'HH:mm:ss.SSS'Z'}. The {@code yyyy-MM-dd'T'HH:mm:ss.} prefix is
+ * cached for the most recently formatted second, so events logged within the same second only pay for writing the
+ * milliseconds. This class is thread-safe: the cached second is an immutable object published through a volatile
+ * field, and a thread that misses the cache simply computes and publishes a new one.
+ */
+final class TimestampFormatter {
+
+    /**
+     * Upper bound of the length of a formatted timestamp, including a signed nine digit year.
+     */
+    static final int MAX_LENGTH = 32;
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long SECONDS_PER_DAY = 86400;
+
+    private volatile CachedSecond cachedSecond = new CachedSecond(0);
+
+    String format(long timeStamp) {
+        byte[] bytes = new byte[MAX_LENGTH];
+        int length = format(timeStamp, bytes, 0);
+        return new String(bytes, 0, length, JsonWriter.UTF_8);
+    }
+
+    /**
+     * Writes the formatted timestamp into {@code buffer}, which must have at least {@link #MAX_LENGTH} bytes
+     * available at {@code offset}, and returns the offset following the last byte written.
+     */
+    int format(long timeStamp, byte[] buffer, int offset) {
+        long epochSecond = floorDiv(timeStamp, MILLIS_PER_SECOND);
+        int millis = (int) (timeStamp - epochSecond * MILLIS_PER_SECOND);
+
+        CachedSecond cachedSecond = this.cachedSecond;
+        if (cachedSecond.epochSecond != epochSecond) {
+            cachedSecond = new CachedSecond(epochSecond);
+            this.cachedSecond = cachedSecond;
+        }
+
+        byte[] prefix = cachedSecond.prefix;
+        System.arraycopy(prefix, 0, buffer, offset, prefix.length);
+        int position = offset + prefix.length;
+        buffer[position++] = (byte) ('0' + millis / 100);
+        buffer[position++] = (byte) ('0' + millis / 10 % 10);
+        buffer[position++] = (byte) ('0' + millis % 10);
+        buffer[position++] = 'Z';
+        return position;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    private static final class CachedSecond {
+
+        final long epochSecond;
+        final byte[] prefix;
+
+        CachedSecond(long epochSecond) {
+            this.epochSecond = epochSecond;
+            this.prefix = formatPrefix(epochSecond);
+        }
+
+        /**
+         * Converts days since the epoch to a proleptic Gregorian date using Howard Hinnant's {@code civil_from_days}
+         * algorithm, which avoids allocating a {@link java.util.Calendar} on every cache miss.
+         */
+        private static byte[] formatPrefix(long epochSecond) {
+            long epochDay = floorDiv(epochSecond, SECONDS_PER_DAY);
+            int secondOfDay = (int) (epochSecond - epochDay * SECONDS_PER_DAY);
+
+            long shiftedDay = epochDay + 719468;
+            long era = (shiftedDay >= 0 ? shiftedDay : shiftedDay - 146096) / 146097;
+            long dayOfEra = shiftedDay - era * 146097;
+            long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            long shiftedMonth = (5 * dayOfYear + 2) / 153;
+            int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+            int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+            long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+            StringBuilder prefix = new StringBuilder(MAX_LENGTH);
+            if (year < 0) {
+                prefix.append('-');
+                year = -year;
+            }
+            String yearDigits = Long.toString(year);
+            for (int i = yearDigits.length(); i < 4; i++) {
+                prefix.append('0');
+            }
+            prefix.append(yearDigits).append('-');
+            appendTwoDigits(prefix, month).append('-');
+            appendTwoDigits(prefix, day).append('T');
+            appendTwoDigits(prefix, secondOfDay / 3600).append(':');
+            appendTwoDigits(prefix, secondOfDay / 60 % 60).append(':');
+            appendTwoDigits(prefix, secondOfDay % 60).append('.');
+            return prefix.toString().getBytes(JsonWriter.UTF_8);
+        }
+
+        private static StringBuilder appendTwoDigits(StringBuilder builder, int value) {
+            return builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+/**
+ * The encoding of the events {@link LogstashEventLayout} produces. Both carry the same fields with the same values.
+ */
+public enum WireFormat {
+
+    /**
+     * JSON text encoded as UTF-8, which logstash reads with the {@code json} codec.
+     */
+    JSON {
+        @Override
+        DocumentWriter newWriter(int initialCapacity) {
+            return new JsonWriter(initialCapacity);
+        }
+    },
+
+    /**
+     * MessagePack, which logstash reads with the {@code msgpack} codec. It is considerably more compact than JSON,
+     * mostly because field names and strings are length-prefixed rather than quoted and escaped.
+     */
+    MSGPACK {
+        @Override
+        DocumentWriter newWriter(int initialCapacity) {
+            return new MessagePackWriter(initialCapacity);
+        }
+    };
+
+    abstract DocumentWriter newWriter(int initialCapacity);
+
+}
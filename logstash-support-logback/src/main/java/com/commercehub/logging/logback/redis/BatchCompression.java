@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback.redis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * How events are packed into Redis list elements. With anything but {@link #NONE} every push sends a single element,
+ * an envelope holding the whole batch compressed, which {@link BatchEnvelopeReader} expands back into events.
+ */
+public enum BatchCompression {
+
+    /**
+     * Each event is its own list element, as it always has been.
+     */
+    NONE(0),
+
+    /**
+     * The batch is compressed with gzip (RFC 1952).
+     */
+    GZIP(1) {
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    };
+
+    private final int id;
+
+    BatchCompression(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the codec id written in the envelope header
+     */
+    int getId() {
+        return id;
+    }
+
+    InputStream decompress(InputStream in) throws IOException {
+        throw new UnsupportedOperationException(name() + " does not produce envelopes");
+    }
+
+    static BatchCompression forId(int id) throws IOException {
+        for (BatchCompression compression : values()) {
+            if (compression != NONE && compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IOException("Unknown batch envelope codec " + id);
+    }
+
+}
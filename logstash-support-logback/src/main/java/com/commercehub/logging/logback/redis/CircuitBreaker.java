@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback.redis;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the appender from trying Redis while it is known to be unreachable, so that an outage doesn't cost a
+ * connection timeout per batch. After a failure the breaker opens and turns requests away for a backoff that doubles
+ * with every further failure, up to a maximum, with half of it picked at random so that many processes don't all
+ * retry at once. Once the backoff has passed, a single request is let through to probe Redis (the breaker is then
+ * half-open) and its outcome closes the breaker or opens it again.
+ * <p>
+ * Whoever is let through must report back with {@link #onSuccess} or {@link #onFailure}.
+ */
+final class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    interface Clock {
+
+        long nanoTime();
+
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final Clock clock;
+
+    private volatile State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long retryAt;
+
+    CircuitBreaker(long initialBackoffMillis, long maxBackoffMillis) {
+        this(initialBackoffMillis, maxBackoffMillis, SYSTEM_CLOCK);
+    }
+
+    CircuitBreaker(long initialBackoffMillis, long maxBackoffMillis, Clock clock) {
+        this.initialBackoff = Math.max(1, initialBackoffMillis);
+        this.maxBackoff = Math.max(initialBackoff, maxBackoffMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether the caller may try Redis
+     */
+    boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && clock.nanoTime() - retryAt >= 0) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+            return state == State.CLOSED;
+        }
+    }
+
+    void onSuccess() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        synchronized (this) {
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * @return the backoff until the next probe, in milliseconds
+     */
+    synchronized long onFailure() {
+        consecutiveFailures = Math.min(consecutiveFailures + 1, Long.SIZE);
+        int doublings = consecutiveFailures - 1;
+        long backoff = doublings >= Long.numberOfLeadingZeros(initialBackoff) - 1
+                ? maxBackoff
+                : Math.min(maxBackoff, initialBackoff << doublings);
+        backoff = backoff - ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        retryAt = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        state = State.OPEN;
+        return backoff;
+    }
+
+    State getState() {
+        return state;
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.commercehub.logging.logback.redis;
+
+/**
+ * How {@link RedisAppender} gets its connections to Redis.
+ */
+public enum ConnectionMode {
+
+    /**
+     * Each send borrows a connection from a {@link redis.clients.jedis.JedisPool} and returns it afterwards, paying
+     * for the pool's bookkeeping and, with {@code testOnBorrow}, a PING round trip every time.
+     */
+    POOLED,
+
+    /**
+     * The appender keeps a single connection open for as long as it runs; see {@link DedicatedConnection}.
+     */
+    DEDICATED
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.commercehub.logging.logback.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single long-lived connection to Redis that stands in for a {@link redis.clients.jedis.JedisPool} of one, without
+ * its bookkeeping or a PING on every borrow. The connection is handed to one user at a time; others wait until it is
+ * returned.
+ * <p>
+ * While the connection sits idle, a probe PINGs it every probe interval, so that one the server or a firewall dropped
+ * is noticed before the next send; a connection found broken, by the probe or a user, is closed, and the probe
+ * reconnects in the background. Should a user still find no connection, it connects itself.
+ */
+final class DedicatedConnection {
+
+    private final String host;
+    private final int port;
+    private final int timeout;
+    private final String password;
+    private final int database;
+    private final long probeIntervalNanos;
+    private final ScheduledExecutorService prober;
+
+    private Jedis jedis;
+    private boolean inUse;
+    private boolean closed;
+    private long lastUsedNanos;
+
+    DedicatedConnection(String host, int port, int timeout, String password, int database, long probeIntervalMillis,
+                        ThreadFactory threadFactory) {
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.password = password;
+        this.database = database;
+        this.probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis);
+        this.prober = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        prober.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                probe();
+            }
+        }, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for the connection to be returned by its current user, connecting if it isn't open.
+     *
+     * @throws JedisConnectionException if Redis can't be reached, or the connection is closed while waiting
+     */
+    Jedis getResource() {
+        Jedis current;
+        synchronized (this) {
+            while (inUse && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JedisConnectionException("Interrupted while waiting for the connection", e);
+                }
+            }
+            if (closed) {
+                throw new JedisConnectionException("Connection is closed");
+            }
+            inUse = true;
+            current = jedis;
+            jedis = null;
+        }
+        if (current == null) {
+            try {
+                current = connect();
+            } catch (JedisConnectionException e) {
+                release(null);
+                throw e;
+            }
+        }
+        return current;
+    }
+
+    void returnResource(Jedis resource) {
+        release(resource);
+    }
+
+    /**
+     * Closes the connection, which is opened again by the probe or the next user.
+     */
+    void returnBrokenResource(Jedis resource) {
+        disconnect(resource);
+        release(null);
+    }
+
+    void close() {
+        Jedis idle;
+        synchronized (this) {
+            closed = true;
+            // a connection in use is closed once it is returned
+            idle = jedis;
+            jedis = null;
+            notifyAll();
+        }
+        prober.shutdownNow();
+        disconnect(idle);
+    }
+
+    private void probe() {
+        Jedis probed;
+        synchronized (this) {
+            if (inUse || closed || (jedis != null && System.nanoTime() - lastUsedNanos < probeIntervalNanos)) {
+                return;
+            }
+            inUse = true;
+            probed = jedis;
+            jedis = null;
+        }
+        try {
+            if (probed == null) {
+                probed = connect();
+            } else {
+                probed.ping();
+            }
+            release(probed);
+        } catch (Exception e) {
+            // Redis is unreachable; the users report that, and the probe tries again next time
+            returnBrokenResource(probed);
+        }
+    }
+
+    private void release(Jedis resource) {
+        boolean discard;
+        synchronized (this) {
+            discard = closed;
+            if (!discard) {
+                jedis = resource;
+                lastUsedNanos = System.nanoTime();
+            }
+            inUse = false;
+            notifyAll();
+        }
+        if (discard) {
+            disconnect(resource);
+        }
+    }
+
+    private Jedis connect() {
+        Jedis connection = new Jedis(host, port, timeout);
+        try {
+            connection.connect();
+            if (password != null) {
+                connection.auth(password);
+            }
+            if (database != Protocol.DEFAULT_DATABASE) {
+                connection.select(database);
+            }
+            return connection;
+        } catch (Exception e) {
+            disconnect(connection);
+            throw new JedisConnectionException("Could not connect to Redis at " + host + ":" + port, e);
+        }
+    }
+
+    private static void disconnect(Jedis connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.disconnect();
+        } catch (Exception e) {
+            // already broken
+        }
+    }
+
+}
@@ -19,22 +19,64 @@ package com.commercehub.logging.logback.redis;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.FilterReply;
+import com.commercehub.logging.logback.BatchAppender;
+import com.commercehub.logging.logback.LogstashEventEncoder;
+import com.commercehub.logging.logback.LogstashEventLayout;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.Protocol;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link ch.qos.logback.core.Appender} that sends logging events to Redis.
- * It is highly recommended that this appender be wrapped in a {@link com.commercehub.logging.logback.AsyncAppender}.
+ * Events are serialized with the configured {@link LogstashEventEncoder} or, if none is set, with the configured
+ * {@link Layout}; a {@link LogstashEventLayout} is encoded straight to bytes without an intermediate String.
+ * With a batch size over one, events are collected and pushed with a single RPUSH once the batch is full, once it
+ * would grow past {@code maxBatchBytes}, or {@code maxLinger} milliseconds after its first event, whichever is first.
+ * With a {@link BatchCompression} other than {@link BatchCompression#NONE}, each batch is pushed as one compressed
+ * envelope which {@link BatchEnvelopeReader} expands.
+ * After Redis couldn't be reached, a {@link CircuitBreaker} keeps the appender from trying it again for a backoff that
+ * grows with every further failure, so that an outage doesn't cost a connection timeout per event.
+ * With a spill directory, events that can't be sent are kept in a {@link SpillJournal} on disk instead of being lost,
+ * and sent once Redis is reachable again.
+ * With {@code sharedEngine}, the appender shares its connections and threads with the other appenders of the process
+ * sending to the same endpoint, through a {@link RedisEngine}.
+ * With {@link ConnectionMode#DEDICATED}, it keeps a single {@link DedicatedConnection} open instead of borrowing from
+ * a pool for every push. With {@link Transport#NIO}, it sends through a {@link RespClient} instead of Jedis.
+ * It is highly recommended that this appender be wrapped in a {@link com.commercehub.logging.logback.AsyncAppender},
+ * which hands it the events it drains together.
  */
-public class RedisAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+public class RedisAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements BatchAppender<ILoggingEvent> {
 
     public static final String DEFAULT_HOST = "localhost";
     public static final int DEFAULT_PORT = Protocol.DEFAULT_PORT;
     public static final int DEFAULT_TIMEOUT = Protocol.DEFAULT_TIMEOUT;
     public static final int DEFAULT_DATABASE = Protocol.DEFAULT_DATABASE;
+    public static final long DEFAULT_SPILL_MAX_BYTES = 256 * 1024 * 1024;
+    public static final int DEFAULT_SPILL_REPLAY_RATE = 20;
+    public static final long DEFAULT_INITIAL_BACKOFF = 100;
+    public static final long DEFAULT_MAX_BACKOFF = 30000;
+    public static final int DEFAULT_BATCH_SIZE = 1;
+    public static final long DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+    public static final long DEFAULT_MAX_LINGER = 50;
+    public static final long DEFAULT_PROBE_INTERVAL = 5000;
+
+    private static final long REPLAY_INTERVAL_MILLIS = 100;
 
     private JedisPoolConfig poolConfig = new JedisPoolConfig();
     private String host = DEFAULT_HOST;
@@ -44,77 +86,511 @@ public class RedisAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
     private int database = DEFAULT_DATABASE;
     private String key = null;
     private Layout<ILoggingEvent> layout;
+    private LogstashEventEncoder encoder;
+    private BatchCompression compression = BatchCompression.NONE;
+    private String spillDirectory;
+    private long spillMaxBytes = DEFAULT_SPILL_MAX_BYTES;
+    private int spillReplayRate = DEFAULT_SPILL_REPLAY_RATE;
+    private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private long maxLinger = DEFAULT_MAX_LINGER;
+    private boolean sharedEngine = false;
+    private ConnectionMode connectionMode = ConnectionMode.POOLED;
+    private Transport transport = Transport.JEDIS;
+    private long probeInterval = DEFAULT_PROBE_INTERVAL;
+
+    private byte[] keyBytes;
+    private volatile BatchEnvelopeWriter envelopeWriter;
+    private SpillJournal spillJournal;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> replayTask;
+    private RedisEngine engine;
+    private CircuitBreaker circuitBreaker;
+
+    private final Object batchLock = new Object();
+    private volatile byte[][] batch;
+    private int batchCount;
+    private long batchBytes;
+    private long batchGeneration;
 
     private JedisPool pool;
+    private DedicatedConnection connection;
+    private RespClient respClient;
 
     @Override
     public void start() {
+        if (layout == null && encoder == null) {
+            addError("No encoder or layout set for the appender named [" + name + "].");
+            return;
+        }
+        if (key == null) {
+            addError("No key set for the appender named [" + name + "].");
+            return;
+        }
+        if (sharedEngine && (connectionMode == ConnectionMode.DEDICATED || transport == Transport.NIO)) {
+            addError("A shared engine can't be combined with a dedicated connection or the NIO transport for the "
+                    + "appender named [" + name + "].");
+            return;
+        }
         try {
-            pool = new JedisPool(poolConfig, host, port, timeout, password, database);
-            super.start();
+            keyBytes = SafeEncoder.encode(key);
+            envelopeWriter = compression == BatchCompression.NONE ? null : new BatchEnvelopeWriter(compression);
+            if (sharedEngine) {
+                engine = RedisEngine.acquire(host, port, timeout, password, database, poolConfig);
+                pool = engine.getPool();
+            } else if (transport == Transport.NIO) {
+                pool = null;
+                respClient = new RespClient(host, port, timeout, password, database);
+            } else if (connectionMode == ConnectionMode.DEDICATED) {
+                pool = null;
+                connection = new DedicatedConnection(host, port, timeout, password, database, probeInterval,
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable runnable) {
+                                Thread thread = new Thread(runnable, "RedisAppender-Prober-" + name);
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            } else {
+                pool = new JedisPool(poolConfig, host, port, timeout, password, database);
+            }
+            circuitBreaker = new CircuitBreaker(initialBackoff, maxBackoff);
         } catch (Exception e) {
             addError("Failed to create redis client pool", e);
+            return;
         }
+        synchronized (batchLock) {
+            batch = batchSize > 1 ? new byte[batchSize][] : null;
+            batchCount = 0;
+            batchBytes = 0;
+        }
+        if (engine != null) {
+            executor = engine.getScheduler();
+        } else if (batchSize > 1 || spillDirectory != null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "RedisAppender-" + name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        spillJournal = null;
+        if (spillDirectory != null) {
+            try {
+                startSpillJournal();
+            } catch (IOException e) {
+                addError("Failed to open spill journal in [" + spillDirectory + "]", e);
+                releaseEngine();
+                closeConnection();
+                return;
+            }
+        }
+        super.start();
+    }
+
+    private void startSpillJournal() throws IOException {
+        spillJournal = new SpillJournal(new File(spillDirectory), spillMaxBytes, SpillJournal.DEFAULT_SEGMENT_BYTES);
+        replayTask = executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                replaySpilled();
+            }
+        }, REPLAY_INTERVAL_MILLIS, REPLAY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     protected void append(ILoggingEvent event) {
-        Jedis client = getClient();
-        if (client == null) {
+        byte[] eventBytes = encode(event);
+        if (eventBytes == null) {
             return;
         }
 
-        String eventString = applyLayout(event);
-        if (eventString == null) {
+        if (batch == null) {
+            push(new byte[][]{eventBytes}, 1);
             return;
         }
 
-        sendEventString(client, eventString);
+        synchronized (batchLock) {
+            addToBatch(eventBytes);
+        }
+    }
+
+    /**
+     * Appends events handed over together, such as those drained at once by
+     * {@link com.commercehub.logging.logback.AsyncAppender}. Without a batch size over one, they are still pushed
+     * together, in as few RPUSHes as {@code maxBatchBytes} allows; otherwise they join the batch under a single lock.
+     */
+    @Override
+    public void doAppendBatch(List<ILoggingEvent> events) {
+        if (!isStarted()) {
+            // let doAppend report it
+            for (ILoggingEvent event : events) {
+                doAppend(event);
+            }
+            return;
+        }
+
+        byte[][] encoded = new byte[events.size()][];
+        int count = 0;
+        for (ILoggingEvent event : events) {
+            if (getFilterChainDecision(event) == FilterReply.DENY) {
+                continue;
+            }
+            byte[] eventBytes = encode(event);
+            if (eventBytes != null) {
+                encoded[count++] = eventBytes;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+
+        if (batch != null) {
+            synchronized (batchLock) {
+                for (int i = 0; i < count; i++) {
+                    addToBatch(encoded[i]);
+                }
+            }
+            return;
+        }
+
+        int start = 0;
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > start && bytes + encoded[i].length > maxBatchBytes) {
+                push(start == 0 ? encoded : Arrays.copyOfRange(encoded, start, i), i - start);
+                start = i;
+                bytes = 0;
+            }
+            bytes += encoded[i].length;
+        }
+        push(start == 0 ? encoded : Arrays.copyOfRange(encoded, start, count), count - start);
+    }
+
+    /**
+     * Must be called holding {@code batchLock}.
+     */
+    private void addToBatch(byte[] eventBytes) {
+        // keep each RPUSH within the byte budget; an event over the budget on its own is sent alone
+        if (batchCount > 0 && batchBytes + eventBytes.length > maxBatchBytes) {
+            flushBatch();
+        }
+        batch[batchCount++] = eventBytes;
+        batchBytes += eventBytes.length;
+        if (batchCount == batch.length) {
+            flushBatch();
+        } else if (batchCount == 1) {
+            scheduleLingerFlush();
+        }
+    }
+
+    /**
+     * Sends the batch just started after {@code maxLinger}, unless it has been sent by then.
+     */
+    private void scheduleLingerFlush() {
+        final long generation = batchGeneration;
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (batchLock) {
+                        if (batchGeneration == generation && batchCount > 0) {
+                            flushBatch();
+                        }
+                    }
+                }
+            }, maxLinger, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopping
+            flushBatch();
+        }
     }
 
-    private Jedis getClient() {
+    /**
+     * Must be called holding {@code batchLock}.
+     */
+    private void flushBatch() {
+        push(batch, batchCount);
+        // let go of the events rather than keep them until they're overwritten
+        Arrays.fill(batch, 0, batchCount, null);
+        batchCount = 0;
+        batchBytes = 0;
+        batchGeneration++;
+    }
+
+    private byte[] encode(ILoggingEvent event) {
+        byte[] eventBytes;
+        try {
+            if (encoder != null) {
+                eventBytes = encoder.encode(event);
+            } else if (layout instanceof LogstashEventLayout) {
+                eventBytes = ((LogstashEventLayout) layout).encode(event);
+            } else {
+                eventBytes = SafeEncoder.encode(layout.doLayout(event));
+            }
+        } catch (Exception e) {
+            addError("Failed to layout event; event will be lost", e);
+            eventBytes = null;
+        }
+        return eventBytes;
+    }
+
+    /**
+     * Sends the events with a single RPUSH; the array isn't used once this returns.
+     */
+    private void push(byte[][] events, int count) {
+        byte[][] elements = toElements(events, count);
+
+        if (!circuitBreaker.allowRequest()) {
+            // Redis was unreachable moments ago; don't wait for another connection attempt to fail
+            if (spillJournal != null) {
+                spill(elements, count);
+            }
+            return;
+        }
+
+        if (respClient != null) {
+            pushOverNio(elements, count);
+            return;
+        }
+
         Jedis client;
         try {
-            client = pool.getResource();
+            client = borrowClient();
         } catch (JedisConnectionException e) {
-            addError("Problem occurred while getting redis client from pool; event will be lost", e);
+            sendFailed("Problem occurred while getting redis client from pool", e, elements, count);
+            return;
+        }
+
+        try {
+            client.rpush(keyBytes, elements);
+        } catch (Exception e) {
+            sendFailed("Problem occurred while sending " + describe(count) + " to redis", e, elements, count);
+            returnBrokenClient(client);
             client = null;
+        } finally {
+            if (client != null) {
+                circuitBreaker.onSuccess();
+                returnClient(client);
+            }
         }
-        return client;
     }
 
-    private String applyLayout(ILoggingEvent event) {
-        String eventString;
+    private void pushOverNio(byte[][] elements, int count) {
         try {
-            eventString = layout.doLayout(event);
+            respClient.rpush(keyBytes, elements, elements.length);
+            circuitBreaker.onSuccess();
         } catch (Exception e) {
-            addError("Failed to layout event; event will be lost", e);
-            eventString = null;
+            sendFailed("Problem occurred while sending " + describe(count) + " to redis", e, elements, count);
+        }
+    }
+
+    /**
+     * @return the dedicated connection with {@link ConnectionMode#DEDICATED}, otherwise a connection from the pool
+     */
+    private Jedis borrowClient() {
+        return connection != null ? connection.getResource() : pool.getResource();
+    }
+
+    private void returnClient(Jedis client) {
+        if (connection != null) {
+            connection.returnResource(client);
+        } else {
+            pool.returnResource(client);
+        }
+    }
+
+    private void returnBrokenClient(Jedis client) {
+        if (connection != null) {
+            connection.returnBrokenResource(client);
+        } else {
+            pool.returnBrokenResource(client);
+        }
+    }
+
+    private byte[][] toElements(byte[][] events, int count) {
+        BatchEnvelopeWriter writer = envelopeWriter;
+        if (writer != null) {
+            synchronized (writer) {
+                return new byte[][]{writer.write(events, count)};
+            }
+        }
+        return count == events.length ? events : Arrays.copyOf(events, count);
+    }
+
+    /**
+     * Spills the events if there is a spill journal, as are the events appended while the circuit breaker is open.
+     */
+    private void sendFailed(String problem, Exception e, byte[][] elements, int count) {
+        long backoff = circuitBreaker.onFailure();
+        if (spillJournal == null) {
+            addError(problem + "; " + describe(count) + " will be lost, as will the events of the next " + backoff
+                    + " ms", e);
+            return;
+        }
+        addWarn(problem + "; " + describe(count) + " will be spilled, as will the events of the next " + backoff
+                + " ms", e);
+        spill(elements, count);
+    }
+
+    private void spill(byte[][] elements, int count) {
+        try {
+            if (!spillJournal.append(elements, elements.length)) {
+                addError("Spill journal in [" + spillDirectory + "] is full; " + describe(count) + " will be lost");
+            }
+        } catch (IOException e) {
+            addError("Problem occurred while writing " + describe(count) + " to the spill journal; "
+                    + describe(count) + " will be lost", e);
         }
-        return eventString;
     }
 
-    private void sendEventString(Jedis client, String eventString) {
+    private static String describe(int count) {
+        return count == 1 ? "event" : count + " events";
+    }
+
+    /**
+     * Pushes up to a tenth of {@code spillReplayRate} spilled RPUSHes, in the order they were spilled. Events sent
+     * while there were still spilled ones left go straight to Redis, so the two may interleave.
+     */
+    private void replaySpilled() {
+        if (respClient != null) {
+            replaySpilledOverNio();
+            return;
+        }
+        Jedis client = null;
         try {
-            client.rpush(key, eventString);
+            long replays = Math.max(1, spillReplayRate * REPLAY_INTERVAL_MILLIS / TimeUnit.SECONDS.toMillis(1));
+            for (int i = 0; i < replays; i++) {
+                byte[][] elements = spillJournal.peek();
+                if (elements == null) {
+                    break;
+                }
+                if (client == null) {
+                    if (!circuitBreaker.allowRequest()) {
+                        break;
+                    }
+                    client = borrowClient();
+                }
+                try {
+                    client.rpush(keyBytes, elements);
+                } catch (JedisDataException e) {
+                    addError("Redis rejected spilled events; they will be lost", e);
+                }
+                spillJournal.remove();
+            }
+        } catch (JedisConnectionException e) {
+            // still unreachable; appends report that already
+            circuitBreaker.onFailure();
+            if (client != null) {
+                returnBrokenClient(client);
+                client = null;
+            }
         } catch (Exception e) {
-            addError("Problem occurred while sending event to redis; event will be lost", e);
-            pool.returnBrokenResource(client);
-            client = null;
+            addError("Problem occurred while replaying spilled events", e);
         } finally {
             if (client != null) {
-                pool.returnResource(client);
+                circuitBreaker.onSuccess();
+                returnClient(client);
             }
         }
     }
 
+    private void replaySpilledOverNio() {
+        boolean replaying = false;
+        try {
+            long replays = Math.max(1, spillReplayRate * REPLAY_INTERVAL_MILLIS / TimeUnit.SECONDS.toMillis(1));
+            for (int i = 0; i < replays; i++) {
+                byte[][] elements = spillJournal.peek();
+                if (elements == null) {
+                    break;
+                }
+                if (!replaying) {
+                    if (!circuitBreaker.allowRequest()) {
+                        break;
+                    }
+                    replaying = true;
+                }
+                try {
+                    respClient.rpush(keyBytes, elements, elements.length);
+                } catch (JedisDataException e) {
+                    addError("Redis rejected spilled events; they will be lost", e);
+                }
+                spillJournal.remove();
+            }
+            if (replaying) {
+                circuitBreaker.onSuccess();
+            }
+        } catch (JedisConnectionException e) {
+            // still unreachable; appends report that already
+            circuitBreaker.onFailure();
+        } catch (Exception e) {
+            addError("Problem occurred while replaying spilled events", e);
+        }
+    }
+
     @Override
     public void stop() {
         super.stop();
-        try {
-            pool.destroy();
-        } catch (Exception e) {
-            addError("Problem occurred while destroying redis client pool", e);
+        synchronized (batchLock) {
+            if (batchCount > 0) {
+                flushBatch();
+            }
+        }
+        if (replayTask != null) {
+            replayTask.cancel(false);
+            replayTask = null;
+        }
+        if (engine != null) {
+            // pending linger flushes find their batch already sent
+            releaseEngine();
+        } else {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            closeConnection();
+            if (pool != null) {
+                try {
+                    pool.destroy();
+                } catch (Exception e) {
+                    addError("Problem occurred while destroying redis client pool", e);
+                }
+            }
+        }
+        if (spillJournal != null) {
+            // left in place, closed, for appends racing with stop
+            spillJournal.close();
+        }
+        BatchEnvelopeWriter writer = envelopeWriter;
+        if (writer != null) {
+            envelopeWriter = null;
+            synchronized (writer) {
+                writer.close();
+            }
+        }
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+        if (respClient != null) {
+            respClient.close();
+            respClient = null;
+        }
+    }
+
+    private void releaseEngine() {
+        if (engine != null) {
+            executor = null;
+            engine.release();
+            engine = null;
         }
     }
 
@@ -182,4 +658,157 @@ public class RedisAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
         this.layout = layout;
     }
 
+    public LogstashEventEncoder getEncoder() {
+        return encoder;
+    }
+
+    public void setEncoder(LogstashEventEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    public BatchCompression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(BatchCompression compression) {
+        this.compression = compression;
+    }
+
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * Sets how long, in milliseconds, to stop trying Redis after it first couldn't be reached. The wait doubles with
+     * every further failure up to {@code maxBackoff}, and is shortened by up to half at random.
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets how many events are pushed together; the default of one pushes each event as it is appended, save for
+     * events handed over together by {@link #doAppendBatch}, which are still pushed together.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Sets the number of encoded bytes a single RPUSH may carry; a batch is sent early rather than grow past it.
+     */
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public long getMaxLinger() {
+        return maxLinger;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the first event of a partial batch may wait before the batch is sent.
+     */
+    public void setMaxLinger(long maxLinger) {
+        this.maxLinger = maxLinger;
+    }
+
+    public ConnectionMode getConnectionMode() {
+        return connectionMode;
+    }
+
+    /**
+     * Sets whether the appender borrows a connection from its pool for every push, or keeps a single connection open
+     * that its pushes take turns with; the pool config only applies to the former.
+     */
+    public void setConnectionMode(ConnectionMode connectionMode) {
+        this.connectionMode = connectionMode;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets whether the appender talks to Redis through Jedis or through a built-in NIO client that writes the encoded
+     * events without copying them first, on a single connection of its own; the pool config and connection mode only
+     * apply to the former.
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public long getProbeInterval() {
+        return probeInterval;
+    }
+
+    /**
+     * Sets how long, in milliseconds, a dedicated connection may sit idle before it is PINGed to check it's still
+     * open, and how often a broken one is reconnected in the background.
+     */
+    public void setProbeInterval(long probeInterval) {
+        this.probeInterval = probeInterval;
+    }
+
+    public boolean isSharedEngine() {
+        return sharedEngine;
+    }
+
+    /**
+     * Sets whether the appender shares its connections and threads with the other appenders of the process that send
+     * to the same host, port, database and password, each still pushing to its own key; the pool settings of the
+     * first of them to start apply to all. An appender on a shared engine always pushes through the engine's pool, so
+     * it won't start with a dedicated connection or the NIO transport.
+     */
+    public void setSharedEngine(boolean sharedEngine) {
+        this.sharedEngine = sharedEngine;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Sets the directory of the spill journal, which must not be shared with another appender; without one, events
+     * that can't be sent are lost.
+     */
+    public void setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    public void setSpillMaxBytes(long spillMaxBytes) {
+        this.spillMaxBytes = spillMaxBytes;
+    }
+
+    public int getSpillReplayRate() {
+        return spillReplayRate;
+    }
+
+    /**
+     * Sets how many spilled pushes per second are replayed once Redis is reachable again. Each push is one RPUSH of
+     * the batch (or envelope) that was spilled, so the rate of events replayed is up to {@code batchSize} times this.
+     */
+    public void setSpillReplayRate(int spillReplayRate) {
+        this.spillReplayRate = spillReplayRate;
+    }
+
 }
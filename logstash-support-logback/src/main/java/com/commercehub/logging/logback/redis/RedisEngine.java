@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback.redis;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The connections and threads shared by all appenders of the process that send to the same Redis endpoint, so that a
+ * process with many appenders doesn't keep a pool of mostly idle connections and a thread for each. An engine is
+ * created when the first appender for its endpoint acquires it and shut down once the last one releases it; its pool
+ * is configured by the first appender.
+ * <p>
+ * The appenders run their linger flushes and spill replays as tasks on the engine's {@link #THREADS} threads.
+ */
+final class RedisEngine {
+
+    static final int THREADS = 2;
+
+    private static final Map<Endpoint, RedisEngine> engines = new HashMap<>();
+
+    private final Endpoint endpoint;
+    private final JedisPool pool;
+    private final ScheduledExecutorService scheduler;
+    private int references;
+
+    private RedisEngine(final Endpoint endpoint, JedisPoolConfig poolConfig) {
+        this.endpoint = endpoint;
+        this.pool = new JedisPool(poolConfig, endpoint.host, endpoint.port, endpoint.timeout, endpoint.password,
+                endpoint.database);
+        this.scheduler = Executors.newScheduledThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "RedisEngine-" + endpoint.host + ":" + endpoint.port + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the engine for the endpoint, which the caller must {@link #release} once it's done with it
+     */
+    static synchronized RedisEngine acquire(String host, int port, int timeout, String password, int database,
+                                            JedisPoolConfig poolConfig) {
+        Endpoint endpoint = new Endpoint(host, port, timeout, password, database);
+        RedisEngine engine = engines.get(endpoint);
+        if (engine == null) {
+            engine = new RedisEngine(endpoint, poolConfig);
+            engines.put(endpoint, engine);
+        }
+        engine.references++;
+        return engine;
+    }
+
+    void release() {
+        synchronized (RedisEngine.class) {
+            if (--references > 0) {
+                return;
+            }
+            engines.remove(endpoint);
+        }
+        scheduler.shutdownNow();
+        pool.destroy();
+    }
+
+    JedisPool getPool() {
+        return pool;
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    // support testing
+    static synchronized int engineCount() {
+        return engines.size();
+    }
+
+    private static final class Endpoint {
+
+        final String host;
+        final int port;
+        final int timeout;
+        final String password;
+        final int database;
+
+        Endpoint(String host, int port, int timeout, String password, int database) {
+            this.host = host;
+            this.port = port;
+            this.timeout = timeout;
+            this.password = password;
+            this.database = database;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Endpoint)) {
+                return false;
+            }
+            Endpoint other = (Endpoint) o;
+            return port == other.port && timeout == other.timeout && database == other.database
+                    && host.equals(other.host)
+                    && (password == null ? other.password == null : password.equals(other.password));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = host.hashCode();
+            result = 31 * result + port;
+            result = 31 * result + timeout;
+            result = 31 * result + (password == null ? 0 : password.hashCode());
+            result = 31 * result + database;
+            return result;
+        }
+
+    }
+
+}
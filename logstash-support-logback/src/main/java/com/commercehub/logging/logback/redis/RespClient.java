@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.commercehub.logging.logback.redis;
+
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+
+/**
+ * A minimal Redis client on a non-blocking {@link SocketChannel}, which knows just enough of RESP to send an RPUSH.
+ * The command is framed around the encoded events without copying them: its framing goes into one direct buffer, and
+ * slices of it are written together with the events in a single gathering write. The reply is read once the command
+ * is written; a selector bounds how long either takes.
+ * <p>
+ * The connection is opened on first use, and closed when it fails, so that the next command opens a new one. Commands
+ * from several threads take turns. As with Jedis, a connection problem is reported as a
+ * {@link JedisConnectionException} and an error reply as a {@link JedisDataException}.
+ */
+final class RespClient {
+
+    private static final byte[] RPUSH = SafeEncoder.encode("RPUSH");
+    private static final byte[] AUTH = SafeEncoder.encode("AUTH");
+    private static final byte[] SELECT = SafeEncoder.encode("SELECT");
+    private static final byte[] PING = SafeEncoder.encode("PING");
+    private static final byte[][] NO_ARGUMENTS = new byte[0][];
+
+    // "\r\n$" plus a length of up to 10 digits plus "\r\n"
+    private static final int MAX_FRAME_BYTES = 15;
+
+    private final String host;
+    private final int port;
+    private final int timeout;
+    private final String password;
+    private final int database;
+
+    private SocketChannel channel;
+    private Selector selector;
+    private ByteBuffer framing = ByteBuffer.allocateDirect(64 * MAX_FRAME_BYTES);
+    private final ByteBuffer replyBuffer = ByteBuffer.allocateDirect(1024);
+    private final StringBuilder replyLine = new StringBuilder();
+
+    /**
+     * @param timeout how long, in milliseconds, connecting, writing a command or reading its reply may take
+     */
+    RespClient(String host, int port, int timeout, String password, int database) {
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.password = password;
+        this.database = database;
+    }
+
+    /**
+     * Pushes the first {@code count} elements.
+     *
+     * @return the length of the list after the push
+     */
+    synchronized long rpush(byte[] key, byte[][] elements, int count) {
+        return (Long) call(RPUSH, key, elements, count);
+    }
+
+    synchronized String ping() {
+        return (String) call(PING, null, NO_ARGUMENTS, 0);
+    }
+
+    synchronized void close() {
+        disconnect();
+    }
+
+    private Object call(byte[] command, byte[] first, byte[][] rest, int restCount) {
+        try {
+            if (channel == null) {
+                connect();
+            }
+            write(command, first, rest, restCount);
+            return readReply();
+        } catch (IOException e) {
+            disconnect();
+            throw new JedisConnectionException(e);
+        }
+    }
+
+    private void connect() throws IOException {
+        channel = SocketChannel.open();
+        selector = Selector.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            if (!channel.connect(new InetSocketAddress(host, port))) {
+                await(SelectionKey.OP_CONNECT);
+                channel.finishConnect();
+            }
+            replyBuffer.clear();
+            replyBuffer.flip();
+            if (password != null) {
+                write(AUTH, SafeEncoder.encode(password), NO_ARGUMENTS, 0);
+                readReply();
+            }
+            if (database != Protocol.DEFAULT_DATABASE) {
+                write(SELECT, Protocol.toByteArray(database), NO_ARGUMENTS, 0);
+                readReply();
+            }
+        } catch (UnresolvedAddressException e) {
+            disconnect();
+            throw new IOException("Unknown host " + host, e);
+        } catch (JedisDataException e) {
+            // a connection that can't be used is as good as none
+            disconnect();
+            throw new IOException("Redis refused the connection: " + e.getMessage(), e);
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Frames the command as a RESP array of bulk strings and writes it, the arguments straight from their arrays.
+     */
+    private void write(byte[] command, byte[] first, byte[][] rest, int restCount) throws IOException {
+        int argumentCount = (first == null ? 0 : 1) + restCount;
+        ByteBuffer[] buffers = new ByteBuffer[2 * argumentCount + 2];
+        ensureFraming(argumentCount + 1);
+        framing.clear();
+
+        int b = 0;
+        int start = framing.position();
+        framing.put((byte) '*');
+        putDecimal(framing, argumentCount + 1);
+        putCrlf(framing);
+        putLength(framing, command.length);
+        framing.put(command);
+        for (int i = -1; i < restCount; i++) {
+            byte[] argument = i < 0 ? first : rest[i];
+            if (argument == null) {
+                continue;
+            }
+            putCrlf(framing);
+            putLength(framing, argument.length);
+            buffers[b++] = slice(start);
+            buffers[b++] = ByteBuffer.wrap(argument);
+            start = framing.position();
+        }
+        putCrlf(framing);
+        buffers[b++] = slice(start);
+
+        int pending = 0;
+        while (pending < b) {
+            if (channel.write(buffers, pending, b - pending) == 0) {
+                await(SelectionKey.OP_WRITE);
+            }
+            while (pending < b && !buffers[pending].hasRemaining()) {
+                pending++;
+            }
+        }
+    }
+
+    private void ensureFraming(int bulkStrings) {
+        // the command name is framed inline, so allow for it too
+        int needed = MAX_FRAME_BYTES * (bulkStrings + 1) + 16;
+        if (framing.capacity() < needed) {
+            framing = ByteBuffer.allocateDirect(Math.max(needed, 2 * framing.capacity()));
+        }
+    }
+
+    private ByteBuffer slice(int start) {
+        ByteBuffer slice = framing.duplicate();
+        slice.position(start);
+        slice.limit(framing.position());
+        return slice;
+    }
+
+    private static void putLength(ByteBuffer buffer, int length) {
+        buffer.put((byte) '$');
+        putDecimal(buffer, length);
+        putCrlf(buffer);
+    }
+
+    private static void putCrlf(ByteBuffer buffer) {
+        buffer.put((byte) '\r').put((byte) '\n');
+    }
+
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        if (value >= 10) {
+            putDecimal(buffer, value / 10);
+        }
+        buffer.put((byte) ('0' + value % 10));
+    }
+
+    /**
+     * Reads a status, error or integer reply, the only kinds the commands sent here get.
+     */
+    private Object readReply() throws IOException {
+        String line = readLine();
+        if (line.isEmpty()) {
+            throw new IOException("Empty reply from Redis");
+        }
+        String value = line.substring(1);
+        switch (line.charAt(0)) {
+            case '+':
+                return value;
+            case '-':
+                throw new JedisDataException(value);
+            case ':':
+                try {
+                    return Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed integer reply from Redis: " + line, e);
+                }
+            default:
+                throw new IOException("Unexpected reply from Redis: " + line);
+        }
+    }
+
+    private String readLine() throws IOException {
+        replyLine.setLength(0);
+        while (true) {
+            while (replyBuffer.hasRemaining()) {
+                char c = (char) (replyBuffer.get() & 0xff);
+                int length = replyLine.length();
+                if (c == '\n' && length > 0 && replyLine.charAt(length - 1) == '\r') {
+                    replyLine.setLength(length - 1);
+                    return replyLine.toString();
+                }
+                replyLine.append(c);
+            }
+            replyBuffer.clear();
+            int read;
+            while ((read = channel.read(replyBuffer)) == 0) {
+                await(SelectionKey.OP_READ);
+            }
+            replyBuffer.flip();
+            if (read < 0) {
+                throw new IOException("Connection closed by Redis");
+            }
+        }
+    }
+
+    private void await(int operation) throws IOException {
+        SelectionKey key = channel.register(selector, operation);
+        try {
+            if (selector.select(timeout) == 0) {
+                throw new IOException("Timed out after " + timeout + " ms waiting for Redis");
+            }
+        } finally {
+            key.interestOps(0);
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private void disconnect() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            // nothing left to do with it
+        } finally {
+            channel = null;
+            selector = null;
+        }
+    }
+
+}
@@ -17,9 +17,22 @@
 package com.commercehub.logging.logback
 
 import ch.qos.logback.classic.Level
+import ch.qos.logback.classic.Logger
+import ch.qos.logback.classic.LoggerContext
+import ch.qos.logback.classic.PatternLayout
+import ch.qos.logback.classic.spi.ILoggingEvent
 import ch.qos.logback.classic.spi.LoggingEvent
+import ch.qos.logback.core.AppenderBase
+import com.commercehub.RedisResource
+import com.commercehub.logging.logback.redis.RedisAppender
+import org.slf4j.LoggerFactory
+import redis.clients.jedis.Jedis
+import spock.lang.IgnoreIf
 import spock.lang.Specification
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
 class AsyncAppenderSpecification extends Specification {
 
     def asyncAppender = new AsyncAppender()
@@ -44,4 +57,280 @@ class AsyncAppenderSpecification extends Specification {
             null        | _
     }
 
+    def "discards events that don't fit the byte budget until the queue drains"() {
+        given:
+            def context = new LoggerContext()
+            def logger = context.getLogger('test')
+            def blockingAppender = new BlockingAppender()
+            blockingAppender.context = context
+            blockingAppender.start()
+            asyncAppender.context = context
+            asyncAppender.queueSize = 100
+            asyncAppender.discardingThreshold = 0
+            asyncAppender.addAppender(blockingAppender)
+            def largeMessage = 'x' * 10000
+            def eventSize = AsyncAppender.estimateSize(newEvent(logger, largeMessage))
+            asyncAppender.maxQueueBytes = 3 * eventSize
+            asyncAppender.start()
+
+        when: "the worker is stuck on the first event"
+            asyncAppender.doAppend(newEvent(logger, largeMessage))
+            assert blockingAppender.entered.await(10, TimeUnit.SECONDS)
+            10.times { asyncAppender.doAppend(newEvent(logger, largeMessage)) }
+
+        then:
+            asyncAppender.queuedBytes == 3 * eventSize
+            asyncAppender.overBudgetDiscardCount == 7
+
+        when: "the worker catches up"
+            blockingAppender.proceed.countDown()
+            asyncAppender.stop()
+
+        then:
+            blockingAppender.events.size() == 4
+            asyncAppender.overBudgetDiscardCount == 7
+    }
+
+    def "hands the events drained together to a batch appender in one call"() {
+        given:
+            def context = new LoggerContext()
+            def logger = context.getLogger('test')
+            def batchAppender = new BlockingBatchAppender()
+            batchAppender.context = context
+            batchAppender.start()
+            asyncAppender.context = context
+            asyncAppender.addAppender(batchAppender)
+            asyncAppender.start()
+
+        when: "the worker is stuck on the first event"
+            asyncAppender.doAppend(newEvent(logger, 'first'))
+            assert batchAppender.entered.await(10, TimeUnit.SECONDS)
+            5.times { asyncAppender.doAppend(newEvent(logger, "queued ${it}")) }
+
+        and:
+            batchAppender.proceed.countDown()
+            asyncAppender.stop()
+
+        then:
+            batchAppender.batches == [['first'], (0..4).collect { "queued ${it}".toString() }]
+            asyncAppender.numberOfElementsInQueue == 0
+    }
+
+    def "blocks rather than discards once the queue is full if nothing is discardable"() {
+        given:
+            def context = new LoggerContext()
+            def logger = context.getLogger('test')
+            def blockingAppender = new BlockingAppender()
+            blockingAppender.context = context
+            blockingAppender.start()
+            def appender = new AsyncAppender() {
+                @Override
+                protected boolean isDiscardable(ILoggingEvent event) {
+                    return false
+                }
+            }
+            appender.context = context
+            appender.queueSize = 2
+            appender.addAppender(blockingAppender)
+            appender.start()
+
+        when: "the worker is stuck on the first event and the queue has been filled"
+            appender.doAppend(newEvent(logger, 'first'))
+            assert blockingAppender.entered.await(10, TimeUnit.SECONDS)
+            2.times { appender.doAppend(newEvent(logger, 'queued')) }
+            def producer = Thread.start { appender.doAppend(newEvent(logger, 'last')) }
+            producer.join(200)
+
+        then:
+            producer.alive
+
+        when:
+            blockingAppender.proceed.countDown()
+            producer.join(10000)
+            appender.stop()
+
+        then:
+            !producer.alive
+            blockingAppender.events*.message == ['first', 'queued', 'queued', 'last']
+    }
+
+    def "hands the most severe events over first with priority lanes"() {
+        given:
+            def context = new LoggerContext()
+            def logger = context.getLogger('test')
+            def batchAppender = new BlockingBatchAppender()
+            batchAppender.context = context
+            batchAppender.start()
+            asyncAppender.context = context
+            asyncAppender.priorityLanes = true
+            asyncAppender.addAppender(batchAppender)
+            asyncAppender.start()
+
+        when: "the worker is stuck on the first event"
+            asyncAppender.doAppend(newEvent(logger, 'first'))
+            assert batchAppender.entered.await(10, TimeUnit.SECONDS)
+            asyncAppender.doAppend(newEvent(logger, Level.INFO, 'info'))
+            asyncAppender.doAppend(newEvent(logger, Level.DEBUG, 'debug'))
+            asyncAppender.doAppend(newEvent(logger, Level.WARN, 'warn'))
+            asyncAppender.doAppend(newEvent(logger, Level.ERROR, 'error'))
+
+        and:
+            batchAppender.proceed.countDown()
+            asyncAppender.stop()
+
+        then:
+            batchAppender.batches == [['first'], ['error', 'warn', 'info', 'debug']]
+    }
+
+    def "only discards events less severe than WARN at the discarding threshold with priority lanes"() {
+        given:
+            def context = new LoggerContext()
+            def logger = context.getLogger('test')
+            def blockingAppender = new BlockingAppender()
+            blockingAppender.context = context
+            blockingAppender.start()
+            asyncAppender.context = context
+            asyncAppender.priorityLanes = true
+            asyncAppender.queueSize = 4
+            asyncAppender.discardingThreshold = 1000
+            asyncAppender.addAppender(blockingAppender)
+            asyncAppender.start()
+
+        when: "the worker is stuck on the first event"
+            asyncAppender.doAppend(newEvent(logger, Level.ERROR, 'first'))
+            assert blockingAppender.entered.await(10, TimeUnit.SECONDS)
+            asyncAppender.doAppend(newEvent(logger, Level.INFO, 'info'))
+            asyncAppender.doAppend(newEvent(logger, Level.WARN, 'warn'))
+            asyncAppender.doAppend(newEvent(logger, Level.ERROR, 'error'))
+
+        and:
+            blockingAppender.proceed.countDown()
+            asyncAppender.stop()
+
+        then:
+            blockingAppender.events*.message == ['first', 'error', 'warn']
+            asyncAppender.getDiscardedCount(Level.INFO) == 1
+            asyncAppender.getDiscardedCount(Level.WARN) == 0
+            asyncAppender.getDiscardedCount(Level.ERROR) == 0
+    }
+
+    def "discards less severe events to fit more severe ones into the byte budget with priority lanes"() {
+        given:
+            def context = new LoggerContext()
+            def logger = context.getLogger('test')
+            def blockingAppender = new BlockingAppender()
+            blockingAppender.context = context
+            blockingAppender.start()
+            asyncAppender.context = context
+            asyncAppender.priorityLanes = true
+            asyncAppender.discardingThreshold = 0
+            asyncAppender.addAppender(blockingAppender)
+            asyncAppender.maxQueueBytes = 3 * AsyncAppender.estimateSize(newEvent(logger, 'info 0'))
+            asyncAppender.start()
+
+        when: "the worker is stuck on the first event"
+            asyncAppender.doAppend(newEvent(logger, 'first'))
+            assert blockingAppender.entered.await(10, TimeUnit.SECONDS)
+            asyncAppender.doAppend(newEvent(logger, Level.INFO, 'info 0'))
+            asyncAppender.doAppend(newEvent(logger, Level.WARN, 'warn 0'))
+            asyncAppender.doAppend(newEvent(logger, Level.INFO, 'info 1'))
+            asyncAppender.doAppend(newEvent(logger, Level.ERROR, 'fail 0'))
+            asyncAppender.doAppend(newEvent(logger, Level.DEBUG, 'dbug 0'))
+
+        then:
+            asyncAppender.overBudgetDiscardCount == 2
+            asyncAppender.getDiscardedCount(Level.INFO) == 1
+            asyncAppender.getDiscardedCount(Level.DEBUG) == 1
+            asyncAppender.getDiscardedCount(Level.ERROR) == 0
+
+        when:
+            blockingAppender.proceed.countDown()
+            asyncAppender.stop()
+
+        then:
+            blockingAppender.events*.message == ['first', 'fail 0', 'warn 0', 'info 1']
+    }
+
+    @IgnoreIf({ !(System.getProperty('os.name').toLowerCase() in ['mac os x', 'linux']) })
+    def "stops the attached appenders once the queue is drained, so a partial batch reaches redis"() {
+        given:
+            def redisResource = new RedisResource()
+            redisResource.before()
+            def jedis = new Jedis('localhost', redisResource.redisServer.port)
+            def context = new LoggerContext()
+            def logger = context.getLogger('test')
+            def layout = new PatternLayout()
+            layout.context = context
+            layout.pattern = '%msg'
+            layout.start()
+            def redisAppender = new RedisAppender()
+            redisAppender.context = context
+            redisAppender.port = redisResource.redisServer.port
+            redisAppender.key = 'asyncAppenderSpecification'
+            redisAppender.layout = layout
+            redisAppender.batchSize = 10
+            redisAppender.maxLinger = 3600000
+            redisAppender.start()
+            asyncAppender.context = context
+            asyncAppender.addAppender(redisAppender)
+            asyncAppender.start()
+
+        when:
+            asyncAppender.doAppend(newEvent(logger, 'event 0'))
+            asyncAppender.doAppend(newEvent(logger, 'event 1'))
+            asyncAppender.stop()
+
+        then:
+            !redisAppender.started
+            !asyncAppender.iteratorForAppenders().hasNext()
+            jedis.lrange('asyncAppenderSpecification', 0, -1) == ['event 0', 'event 1']
+
+        cleanup:
+            jedis?.close()
+            redisResource?.after()
+    }
+
+    private static ILoggingEvent newEvent(Logger logger, Level level, String message) {
+        return new LoggingEvent(null, logger, level, message, null, null)
+    }
+
+    private static ILoggingEvent newEvent(Logger logger, String message) {
+        return new LoggingEvent(null, logger, Level.ERROR, message, null, null)
+    }
+
+}
+
+class BlockingAppender extends AppenderBase<ILoggingEvent> {
+
+    def entered = new CountDownLatch(1)
+    def proceed = new CountDownLatch(1)
+    def events = []
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        entered.countDown()
+        proceed.await(10, TimeUnit.SECONDS)
+        events << event
+    }
+
+}
+
+class BlockingBatchAppender extends AppenderBase<ILoggingEvent> implements BatchAppender<ILoggingEvent> {
+
+    def entered = new CountDownLatch(1)
+    def proceed = new CountDownLatch(1)
+    def batches = []
+
+    @Override
+    void doAppendBatch(List<ILoggingEvent> events) {
+        entered.countDown()
+        proceed.await(10, TimeUnit.SECONDS)
+        batches << events*.message
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        throw new UnsupportedOperationException()
+    }
+
 }
@@ -18,12 +18,19 @@ package com.commercehub.logging.logback.redis
 
 import ch.qos.logback.classic.Level
 import ch.qos.logback.classic.Logger
+import ch.qos.logback.classic.LoggerContext
 import ch.qos.logback.classic.spi.ILoggingEvent
 import ch.qos.logback.classic.spi.LoggingEvent
 import ch.qos.logback.core.LayoutBase
 import ch.qos.logback.core.status.Status
 import com.commercehub.RedisResource
+import com.commercehub.logging.logback.LogstashEventEncoder
+import com.commercehub.logging.logback.LogstashEventLayout
+import net.minidev.json.JSONObject
+import net.minidev.json.JSONValue
 import org.junit.ClassRule
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
 import org.slf4j.LoggerFactory
 import redis.clients.jedis.Jedis
 import spock.lang.IgnoreIf
@@ -35,6 +42,7 @@ class RedisAppenderSpecification extends Specification {
 
     private static final Logger logger = (Logger) LoggerFactory.getLogger(RedisAppenderSpecification.getClass())
     private static final KEY = 'redisAppenderSpecification'
+    private static final OTHER_KEY = 'redisAppenderSpecification.other'
     private static final MESSAGE = 'I am an awesome message'
 
     private static boolean isUnsupportedOs() {
@@ -50,6 +58,9 @@ class RedisAppenderSpecification extends Specification {
     @ClassRule
     RedisResource redisResource
 
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
     def setup() {
         def port = redisResource.redisServer.port
 
@@ -65,6 +76,7 @@ class RedisAppenderSpecification extends Specification {
 
     def cleanup() {
         appender.stop()
+        jedis.del(KEY)
         jedis.close()
     }
 
@@ -83,6 +95,340 @@ class RedisAppenderSpecification extends Specification {
             eventString == MESSAGE
     }
 
+    def "sends events serialized by a LogstashEventLayout or LogstashEventEncoder"() {
+        given:
+            appender.stop()
+            appender.layout = layout
+            appender.encoder = encoder
+            appender.start()
+            def event = new LoggingEvent(null, logger, Level.INFO, MESSAGE, null, null)
+
+        when:
+            appender.append(event)
+            def parsedEvent = (JSONObject) JSONValue.parse(jedis.rpop(KEY))
+
+        then:
+            !appender.context.statusManager.copyOfStatusList.find { it.level == Status.ERROR }
+
+        and:
+            parsedEvent.message == MESSAGE
+            parsedEvent.host == 'some-host'
+
+        where:
+            layout      | encoder
+            newLayout() | null
+            null        | new LogstashEventEncoder(newLayout())
+    }
+
+    def "sends events inside compressed envelopes"() {
+        given:
+            appender.stop()
+            appender.layout = newLayout()
+            appender.compression = BatchCompression.GZIP
+            appender.start()
+            def event = new LoggingEvent(null, logger, Level.INFO, MESSAGE, null, null)
+
+        when:
+            appender.append(event)
+            def element = jedis.rpop(KEY.bytes)
+            def events = BatchEnvelopeReader.read(element)
+            def parsedEvent = (JSONObject) JSONValue.parse(new String(events[0], 'UTF-8'))
+
+        then:
+            !appender.context.statusManager.copyOfStatusList.find { it.level == Status.ERROR }
+
+        and:
+            BatchEnvelopeReader.isEnvelope(element)
+            events.size() == 1
+            parsedEvent.message == MESSAGE
+    }
+
+    def "pushes a batch with a single RPUSH once it is full"() {
+        given:
+            appender.stop()
+            appender.batchSize = 3
+            appender.maxLinger = 3600000
+            appender.start()
+
+        when:
+            append('event 0', 'event 1')
+
+        then:
+            jedis.llen(KEY) == 0
+
+        when:
+            append('event 2')
+
+        then:
+            jedis.lrange(KEY, 0, -1) == ['event 0', 'event 1', 'event 2']
+    }
+
+    def "pushes a batch early rather than let it grow past maxBatchBytes"() {
+        given:
+            appender.stop()
+            appender.batchSize = 10
+            appender.maxBatchBytes = 8
+            appender.maxLinger = 3600000
+            appender.start()
+
+        when:
+            append('aaaa', 'bbbb', 'cccc')
+
+        then:
+            jedis.lrange(KEY, 0, -1) == ['aaaa', 'bbbb']
+    }
+
+    def "pushes a partial batch once maxLinger has passed or the appender stops"() {
+        given:
+            appender.stop()
+            appender.batchSize = 10
+            appender.maxLinger = 50
+            appender.start()
+
+        when:
+            append('event 0', 'event 1')
+            awaitListLength(2)
+
+        then:
+            jedis.lrange(KEY, 0, -1) == ['event 0', 'event 1']
+
+        when:
+            appender.stop()
+            appender.maxLinger = 3600000
+            appender.start()
+            append('event 2')
+            appender.stop()
+
+        then:
+            jedis.lrange(KEY, 0, -1) == ['event 0', 'event 1', 'event 2']
+    }
+
+    def "pushes a batch as one compressed envelope"() {
+        given:
+            appender.stop()
+            appender.batchSize = 3
+            appender.compression = BatchCompression.GZIP
+            appender.start()
+
+        when:
+            append('event 0', 'event 1', 'event 2')
+            def elements = jedis.lrange(KEY.bytes, 0, -1)
+
+        then:
+            elements.size() == 1
+            BatchEnvelopeReader.read(elements[0]).collect { new String(it, 'UTF-8') } == ['event 0', 'event 1', 'event 2']
+    }
+
+    def "pushes events handed over together in as few RPUSHes as maxBatchBytes allows"() {
+        given:
+            appender.stop()
+            appender.compression = BatchCompression.GZIP
+            appender.maxBatchBytes = 8
+            appender.start()
+
+        when:
+            appender.doAppendBatch(['aaaa', 'bbbb', 'cccc'].collect {
+                new LoggingEvent(null, logger, Level.INFO, it, null, null)
+            } as List<ILoggingEvent>)
+            def elements = jedis.lrange(KEY.bytes, 0, -1)
+
+        then:
+            elements.collect { BatchEnvelopeReader.read(it).collect { new String(it, 'UTF-8') } } ==
+                    [['aaaa', 'bbbb'], ['cccc']]
+    }
+
+    def "appenders on a shared engine each push to their own key"() {
+        given:
+            def engines = RedisEngine.engineCount()
+            appender.stop()
+            appender.sharedEngine = true
+            appender.batchSize = 2
+            appender.start()
+            def otherAppender = new RedisAppender()
+            otherAppender.context = appender.context
+            otherAppender.port = appender.port
+            otherAppender.key = OTHER_KEY
+            otherAppender.layout = new SimpleLayout()
+            otherAppender.sharedEngine = true
+            otherAppender.maxLinger = 20
+            otherAppender.batchSize = 2
+            otherAppender.start()
+
+        when:
+            append('event 0', 'event 1')
+            otherAppender.append(new LoggingEvent(null, logger, Level.INFO, 'other event', null, null))
+            def deadline = System.currentTimeMillis() + 10000
+            while (jedis.llen(OTHER_KEY) < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20)
+            }
+
+        then: "the linger flush ran on the shared engine"
+            RedisEngine.engineCount() == engines + 1
+            jedis.lrange(KEY, 0, -1) == ['event 0', 'event 1']
+            jedis.lrange(OTHER_KEY, 0, -1) == ['other event']
+
+        when:
+            otherAppender.stop()
+            appender.stop()
+
+        then:
+            RedisEngine.engineCount() == engines
+
+        cleanup:
+            jedis.del(OTHER_KEY)
+    }
+
+    def "doesn't start on a shared engine with a dedicated connection or the NIO transport"() {
+        given:
+            def sharedAppender = new RedisAppender()
+            sharedAppender.context = new LoggerContext()
+            sharedAppender.port = redisResource.redisServer.port
+            sharedAppender.key = OTHER_KEY
+            sharedAppender.layout = new SimpleLayout()
+            sharedAppender.sharedEngine = true
+            sharedAppender.connectionMode = connectionMode
+            sharedAppender.transport = transport
+            def engines = RedisEngine.engineCount()
+
+        when:
+            sharedAppender.start()
+
+        then:
+            !sharedAppender.started
+            RedisEngine.engineCount() == engines
+            with(sharedAppender.context.statusManager.copyOfStatusList.last()) {
+                level == Status.ERROR
+                message.contains('shared engine')
+            }
+
+        where:
+            connectionMode           | transport
+            ConnectionMode.DEDICATED | Transport.JEDIS
+            ConnectionMode.POOLED    | Transport.NIO
+    }
+
+    def "keeps a dedicated connection and reconnects once a probe finds it dropped"() {
+        given:
+            appender.stop()
+            appender.connectionMode = ConnectionMode.DEDICATED
+            appender.probeInterval = 50
+            appender.start()
+
+        when:
+            append('event 0', 'event 1')
+
+        then: "both events went over the same connection"
+            appenderClients().size() == 1
+
+        when: "redis drops the connection"
+            appenderClients().each { jedis.clientKill(it) }
+            Thread.sleep(500)
+            append('event 2')
+
+        then: "the probe reconnected before the next push"
+            jedis.lrange(KEY, 0, -1) == ['event 0', 'event 1', 'event 2']
+            !appender.context.statusManager.copyOfStatusList.find { it.level == Status.ERROR }
+    }
+
+    def "sends batches and spilled events over the NIO transport"() {
+        given:
+            appender.stop()
+            appender.transport = Transport.NIO
+            appender.batchSize = 2
+            appender.compression = BatchCompression.GZIP
+            appender.start()
+
+        when:
+            append('event 0', 'event 1', 'event 2')
+            appender.stop()
+            def elements = jedis.lrange(KEY.bytes, 0, -1)
+
+        then:
+            elements.collect { BatchEnvelopeReader.read(it).collect { new String(it, 'UTF-8') } } ==
+                    [['event 0', 'event 1'], ['event 2']]
+    }
+
+    def "doesn't try redis again until the backoff has passed"() {
+        given:
+            def unreachableAppender = new RedisAppender()
+            unreachableAppender.context = new LoggerContext()
+            unreachableAppender.port = unusedPort()
+            unreachableAppender.key = KEY
+            unreachableAppender.layout = new SimpleLayout()
+            unreachableAppender.initialBackoff = 3600000
+            unreachableAppender.start()
+
+        when:
+            (0..<3).each {
+                unreachableAppender.append(new LoggingEvent(null, logger, Level.INFO, "event $it", null, null))
+            }
+            unreachableAppender.stop()
+
+        then: "only the first event tried to reach redis"
+            unreachableAppender.context.statusManager.copyOfStatusList.findAll { it.level == Status.ERROR }.size() == 1
+    }
+
+    def "spills events while redis is unreachable and replays them once it is reachable"() {
+        given:
+            def unreachableAppender = new RedisAppender()
+            unreachableAppender.context = appender.context
+            unreachableAppender.port = unusedPort()
+            unreachableAppender.key = KEY
+            unreachableAppender.layout = new SimpleLayout()
+            unreachableAppender.spillDirectory = folder.root.path
+            unreachableAppender.start()
+
+        when: "redis can't be reached"
+            (0..<3).each {
+                unreachableAppender.append(new LoggingEvent(null, logger, Level.INFO, "event $it", null, null))
+            }
+            unreachableAppender.stop()
+
+        then: "nothing was lost"
+            !unreachableAppender.context.statusManager.copyOfStatusList.find { it.level == Status.ERROR }
+            jedis.llen(KEY) == 0
+
+        when: "an appender with the same spill directory starts"
+            appender.stop()
+            appender.spillDirectory = folder.root.path
+            appender.start()
+            awaitListLength(3)
+
+        then: "it replays the spilled events in order"
+            jedis.lrange(KEY, 0, -1) == ['event 0', 'event 1', 'event 2']
+    }
+
+    private void append(String... messages) {
+        messages.each { appender.append(new LoggingEvent(null, logger, Level.INFO, it, null, null)) }
+    }
+
+    private List<String> appenderClients() {
+        jedis.clientSetname('specification')
+        return jedis.clientList().readLines().findAll { !it.contains(' name=specification ') }.collect {
+            (it =~ /addr=(\S+)/)[0][1]
+        }
+    }
+
+    private void awaitListLength(long length) {
+        def deadline = System.currentTimeMillis() + 10000
+        while (jedis.llen(KEY) < length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20)
+        }
+    }
+
+    private static int unusedPort() {
+        def socket = new ServerSocket(0)
+        int port = socket.localPort
+        socket.close()
+        return port
+    }
+
+    private static LogstashEventLayout newLayout() {
+        def layout = new LogstashEventLayout()
+        layout.host = 'some-host'
+        return layout
+    }
+
 }
 
 class SimpleLayout extends LayoutBase<ILoggingEvent> {
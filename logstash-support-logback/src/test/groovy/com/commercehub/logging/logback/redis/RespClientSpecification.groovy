@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback.redis
+
+import com.commercehub.RedisResource
+import org.junit.ClassRule
+import redis.clients.jedis.Jedis
+import redis.clients.jedis.exceptions.JedisConnectionException
+import redis.clients.jedis.exceptions.JedisDataException
+import spock.lang.IgnoreIf
+import spock.lang.Shared
+import spock.lang.Specification
+
+@IgnoreIf({ isUnsupportedOs() })
+class RespClientSpecification extends Specification {
+
+    private static final KEY = 'respClientSpecification'
+
+    private static boolean isUnsupportedOs() {
+        def osName = System.getProperty('os.name').toLowerCase()
+        return !(osName in ['mac os x', 'linux'])
+    }
+
+    @Shared
+    @ClassRule
+    RedisResource redisResource
+
+    Jedis jedis
+    RespClient client
+
+    def setup() {
+        jedis = new Jedis('localhost', redisResource.redisServer.port)
+        client = new RespClient('localhost', redisResource.redisServer.port, 2000, null, 0)
+    }
+
+    def cleanup() {
+        client.close()
+        jedis.del(KEY)
+        jedis.close()
+    }
+
+    def "pushes the first count elements as they are"() {
+        given:
+            byte[][] elements = [[0, 13, 10, 255] as byte[], 'event'.bytes, new byte[0], 'unsent'.bytes]
+
+        expect:
+            client.ping() == 'PONG'
+            client.rpush(KEY.bytes, elements, 3) == 3
+            jedis.lrange(KEY.bytes, 0, -1).collect { it as List } == elements[0..2].collect { it as List }
+    }
+
+    def "pushes more elements than a single gathering write takes"() {
+        given:
+            byte[][] elements = (0..<5000).collect { "event $it".toString().bytes }
+
+        expect:
+            client.rpush(KEY.bytes, elements, elements.length) == 5000
+            jedis.lrange(KEY, 0, -1) == (0..<5000).collect { "event $it".toString() }
+    }
+
+    def "reports an error reply and keeps the connection"() {
+        given:
+            jedis.set(KEY, 'not a list')
+
+        when:
+            client.rpush(KEY.bytes, ['event'.bytes] as byte[][], 1)
+
+        then:
+            thrown(JedisDataException)
+            client.ping() == 'PONG'
+    }
+
+    def "selects the database"() {
+        given:
+            def otherDatabase = new RespClient('localhost', redisResource.redisServer.port, 2000, null, 1)
+
+        when:
+            otherDatabase.rpush(KEY.bytes, ['event'.bytes] as byte[][], 1)
+            jedis.select(1)
+
+        then:
+            jedis.lrange(KEY, 0, -1) == ['event']
+
+        cleanup:
+            otherDatabase.close()
+            jedis.del(KEY)
+            jedis.select(0)
+    }
+
+    def "reconnects after the connection was dropped"() {
+        given:
+            client.ping()
+            jedis.clientSetname('specification')
+            jedis.clientList().readLines().findAll { !it.contains(' name=specification ') }.each {
+                jedis.clientKill((it =~ /addr=(\S+)/)[0][1])
+            }
+
+        when:
+            client.ping()
+
+        then:
+            thrown(JedisConnectionException)
+
+        when:
+            def reply = client.ping()
+
+        then:
+            reply == 'PONG'
+    }
+
+    def "reports an unreachable server as a connection problem"() {
+        given:
+            def socket = new ServerSocket(0)
+            def port = socket.localPort
+            socket.close()
+            def unreachable = new RespClient('localhost', port, 2000, null, 0)
+
+        when:
+            unreachable.ping()
+
+        then:
+            thrown(JedisConnectionException)
+
+        cleanup:
+            unreachable.close()
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LogstashEventEncoderTest {
+
+    Logger logger = (Logger) LoggerFactory.getLogger(LogstashEventEncoderTest.class);
+    LogstashEventLayout layout = new LogstashEventLayout();
+    LogstashEventEncoder encoder = new LogstashEventEncoder(layout);
+
+    LoggingEvent loggingEvent;
+
+    @Before
+    public void setUp() throws Exception {
+        loggingEvent = new LoggingEvent(null, logger, Level.INFO, "I am an awesome message", null, null);
+        loggingEvent.setTimeStamp(1397521334308L);
+        layout.setHost("some-host");
+        encoder.start();
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        assertArrayEquals(layout.doLayout(loggingEvent).getBytes("UTF-8"), encoder.encode(loggingEvent));
+    }
+
+    @Test
+    public void testDoEncodeWritesOneEventPerLine() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encoder.init(outputStream);
+
+        encoder.doEncode(loggingEvent);
+        encoder.doEncode(loggingEvent);
+
+        String line = layout.doLayout(loggingEvent);
+        assertEquals(line + "\n" + line + "\n", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void testDoEncodeWritesMessagePackWithoutSeparators() throws Exception {
+        layout.setWireFormat(WireFormat.MSGPACK);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        encoder.init(outputStream);
+
+        encoder.doEncode(loggingEvent);
+        encoder.doEncode(loggingEvent);
+
+        byte[] event = layout.encode(loggingEvent);
+        byte[] expected = Arrays.copyOf(event, event.length * 2);
+        System.arraycopy(event, 0, expected, event.length, event.length);
+        assertArrayEquals(expected, outputStream.toByteArray());
+    }
+
+    @Test
+    public void testStartCreatesDefaultLayout() throws Exception {
+        LogstashEventEncoder defaultEncoder = new LogstashEventEncoder();
+        defaultEncoder.start();
+
+        assertEquals(defaultEncoder.getLayout().doLayout(loggingEvent),
+                new String(defaultEncoder.encode(loggingEvent), "UTF-8"));
+    }
+
+}
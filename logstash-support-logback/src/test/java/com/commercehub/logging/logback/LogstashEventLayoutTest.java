@@ -25,11 +25,20 @@ import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class LogstashEventLayoutTest {
@@ -84,4 +93,182 @@ public class LogstashEventLayoutTest {
         assertEquals("some-host", parsedActual.get("host"));
     }
 
+    @Test
+    public void testUserFieldsTakePrecedenceOverEventFields() throws Exception {
+        LogstashEventLayout logstashEventLayout = new LogstashEventLayout();
+        logstashEventLayout.setUserFields("host:user-host,app:myApp");
+        logstashEventLayout.setHost("some-host");
+
+        String theEvent = logstashEventLayout.doLayout(loggingEvent);
+
+        JSONObject parsedActual = (JSONObject) JSONValue.parse(theEvent);
+        assertEquals("user-host", parsedActual.get("host"));
+        assertEquals("myApp", parsedActual.get("app"));
+        assertEquals(theEvent.indexOf("\"host\""), theEvent.lastIndexOf("\"host\""));
+    }
+
+    @Test
+    public void testFormatWithoutThrowable() throws Exception {
+        LoggingEvent event = new LoggingEvent(null, logger, level, message, null, null);
+        event.setTimeStamp(timeStamp);
+        event.setThreadName(threadName);
+
+        String theEvent = new LogstashEventLayout().doLayout(event);
+
+        JSONObject parsedActual = (JSONObject) JSONValue.parse(theEvent);
+        assertFalse(parsedActual.containsKey("exception"));
+        assertEquals(message, parsedActual.get("message"));
+    }
+
+    @Test
+    public void testEncodeProducesUtf8OfFormattedEvent() throws Exception {
+        LogstashEventLayout logstashEventLayout = new LogstashEventLayout();
+        logstashEventLayout.setUserFields("app:myApp");
+        logstashEventLayout.setHost("some-host");
+
+        assertArrayEquals(logstashEventLayout.doLayout(loggingEvent).getBytes("UTF-8"),
+                logstashEventLayout.encode(loggingEvent));
+    }
+
+    @Test
+    public void testStaticFieldsFollowConfigurationChanges() throws Exception {
+        LogstashEventLayout logstashEventLayout = new LogstashEventLayout();
+        logstashEventLayout.setUserFields("app:myApp");
+        logstashEventLayout.setHost("some-host");
+        logstashEventLayout.doLayout(loggingEvent);
+
+        logstashEventLayout.setHost("other-host");
+        logstashEventLayout.setUserFields("env:qa,@version:2");
+        String theEvent = logstashEventLayout.doLayout(loggingEvent);
+
+        JSONObject parsedActual = (JSONObject) JSONValue.parse(theEvent);
+        assertEquals("other-host", parsedActual.get("host"));
+        assertEquals("qa", parsedActual.get("env"));
+        assertEquals("2", parsedActual.get("@version"));
+        assertFalse(parsedActual.containsKey("app"));
+        assertTrue(theEvent.startsWith("{\"@version\":\"2\",\"host\":\"other-host\","));
+    }
+
+    @Test
+    public void testSameFailureWithDifferentMessagesSharesFingerprint() throws Exception {
+        LogstashEventLayout logstashEventLayout = new LogstashEventLayout();
+        List<JSONObject> parsedExceptions = new ArrayList<>();
+        for (String failureMessage : Arrays.asList("first", "second", "first")) {
+            String theEvent = logstashEventLayout.doLayout(newLoggingEvent(newFailure(failureMessage), timeStamp));
+            JSONObject parsedActual = (JSONObject) JSONValue.parse(theEvent);
+            parsedExceptions.add((JSONObject) parsedActual.get("exception"));
+        }
+
+        String fingerprint = (String) parsedExceptions.get(0).get("fingerprint");
+        assertEquals(16, fingerprint.length());
+        assertEquals(fingerprint, parsedExceptions.get(1).get("fingerprint"));
+        assertEquals(fingerprint, parsedExceptions.get(2).get("fingerprint"));
+        assertTrue(((String) parsedExceptions.get(0).get("stacktrace")).contains("first"));
+        assertTrue(((String) parsedExceptions.get(1).get("stacktrace")).contains("second"));
+        assertEquals(parsedExceptions.get(0).get("stacktrace"), parsedExceptions.get(2).get("stacktrace"));
+    }
+
+    @Test
+    public void testDeduplicationWindowOmitsRepeatedStackTraces() throws Exception {
+        LogstashEventLayout logstashEventLayout = new LogstashEventLayout();
+        logstashEventLayout.setStackTraceDeduplicationWindow(1000);
+
+        JSONObject first = formatException(logstashEventLayout, timeStamp);
+        JSONObject repeated = formatException(logstashEventLayout, timeStamp + 999);
+        JSONObject afterWindow = formatException(logstashEventLayout, timeStamp + 1000);
+
+        assertTrue(first.containsKey("stacktrace"));
+        assertFalse(repeated.containsKey("stacktrace"));
+        assertEquals(exceptionMessage, repeated.get("message"));
+        assertEquals("java.lang.RuntimeException", repeated.get("class"));
+        assertEquals(first.get("fingerprint"), repeated.get("fingerprint"));
+        assertTrue(afterWindow.containsKey("stacktrace"));
+    }
+
+    @Test
+    public void testStackTraceSettingsApply() throws Exception {
+        LogstashEventLayout logstashEventLayout = new LogstashEventLayout();
+        logstashEventLayout.doLayout(loggingEvent);
+        logstashEventLayout.setMaxStackTraceFrames(0);
+        logstashEventLayout.setMaxStackTraceCauseDepth(0);
+
+        String stackTrace = (String) formatException(logstashEventLayout, timeStamp).get("stacktrace");
+
+        assertTrue(stackTrace.contains("frames truncated"));
+        assertTrue(stackTrace.contains("Caused by: ..."));
+        assertFalse(stackTrace.contains(nestedExceptionMessage));
+    }
+
+    @Test
+    public void testSharedInstanceIsThreadSafe() throws Exception {
+        final LogstashEventLayout logstashEventLayout = new LogstashEventLayout();
+        logstashEventLayout.setUserFields("app:myApp");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                final int thread = i;
+                futures[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 2000; j++) {
+                            String eventMessage = "message " + thread + "/" + j;
+                        LoggingEvent event = new LoggingEvent(
+                                null, logger, level, eventMessage, j % 10 == 0 ? runtimeException : null, null);
+                        event.setTimeStamp(timeStamp);
+                        event.setThreadName(threadName);
+
+                            JSONObject parsedActual = (JSONObject) JSONValue.parse(logstashEventLayout.doLayout(event));
+
+                            assertEquals(eventMessage, parsedActual.get("message"));
+                            assertEquals("myApp", parsedActual.get("app"));
+                            assertEquals(j % 10 == 0, parsedActual.containsKey("exception"));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMessagePackCarriesSameEventAsJson() throws Exception {
+        LogstashEventLayout jsonLayout = new LogstashEventLayout();
+        jsonLayout.setUserFields("app:myApp,someField:myField");
+        jsonLayout.setHost("some-host");
+        LogstashEventLayout messagePackLayout = new LogstashEventLayout();
+        messagePackLayout.setUserFields("app:myApp,someField:myField");
+        messagePackLayout.setHost("some-host");
+        messagePackLayout.setWireFormat(WireFormat.MSGPACK);
+
+        byte[] json = jsonLayout.encode(loggingEvent);
+        byte[] messagePack = messagePackLayout.encode(loggingEvent);
+
+        JsonWriter decoded = new JsonWriter();
+        decoded.value((Map<?, ?>) MessagePackReader.read(messagePack));
+        assertEquals(JSONValue.parse(new String(json, "UTF-8")), JSONValue.parse(decoded.toString()));
+        assertEquals(jsonLayout.doLayout(loggingEvent), messagePackLayout.doLayout(loggingEvent));
+        assertTrue(messagePack.length < json.length);
+    }
+
+    private static RuntimeException newFailure(String failureMessage) {
+        return new IllegalStateException(failureMessage);
+    }
+
+    private LoggingEvent newLoggingEvent(Throwable throwable, long timeStamp) {
+        LoggingEvent event = new LoggingEvent(null, logger, level, message, throwable, null);
+        event.setTimeStamp(timeStamp);
+        return event;
+    }
+
+    private JSONObject formatException(LogstashEventLayout logstashEventLayout, long timeStamp) {
+        String theEvent = logstashEventLayout.doLayout(newLoggingEvent(runtimeException, timeStamp));
+        return (JSONObject) ((JSONObject) JSONValue.parse(theEvent)).get("exception");
+    }
+
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MessagePackWriterTest {
+
+    MessagePackWriter writer = new MessagePackWriter(4);
+
+    @Test
+    public void testWritesStringsWithSmallestHeader() throws Exception {
+        int[] lengths = {0, 31, 32, 255, 256, 65535, 65536};
+        int[] headers = {0xA0, 0xBF, 0xD9, 0xD9, 0xDA, 0xDA, 0xDB};
+        int[] headerLengths = {1, 1, 2, 2, 3, 3, 5};
+        for (int i = 0; i < lengths.length; i++) {
+            String value = repeat('x', lengths[i]);
+            for (boolean streamed : new boolean[]{false, true}) {
+                writer.reset();
+                if (streamed) {
+                    writer.beginString();
+                    writer.append(value);
+                    writer.endString();
+                } else {
+                    writer.value(value);
+                }
+
+                byte[] bytes = writer.toByteArray();
+                assertEquals(headers[i], bytes[0] & 0xFF);
+                assertEquals(headerLengths[i] + lengths[i], bytes.length);
+                assertEquals(value, MessagePackReader.read(bytes));
+            }
+        }
+    }
+
+    @Test
+    public void testWritesIntegersWithSmallestType() throws Exception {
+        long[] values = {0, 127, 128, 255, 256, 65535, 65536, 4294967295L, 4294967296L, Long.MAX_VALUE,
+                -1, -32, -33, -128, -129, -32768, -32769, Integer.MIN_VALUE, Integer.MIN_VALUE - 1L, Long.MIN_VALUE};
+        int[] lengths = {1, 1, 2, 2, 3, 3, 5, 5, 9, 9, 1, 1, 2, 2, 3, 3, 5, 5, 9, 9};
+        for (int i = 0; i < values.length; i++) {
+            writer.reset();
+            writer.value(values[i]);
+
+            assertEquals(lengths[i], writer.size());
+            assertEquals(values[i], MessagePackReader.read(writer.toByteArray()));
+        }
+    }
+
+    @Test
+    public void testWritesOtherValues() throws Exception {
+        writer.beginObject();
+        writer.name("null");
+        writer.value((Object) null);
+        writer.name("true");
+        writer.value((Object) true);
+        writer.name("double");
+        writer.value((Object) 1.5);
+        writer.name("integer");
+        writer.value((Object) 42);
+        writer.name("other");
+        writer.value((Object) new StringBuilder("text"));
+        writer.endObject();
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("null", null);
+        expected.put("true", true);
+        expected.put("double", 1.5);
+        expected.put("integer", 42L);
+        expected.put("other", "text");
+        assertEquals(expected, MessagePackReader.read(writer.toByteArray()));
+    }
+
+    @Test
+    public void testWritesMapsWithSmallestHeader() throws Exception {
+        Map<String, Object> expected = new LinkedHashMap<>();
+        writer.beginObject();
+        for (int i = 0; i < 16; i++) {
+            writer.name("key" + i);
+            Map<String, String> nested = Collections.singletonMap("nested", "value" + i);
+            writer.value(nested);
+            expected.put("key" + i, nested);
+        }
+        writer.endObject();
+
+        byte[] bytes = writer.toByteArray();
+        assertEquals(0xDE, bytes[0] & 0xFF);
+        assertEquals(0x81, bytes[1 + 2 + 5] & 0xFF);
+        assertEquals(expected, MessagePackReader.read(bytes));
+    }
+
+    @Test
+    public void testEncodesUtf8() throws Exception {
+        String value = "caf\u00e9 \u4e2d \ud83d\ude00";
+
+        writer.value(value);
+        writer.beginString();
+        writer.append(value);
+        writer.append('\u00e9');
+        writer.endString();
+        writer.value("a\ud83d");
+
+        byte[] utf8 = value.getBytes("UTF-8");
+        byte[] bytes = writer.toByteArray();
+        assertEquals(0xA0 | utf8.length, bytes[0] & 0xFF);
+        assertArrayEquals(utf8, Arrays.copyOfRange(bytes, 1, 1 + utf8.length));
+        assertEquals(0xA0 | (utf8.length + 2), bytes[1 + utf8.length] & 0xFF);
+        assertArrayEquals(new byte[]{(byte) 0xA2, 'a', '?'}, Arrays.copyOfRange(bytes, bytes.length - 3, bytes.length));
+    }
+
+    @Test
+    public void testSplicesMembers() throws Exception {
+        MessagePackWriter membersWriter = new MessagePackWriter();
+        membersWriter.field("a", "b");
+        membersWriter.field("c", "d");
+        byte[] members = membersWriter.toMembers();
+
+        writer.beginObject();
+        writer.members(members);
+        writer.members(new MessagePackWriter().toMembers());
+        writer.field("e", "f");
+        writer.endObject();
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("a", "b");
+        expected.put("c", "d");
+        expected.put("e", "f");
+        assertEquals(expected, MessagePackReader.read(writer.toByteArray()));
+    }
+
+    @Test
+    public void testToStringIsJson() throws Exception {
+        writer.beginObject();
+        writer.field("a", "b\"");
+        writer.name("n");
+        writer.value(1);
+        writer.endObject();
+
+        assertEquals("{\"a\":\"b\\\"\",\"n\":1}", writer.toString());
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+}
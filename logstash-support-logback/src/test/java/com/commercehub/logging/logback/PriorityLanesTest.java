@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityLanesTest {
+
+    Logger logger = new LoggerContext().getLogger(PriorityLanesTest.class);
+    PriorityLanes lanes = new PriorityLanes(4);
+
+    @Test
+    public void testLevelsAreGroupedBySeverity() {
+        assertEquals(0, PriorityLanes.laneIndex(Level.ERROR));
+        assertEquals(1, PriorityLanes.laneIndex(Level.WARN));
+        assertEquals(2, PriorityLanes.laneIndex(Level.INFO));
+        assertEquals(2, PriorityLanes.laneIndex(Level.DEBUG));
+        assertEquals(2, PriorityLanes.laneIndex(Level.TRACE));
+        assertEquals(2, PriorityLanes.laneIndex(null));
+    }
+
+    @Test
+    public void testMostSevereEventsArePolledFirst() {
+        ILoggingEvent info = offer(Level.INFO);
+        ILoggingEvent error = offer(Level.ERROR);
+        ILoggingEvent warn = offer(Level.WARN);
+        ILoggingEvent secondError = offer(Level.ERROR);
+
+        assertEquals(4, lanes.size());
+        assertEquals(12, lanes.capacity());
+        assertSame(error, lanes.poll());
+        assertSame(secondError, lanes.poll());
+        assertSame(warn, lanes.poll());
+        assertSame(info, lanes.poll());
+        assertNull(lanes.poll());
+    }
+
+    @Test
+    public void testLeastSevereEventsAreShedFirst() {
+        ILoggingEvent warn = offer(Level.WARN);
+        ILoggingEvent debug = offer(Level.DEBUG);
+        offer(Level.ERROR);
+
+        assertNull(lanes.pollLessSevere(Level.INFO));
+        assertSame(debug, lanes.pollLessSevere(Level.ERROR));
+        assertNull(lanes.pollLessSevere(Level.WARN));
+        assertSame(warn, lanes.pollLessSevere(Level.ERROR));
+        assertNull(lanes.pollLessSevere(Level.ERROR));
+        assertEquals(1, lanes.size());
+    }
+
+    private ILoggingEvent offer(Level level) {
+        ILoggingEvent event = new LoggingEvent(null, logger, level, "message", null, null);
+        assertTrue(lanes.laneFor(event).offer(event));
+        return event;
+    }
+
+}
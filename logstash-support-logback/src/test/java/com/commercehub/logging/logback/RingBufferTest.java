@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest {
+
+    @Test
+    public void testCapacityIsRoundedUpToPowerOfTwo() throws Exception {
+        assertEquals(2, new RingBuffer<String>(1).capacity());
+        assertEquals(8, new RingBuffer<String>(5).capacity());
+        assertEquals(1024, new RingBuffer<String>(1024).capacity());
+    }
+
+    @Test
+    public void testIsFifoAndBounded() throws Exception {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(4);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer(i));
+        }
+        assertFalse(ringBuffer.offer(4));
+        assertEquals(4, ringBuffer.size());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), ringBuffer.poll());
+        }
+        assertNull(ringBuffer.poll());
+        assertEquals(0, ringBuffer.size());
+    }
+
+    @Test
+    public void testWrapsAround() throws Exception {
+        RingBuffer<Integer> ringBuffer = new RingBuffer<>(4);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ringBuffer.offer(i));
+            assertTrue(ringBuffer.offer(-i));
+            assertEquals(Integer.valueOf(i), ringBuffer.poll());
+            assertEquals(Integer.valueOf(-i), ringBuffer.poll());
+        }
+    }
+
+    @Test
+    public void testClearReturnsNumberRemoved() throws Exception {
+        RingBuffer<String> ringBuffer = new RingBuffer<>(8);
+        ringBuffer.offer("a");
+        ringBuffer.offer("b");
+        ringBuffer.offer("c");
+
+        assertEquals(3, ringBuffer.clear());
+        assertNull(ringBuffer.poll());
+        assertTrue(ringBuffer.offer("d"));
+    }
+
+    @Test
+    public void testKeepsEachProducersOrderUnderContention() throws Exception {
+        final int producers = 4;
+        final int perProducer = 50000;
+        final RingBuffer<long[]> ringBuffer = new RingBuffer<>(64);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            Future<?>[] futures = new Future<?>[producers];
+            for (int i = 0; i < producers; i++) {
+                final int producer = i;
+                futures[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < perProducer; j++) {
+                            long[] element = {producer, j};
+                            while (!ringBuffer.offer(element)) {
+                                Thread.yield();
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            long[] next = new long[producers];
+            for (int received = 0; received < producers * perProducer; ) {
+                long[] element = ringBuffer.poll();
+                if (element == null) {
+                    Thread.yield();
+                    continue;
+                }
+                assertEquals(next[(int) element[0]]++, element[1]);
+                received++;
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertNull(ringBuffer.poll());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
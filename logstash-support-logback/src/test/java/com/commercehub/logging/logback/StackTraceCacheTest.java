@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StackTraceCacheTest {
+
+    @Test
+    public void testFingerprintIgnoresMessages() throws Exception {
+        String[] failureMessages = {"first", "second"};
+        RuntimeException[] failures = new RuntimeException[failureMessages.length];
+        for (int i = 0; i < failures.length; i++) {
+            // thrown from the same line, so only the messages differ
+            failures[i] = newFailure(failureMessages[i], null);
+        }
+        RuntimeException first = failures[0];
+        RuntimeException second = failures[1];
+
+        assertEquals(StackTraceCache.fingerprint(new ThrowableProxy(first)), StackTraceCache.fingerprint(new ThrowableProxy(second)));
+        assertNotEquals(StackTraceCache.messagesHash(new ThrowableProxy(first)), StackTraceCache.messagesHash(new ThrowableProxy(second)));
+    }
+
+    @Test
+    public void testFingerprintCoversClassesAndCauses() throws Exception {
+        RuntimeException failure = newFailure("failure", null);
+        RuntimeException otherClass = new IllegalArgumentException("failure");
+        otherClass.setStackTrace(failure.getStackTrace());
+        RuntimeException withCause = newFailure("failure", new IllegalStateException("cause"));
+
+        assertNotEquals(StackTraceCache.fingerprint(new ThrowableProxy(failure)), StackTraceCache.fingerprint(new ThrowableProxy(otherClass)));
+        assertNotEquals(StackTraceCache.fingerprint(new ThrowableProxy(failure)), StackTraceCache.fingerprint(new ThrowableProxy(withCause)));
+    }
+
+    @Test(timeout = 10000)
+    public void testCyclicCausesAndSuppressionsAreFollowedOnce() throws Exception {
+        StubThrowableProxy first = new StubThrowableProxy("first");
+        StubThrowableProxy second = new StubThrowableProxy("second");
+        second.cause = first;
+        first.suppressed = new IThrowableProxy[]{second};
+
+        assertEquals(StackTraceCache.fingerprint(first), StackTraceCache.fingerprint(first));
+        assertEquals(StackTraceCache.messagesHash(first), StackTraceCache.messagesHash(first));
+    }
+
+    @Test(timeout = 10000)
+    public void testThrowablesReachableSeveralWaysAreFollowedOnce() throws Exception {
+        // each one is both the cause and a suppressed exception of the one before, 2^40 paths in all
+        StubThrowableProxy proxy = new StubThrowableProxy("failure 40");
+        for (int i = 39; i >= 0; i--) {
+            StubThrowableProxy previous = new StubThrowableProxy("failure " + i);
+            previous.cause = proxy;
+            previous.suppressed = new IThrowableProxy[]{proxy};
+            proxy = previous;
+        }
+
+        StackTraceCache.fingerprint(proxy);
+        StackTraceCache.messagesHash(proxy);
+    }
+
+    @Test
+    public void testMissingSuppressedArrayIsTreatedAsEmpty() throws Exception {
+        StubThrowableProxy proxy = new StubThrowableProxy("failure");
+        proxy.suppressed = null;
+
+        assertEquals(StackTraceCache.fingerprint(proxy), StackTraceCache.fingerprint(new StubThrowableProxy("failure")));
+        StackTraceCache.messagesHash(proxy);
+    }
+
+    @Test
+    public void testEntryKeepsStackTraceForSameMessagesOnly() throws Exception {
+        StackTraceCache.Entry entry = new StackTraceCache(4).get(42L);
+        byte[] stackTrace = {'"', 'x', '"'};
+
+        entry.setStackTrace(1L, stackTrace);
+
+        assertEquals("000000000000002a", entry.getFingerprint());
+        assertSame(stackTrace, entry.getStackTrace(1L));
+        assertNull(entry.getStackTrace(2L));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntries() throws Exception {
+        StackTraceCache stackTraceCache = new StackTraceCache(2);
+        StackTraceCache.Entry first = stackTraceCache.get(1L);
+        StackTraceCache.Entry second = stackTraceCache.get(2L);
+
+        assertSame(first, stackTraceCache.get(1L));
+        stackTraceCache.get(3L);
+
+        assertSame(first, stackTraceCache.get(1L));
+        assertNotSame(second, stackTraceCache.get(2L));
+    }
+
+    @Test
+    public void testDisabledCacheKeepsNothing() throws Exception {
+        StackTraceCache stackTraceCache = new StackTraceCache(0);
+
+        assertNotSame(stackTraceCache.get(1L), stackTraceCache.get(1L));
+    }
+
+    @Test
+    public void testFullStackTraceIsDueOncePerWindow() throws Exception {
+        StackTraceCache.Entry entry = new StackTraceCache(4).get(1L);
+
+        assertTrue(entry.isFullStackTraceDue(1000L, 500L));
+        assertFalse(entry.isFullStackTraceDue(1499L, 500L));
+        assertTrue(entry.isFullStackTraceDue(1500L, 500L));
+        // a clock that went backwards starts a new window rather than suppressing stack traces until it catches up
+        assertTrue(entry.isFullStackTraceDue(900L, 500L));
+    }
+
+    private static RuntimeException newFailure(String failureMessage, Throwable cause) {
+        return new IllegalStateException(failureMessage, cause);
+    }
+
+    /**
+     * A proxy put together by hand, as ThrowableProxy can't be made of a cyclic graph.
+     */
+    private static final class StubThrowableProxy implements IThrowableProxy {
+
+        private final String message;
+        IThrowableProxy cause;
+        IThrowableProxy[] suppressed = new IThrowableProxy[0];
+
+        StubThrowableProxy(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String getClassName() {
+            return IllegalStateException.class.getName();
+        }
+
+        @Override
+        public StackTraceElementProxy[] getStackTraceElementProxyArray() {
+            return new StackTraceElementProxy[]{
+                    new StackTraceElementProxy(new StackTraceElement("Foo", "bar", "Foo.java", 42))
+            };
+        }
+
+        @Override
+        public int getCommonFrames() {
+            return 0;
+        }
+
+        @Override
+        public IThrowableProxy getCause() {
+            return cause;
+        }
+
+        @Override
+        public IThrowableProxy[] getSuppressed() {
+            return suppressed;
+        }
+
+    }
+
+}
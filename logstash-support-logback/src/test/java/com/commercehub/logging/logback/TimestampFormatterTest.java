@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimestampFormatterTest {
+
+    TimestampFormatter timestampFormatter = new TimestampFormatter();
+
+    @Test
+    public void testFormatsLikeSimpleDateFormat() throws Exception {
+        SimpleDateFormat simpleDateFormat = newSimpleDateFormat();
+        Random random = new Random(1397521334308L);
+        long[] timeStamps = {0L, 999L, 1000L, 1397521334308L, 951782400000L, 4102444799999L, -1L, -86400001L};
+        for (long timeStamp : timeStamps) {
+            assertEquals(simpleDateFormat.format(new Date(timeStamp)), timestampFormatter.format(timeStamp));
+        }
+        for (int i = 0; i < 10000; i++) {
+            // anywhere between 1970 and 2100
+            long timeStamp = (long) (random.nextDouble() * 4102444800000L);
+            assertEquals(simpleDateFormat.format(new Date(timeStamp)), timestampFormatter.format(timeStamp));
+        }
+    }
+
+    @Test
+    public void testFormatsMillisWithinCachedSecond() throws Exception {
+        assertEquals("2014-04-15T00:22:14.308Z", timestampFormatter.format(1397521334308L));
+        assertEquals("2014-04-15T00:22:14.009Z", timestampFormatter.format(1397521334009L));
+        assertEquals("2014-04-15T00:22:13.999Z", timestampFormatter.format(1397521333999L));
+        assertEquals("2014-04-15T00:22:14.000Z", timestampFormatter.format(1397521334000L));
+    }
+
+    @Test
+    public void testWritesIntoBuffer() throws Exception {
+        byte[] buffer = new byte[TimestampFormatter.MAX_LENGTH + 2];
+
+        int end = timestampFormatter.format(1397521334308L, buffer, 2);
+
+        assertEquals(26, end);
+        assertEquals("2014-04-15T00:22:14.308Z", new String(buffer, 2, end - 2, "UTF-8"));
+    }
+
+    @Test
+    public void testIsThreadSafe() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                final long seed = i;
+                futures[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        SimpleDateFormat simpleDateFormat = newSimpleDateFormat();
+                        Random random = new Random(seed);
+                        for (int j = 0; j < 20000; j++) {
+                            // a few seconds around the same instant, so threads keep replacing each other's cache
+                            long timeStamp = 1397521334308L + random.nextInt(5000);
+                            assertEquals(simpleDateFormat.format(new Date(timeStamp)),
+                                    timestampFormatter.format(timeStamp));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static SimpleDateFormat newSimpleDateFormat() {
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return simpleDateFormat;
+    }
+
+}
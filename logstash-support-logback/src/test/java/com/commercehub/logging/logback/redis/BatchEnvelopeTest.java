@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback.redis;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchEnvelopeTest {
+
+    BatchEnvelopeWriter writer = new BatchEnvelopeWriter(BatchCompression.GZIP);
+
+    @Test
+    public void testEnvelopeExpandsToRecordsInOrder() throws Exception {
+        byte[][] records = {
+                "{\"message\":\"first\"}".getBytes("UTF-8"),
+                new byte[0],
+                "{\"message\":\"third\"}".getBytes("UTF-8"),
+                "left over from a larger batch".getBytes("UTF-8")
+        };
+
+        byte[] envelope = writer.write(records, 3);
+
+        assertTrue(BatchEnvelopeReader.isEnvelope(envelope));
+        assertEquals(1, envelope[2]);
+        assertEquals(3, envelope[6]);
+        List<byte[]> read = BatchEnvelopeReader.read(envelope);
+        assertEquals(3, read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertArrayEquals(records[i], read.get(i));
+        }
+    }
+
+    @Test
+    public void testPayloadIsStandardGzip() throws Exception {
+        byte[] record = "{\"message\":\"hello\"}".getBytes("UTF-8");
+
+        byte[] envelope = writer.write(new byte[][]{record}, 1);
+
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(envelope, 7, envelope.length - 7));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, n);
+        }
+        byte[] expected = new byte[4 + record.length];
+        expected[3] = (byte) record.length;
+        System.arraycopy(record, 0, expected, 4, record.length);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void testWriterIsReusableAcrossBatches() throws Exception {
+        Random random = new Random(42);
+        for (int batch = 0; batch < 20; batch++) {
+            byte[][] records = new byte[random.nextInt(50) + 1][];
+            for (int i = 0; i < records.length; i++) {
+                // large enough records that the buffers have to grow now and then
+                records[i] = new byte[random.nextInt(4000)];
+                random.nextBytes(records[i]);
+            }
+
+            List<byte[]> read = BatchEnvelopeReader.read(writer.write(records, records.length));
+
+            assertEquals(records.length, read.size());
+            for (int i = 0; i < records.length; i++) {
+                assertArrayEquals(records[i], read.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testRepetitiveEventsCompress() throws Exception {
+        byte[][] records = new byte[100][];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = ("{\"@timestamp\":\"2014-04-15T00:22:14.308Z\",\"logger_full\":\"com.acme.Foo\","
+                    + "\"level\":\"INFO\",\"@version\":1,\"host\":\"some-host\",\"thread\":\"main\","
+                    + "\"message\":\"request " + i + " handled\"}").getBytes("UTF-8");
+        }
+        int rawLength = 0;
+        for (byte[] record : records) {
+            rawLength += record.length;
+        }
+
+        byte[] envelope = writer.write(records, records.length);
+
+        assertTrue(envelope.length * 5 < rawLength);
+    }
+
+    @Test
+    public void testPlainEventIsReadAsItself() throws Exception {
+        byte[] event = "{\"message\":\"plain\"}".getBytes("UTF-8");
+
+        assertFalse(BatchEnvelopeReader.isEnvelope(event));
+        List<byte[]> read = BatchEnvelopeReader.read(event);
+        assertEquals(1, read.size());
+        assertSame(event, read.get(0));
+    }
+
+    @Test
+    public void testRejectsUnknownCodecAndTruncatedEnvelopes() throws Exception {
+        byte[] envelope = writer.write(new byte[][]{"{}".getBytes("UTF-8")}, 1);
+
+        byte[] unknownCodec = envelope.clone();
+        unknownCodec[2] = 42;
+        assertUnreadable(unknownCodec);
+        assertUnreadable(Arrays.copyOf(envelope, envelope.length - 12));
+        byte[] wrongCount = envelope.clone();
+        wrongCount[6] = 2;
+        assertUnreadable(wrongCount);
+        wrongCount[6] = 0;
+        assertUnreadable(wrongCount);
+    }
+
+    private static void assertUnreadable(byte[] envelope) {
+        try {
+            BatchEnvelopeReader.read(envelope);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+}
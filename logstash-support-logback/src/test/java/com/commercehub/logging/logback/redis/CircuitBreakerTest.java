@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback.redis;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    long now = 0;
+    CircuitBreaker.Clock clock = new CircuitBreaker.Clock() {
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    };
+    CircuitBreaker breaker = new CircuitBreaker(100, 1000, clock);
+
+    @Test
+    public void testClosedBreakerAllowsRequests() {
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testFailureOpensBreakerUntilBackoffPasses() {
+        long backoff = breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        advance(backoff - 1);
+        assertFalse(breaker.allowRequest());
+        advance(1);
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testOnlyOneProbeIsAllowedWhileHalfOpen() {
+        advance(breaker.onFailure());
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        advance(10000);
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testSuccessfulProbeClosesBreaker() {
+        advance(breaker.onFailure());
+        assertTrue(breaker.allowRequest());
+
+        breaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testBackoffDoublesUpToMaximumWithJitter() {
+        long[] limits = {100, 200, 400, 800, 1000, 1000, 1000};
+        for (long limit : limits) {
+            long backoff = breaker.onFailure();
+            assertTrue(backoff + " should be within half of " + limit, backoff >= limit / 2 && backoff <= limit);
+            advance(backoff);
+            assertTrue(breaker.allowRequest());
+        }
+    }
+
+    @Test
+    public void testSuccessResetsBackoff() {
+        for (int i = 0; i < 5; i++) {
+            advance(breaker.onFailure());
+            breaker.allowRequest();
+        }
+        breaker.onSuccess();
+
+        assertTrue(breaker.onFailure() <= 100);
+    }
+
+    @Test
+    public void testBackoffDoesNotOverflowAfterManyFailures() {
+        for (int i = 0; i < 100; i++) {
+            long backoff = breaker.onFailure();
+            assertTrue(backoff >= 50 && backoff <= 1000);
+        }
+    }
+
+    private void advance(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Commerce Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.commercehub.logging.logback.redis;
+
+import org.junit.Test;
+import redis.clients.jedis.JedisPoolConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RedisEngineTest {
+
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+
+    @Test
+    public void testAppendersOfTheSameEndpointShareAnEngine() {
+        int engines = RedisEngine.engineCount();
+        RedisEngine first = RedisEngine.acquire("localhost", 6379, 2000, null, 0, poolConfig);
+        RedisEngine second = RedisEngine.acquire("localhost", 6379, 2000, null, 0, poolConfig);
+        RedisEngine otherPort = RedisEngine.acquire("localhost", 6380, 2000, null, 0, poolConfig);
+        RedisEngine otherPassword = RedisEngine.acquire("localhost", 6379, 2000, "secret", 0, poolConfig);
+        RedisEngine otherDatabase = RedisEngine.acquire("localhost", 6379, 2000, null, 1, poolConfig);
+
+        assertSame(first, second);
+        assertSame(first.getPool(), second.getPool());
+        assertNotSame(first, otherPort);
+        assertNotSame(first, otherPassword);
+        assertNotSame(first, otherDatabase);
+        assertEquals(engines + 4, RedisEngine.engineCount());
+
+        first.release();
+        second.release();
+        otherPort.release();
+        otherPassword.release();
+        otherDatabase.release();
+        assertEquals(engines, RedisEngine.engineCount());
+    }
+
+    @Test
+    public void testEngineIsShutDownOnceTheLastReferenceIsReleased() {
+        RedisEngine first = RedisEngine.acquire("localhost", 6381, 2000, null, 0, poolConfig);
+        RedisEngine second = RedisEngine.acquire("localhost", 6381, 2000, null, 0, poolConfig);
+
+        first.release();
+        assertFalse(second.getScheduler().isShutdown());
+
+        second.release();
+        assertTrue(second.getScheduler().isShutdown());
+
+        RedisEngine third = RedisEngine.acquire("localhost", 6381, 2000, null, 0, poolConfig);
+        assertNotSame(first, third);
+        assertFalse(third.getScheduler().isShutdown());
+        third.release();
+    }
+
+}